@@ -0,0 +1,407 @@
+package com.android.fm.radio;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.HashMap;
+
+/**
+ * Software Alternative Frequency (AF) switching. Collects the AF list of
+ * every PI heard and keeps an averaged signal level for each frequency it
+ * has been on. When the tuned station stays below WEAK_RSSI for WEAK_SAMPLES
+ * samples, it tries the alternative with the best known signal: the switch
+ * is kept if the signal there beats the old one by HYSTERESIS and the PI
+ * matches, otherwise the receiver goes back and the alternative is left
+ * alone for PENALTY_MS. After a switch the engine waits MIN_DWELL_MS before
+ * considering another, so it does not flap between two weak transmitters.
+ *
+ * Runs on the Looper it is created with, which must be the thread that owns
+ * the receiver. The tune status and RDS PI of the receiver have to be
+ * forwarded while it is started.
+ */
+public class AfEngine {
+    private static final String LOGTAG = "FMService";
+
+    public static final long SAMPLE_INTERVAL_MS = 1000;
+
+    /* The tuned station is weak below this level... */
+    public static final int WEAK_RSSI = StationMap.SIGNAL_THRESHOLD + 10;
+
+    /* ...for this many samples in a row */
+    public static final int WEAK_SAMPLES = 3;
+
+    /* An alternative has to be this much stronger than the tuned station */
+    public static final int HYSTERESIS = 6;
+
+    /* Time for the signal level to settle after a tune */
+    public static final long SETTLE_MS = 100;
+
+    /* Wait for the PI of the alternative before giving up on it */
+    public static final long VERIFY_TIMEOUT_MS = 1500;
+
+    public static final long PENALTY_MS = 60 * 1000;
+
+    public static final long MIN_DWELL_MS = 10 * 1000;
+
+    /* Signal levels older than this are unknown again */
+    public static final long HISTORY_MAX_AGE_MS = 10 * 60 * 1000;
+
+    /* Detecting the weak signal to keeping or reverting the switch */
+    private static final LatencyStats mDecisionLatency = new LatencyStats("af-decision");
+
+    /** Receives the switch decisions, on the engine thread */
+    public interface Listener {
+        /**
+         * The engine tried "toFrequency" in place of "fromFrequency" and
+         * stayed there if "switched", went back otherwise.
+         */
+        void onAfDecision(int fromFrequency, int toFrequency, boolean switched,
+                long decisionNs);
+    }
+
+    /* Averaged signal level of one frequency */
+    private static class Signal {
+        int mRssi;
+
+        long mTime;
+    }
+
+    private final Handler mHandler;
+
+    private final Listener mListener;
+
+    /* PI -> AF list */
+    private final HashMap<Integer, int[]> mAfLists = new HashMap<Integer, int[]>();
+
+    /* Frequency -> signal level */
+    private final HashMap<Integer, Signal> mSignals = new HashMap<Integer, Signal>();
+
+    /* Frequency -> System.currentTimeMillis() until which it is not tried */
+    private final HashMap<Integer, Long> mPenalties = new HashMap<Integer, Long>();
+
+    private RadioTuner mTuner;
+
+    private volatile boolean mStarted = false;
+
+    private boolean mSuspended = false;
+
+    private int mFrequency;
+
+    private int mPi;
+
+    private int mWeakSamples;
+
+    /* System.nanoTime() of the first weak sample of the current run */
+    private long mWeakStartNs;
+
+    private long mLastSwitchTime;
+
+    /* Switch in progress, 0 if none */
+    private int mSwitchFrom;
+
+    private int mSwitchTo;
+
+    private int mSwitchFromRssi;
+
+    private boolean mSwitchTuned;
+
+    private int mSwitchRssi;
+
+    private boolean mSwitchPiMatched;
+
+    private long mSwitches = 0;
+
+    private long mReverts = 0;
+
+    private final Runnable mSample = new Runnable() {
+        public void run() {
+            sample();
+        }
+    };
+
+    private final Runnable mVerifyTimeout = new Runnable() {
+        public void run() {
+            Log.d(LOGTAG, "AfEngine: no PI match on " + mSwitchTo);
+            finishSwitch(false);
+        }
+    };
+
+    private final Runnable mMeasure = new Runnable() {
+        public void run() {
+            measureSwitch();
+        }
+    };
+
+    public AfEngine(Looper looper, Listener listener) {
+        mHandler = new Handler(looper);
+        mListener = listener;
+    }
+
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    /** Start watching the station "tuner" is on, "frequency" */
+    public void start(final RadioTuner tuner, final int frequency) {
+        mStarted = true;
+        mHandler.post(new Runnable() {
+            public void run() {
+                mTuner = tuner;
+                resetStation(frequency);
+                mHandler.removeCallbacks(mSample);
+                mHandler.postDelayed(mSample, SAMPLE_INTERVAL_MS);
+            }
+        });
+    }
+
+    /** Stop switching, the AF lists and signal history are kept */
+    public void stop() {
+        mStarted = false;
+        mHandler.post(new Runnable() {
+            public void run() {
+                mHandler.removeCallbacks(mSample);
+                mHandler.removeCallbacks(mMeasure);
+                mHandler.removeCallbacks(mVerifyTimeout);
+                mSwitchFrom = 0;
+                mTuner = null;
+            }
+        });
+    }
+
+    /** Pause switching while something else, e.g. a band scan, drives the receiver */
+    public void setSuspended(final boolean suspended) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                mSuspended = suspended;
+                mWeakSamples = 0;
+            }
+        });
+    }
+
+    /** The AF list received for "pi", from FmRxEvRdsAfInfo */
+    public void onAfList(final int pi, final int[] afList) {
+        if ((pi == 0) || (afList == null)) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            public void run() {
+                mAfLists.put(pi, afList.clone());
+            }
+        });
+    }
+
+    /** Signal level measured on "frequency" by someone else, e.g. the band scanner */
+    public void onSignal(final int frequency, final int rssi) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                updateSignal(frequency, rssi, System.currentTimeMillis());
+            }
+        });
+    }
+
+    /** The receiver finished tuning, from FmRxEvRadioTuneStatus */
+    public void onTuned(final int frequency) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                if (mSwitchFrom != 0) {
+                    if (frequency == mSwitchTo) {
+                        mSwitchTuned = true;
+                        mHandler.postDelayed(mMeasure, SETTLE_MS);
+                        return;
+                    }
+                    /* Someone else tuned away, the switch is moot */
+                    Log.d(LOGTAG, "AfEngine: switch to " + mSwitchTo + " overridden by "
+                            + frequency);
+                    mHandler.removeCallbacks(mMeasure);
+                    mHandler.removeCallbacks(mVerifyTimeout);
+                    mSwitchFrom = 0;
+                }
+                if (frequency != mFrequency) {
+                    resetStation(frequency);
+                }
+            }
+        });
+    }
+
+    /** PI decoded on the tuned station */
+    public void onProgramId(final int pi) {
+        if (pi == 0) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            public void run() {
+                if (mSwitchFrom != 0) {
+                    if (!mSwitchTuned) {
+                        /* Still the old station */
+                        return;
+                    }
+                    if (pi != mPi) {
+                        Log.d(LOGTAG, "AfEngine: PI " + pi + " on " + mSwitchTo + " is not "
+                                + mPi);
+                        finishSwitch(false);
+                    } else if (mSwitchRssi != 0) {
+                        finishSwitch(true);
+                    } else {
+                        mSwitchPiMatched = true;
+                    }
+                    return;
+                }
+                mPi = pi;
+            }
+        });
+    }
+
+    public long getSwitchCount() {
+        return mSwitches;
+    }
+
+    public long getRevertCount() {
+        return mReverts;
+    }
+
+    private void resetStation(int frequency) {
+        mFrequency = frequency;
+        mPi = 0;
+        mWeakSamples = 0;
+    }
+
+    private void updateSignal(int frequency, int rssi, long now) {
+        Signal signal = mSignals.get(frequency);
+        if ((signal == null) || ((now - signal.mTime) > HISTORY_MAX_AGE_MS)) {
+            signal = new Signal();
+            signal.mRssi = rssi;
+            mSignals.put(frequency, signal);
+        } else {
+            signal.mRssi = ((signal.mRssi * 3) + rssi) / 4;
+        }
+        signal.mTime = now;
+    }
+
+    /* Averaged level of "frequency", -1 if unknown */
+    private int getSignal(int frequency, long now) {
+        Signal signal = mSignals.get(frequency);
+        if ((signal == null) || ((now - signal.mTime) > HISTORY_MAX_AGE_MS)) {
+            return -1;
+        }
+        return signal.mRssi;
+    }
+
+    private void sample() {
+        if (!mStarted || (mTuner == null)) {
+            return;
+        }
+        mHandler.postDelayed(mSample, SAMPLE_INTERVAL_MS);
+        if (mSuspended || (mSwitchFrom != 0) || (mFrequency == 0)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        updateSignal(mFrequency, mTuner.getRssi(), now);
+        int rssi = getSignal(mFrequency, now);
+        if (rssi >= WEAK_RSSI) {
+            mWeakSamples = 0;
+            return;
+        }
+        if (mWeakSamples++ == 0) {
+            mWeakStartNs = System.nanoTime();
+        }
+        if ((mWeakSamples < WEAK_SAMPLES) || (mPi == 0)
+                || ((now - mLastSwitchTime) < MIN_DWELL_MS)) {
+            return;
+        }
+        int candidate = pickAlternative(rssi, now);
+        if (candidate != 0) {
+            startSwitch(candidate, rssi);
+        }
+    }
+
+    /*
+     * The alternative with the best known level at least HYSTERESIS above
+     * "rssi", or else one never measured, 0 if there is neither.
+     */
+    private int pickAlternative(int rssi, long now) {
+        int[] afList = mAfLists.get(mPi);
+        if (afList == null) {
+            return 0;
+        }
+        int best = 0;
+        int bestRssi = rssi + HYSTERESIS - 1;
+        int unknown = 0;
+        for (int af : afList) {
+            Long penalty = mPenalties.get(af);
+            if ((af == mFrequency) || ((penalty != null) && (penalty > now))) {
+                continue;
+            }
+            int afRssi = getSignal(af, now);
+            if (afRssi < 0) {
+                if (unknown == 0) {
+                    unknown = af;
+                }
+            } else if (afRssi > bestRssi) {
+                best = af;
+                bestRssi = afRssi;
+            }
+        }
+        return (best != 0) ? best : unknown;
+    }
+
+    private void startSwitch(int frequency, int rssi) {
+        Log.d(LOGTAG, "AfEngine: " + mFrequency + " weak (" + rssi + "), trying " + frequency);
+        mSwitchFrom = mFrequency;
+        mSwitchTo = frequency;
+        mSwitchFromRssi = rssi;
+        mSwitchTuned = false;
+        mSwitchRssi = 0;
+        mSwitchPiMatched = false;
+        mTuner.setStation(frequency);
+        mHandler.postDelayed(mVerifyTimeout, VERIFY_TIMEOUT_MS);
+    }
+
+    private void measureSwitch() {
+        if ((mSwitchFrom == 0) || (mTuner == null)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int rssi = mTuner.getRssi();
+        updateSignal(mSwitchTo, rssi, now);
+        if (rssi < (mSwitchFromRssi + HYSTERESIS)) {
+            Log.d(LOGTAG, "AfEngine: " + mSwitchTo + " not better (" + rssi + ")");
+            finishSwitch(false);
+            return;
+        }
+        /* Kept once the PI confirms it is the same station */
+        mSwitchRssi = rssi;
+        if (mSwitchPiMatched) {
+            finishSwitch(true);
+        }
+    }
+
+    private void finishSwitch(boolean switched) {
+        mHandler.removeCallbacks(mMeasure);
+        mHandler.removeCallbacks(mVerifyTimeout);
+        int from = mSwitchFrom;
+        int to = mSwitchTo;
+        int pi = mPi;
+        mSwitchFrom = 0;
+        long now = System.currentTimeMillis();
+        if (switched) {
+            mSwitches++;
+            mLastSwitchTime = now;
+            resetStation(to);
+            mPi = pi;
+        } else {
+            mReverts++;
+            mPenalties.put(to, now + PENALTY_MS);
+            mWeakSamples = 0;
+            if (mTuner != null) {
+                mTuner.setStation(from);
+            }
+        }
+        long decisionNs = System.nanoTime() - mWeakStartNs;
+        mDecisionLatency.record(decisionNs);
+        Log.d(LOGTAG, "AfEngine: " + (switched ? "switched " : "stayed on ") + from
+                + (switched ? " to " : " instead of ") + to + " after "
+                + (decisionNs / 1000000) + " ms");
+        mListener.onAfDecision(from, to, switched, decisionNs);
+    }
+}
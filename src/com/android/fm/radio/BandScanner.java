@@ -0,0 +1,291 @@
+package com.android.fm.radio;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walks the band one channel at a time, measuring signal level, stereo and
+ * RDS PI/PS on each, and reports every channel to the Listener as soon as it
+ * has been measured. Results go into a StationMap so an incremental scan only
+ * revisits known stations and channels due for a check; a channel whose
+ * station appeared or disappeared also gets its neighbours rescanned.
+ *
+ * Runs on the Looper it is created with, which must be the thread that owns
+ * the receiver. The tune, stereo and PS events of the receiver have to be
+ * forwarded while isScanning().
+ */
+public class BandScanner {
+    private static final String LOGTAG = "FMService";
+
+    /* Time for the signal level and stereo pilot to settle after a tune */
+    public static final long SIGNAL_DWELL_MS = 60;
+
+    /* Extra time on a station to pick up RDS PI and PS */
+    public static final long RDS_DWELL_MS = 1200;
+
+    /* A tune that does not complete within this is taken as no signal */
+    public static final long TUNE_TIMEOUT_MS = 500;
+
+    /* Longest cancelAndWait() waits for the scanner thread */
+    private static final long CANCEL_WAIT_MS = 1000;
+
+    /** Receives the scan results, on the scanner thread */
+    public interface Listener {
+        void onChannelScanned(int frequency, int rssi, boolean stereo, int pi, String ps);
+
+        void onScanComplete(boolean cancelled);
+    }
+
+    private final Handler mHandler;
+
+    private final StationMap mMap;
+
+    private final Listener mListener;
+
+    private RadioTuner mTuner;
+
+    private volatile boolean mScanning = false;
+
+    /* Channels to visit, grows when neighbours of a changed channel are added */
+    private boolean[] mPlanned;
+
+    /* Channels already measured in this scan, never planned again */
+    private boolean[] mDone;
+
+    private int mNextChannel;
+
+    private int mChannel = -1;
+
+    private int mFrequency;
+
+    private int mReturnFrequency;
+
+    private boolean mStereo;
+
+    private int mPi;
+
+    private String mPs;
+
+    private boolean mWaitedForRds;
+
+    private boolean mSamplePending;
+
+    private int mScanned;
+
+    private final Runnable mTuneTimeout = new Runnable() {
+        public void run() {
+            Log.d(LOGTAG, "BandScanner: tune timeout on " + mFrequency);
+            record(0);
+        }
+    };
+
+    private final Runnable mSample = new Runnable() {
+        public void run() {
+            sample();
+        }
+    };
+
+    public BandScanner(Looper looper, StationMap map, Listener listener) {
+        mHandler = new Handler(looper);
+        mMap = map;
+        mListener = listener;
+    }
+
+    public StationMap getStationMap() {
+        return mMap;
+    }
+
+    public boolean isScanning() {
+        return mScanning;
+    }
+
+    /**
+     * Start a scan with "tuner", returning to "returnFrequency" when done.
+     * A full scan visits every channel, otherwise only the ones the station
+     * map asks for.
+     */
+    public void start(final RadioTuner tuner, final boolean fullScan, final int returnFrequency) {
+        mScanning = true;
+        mHandler.post(new Runnable() {
+            public void run() {
+                mTuner = tuner;
+                mReturnFrequency = returnFrequency;
+                mPlanned = new boolean[mMap.getChannelCount()];
+                mDone = new boolean[mPlanned.length];
+                int[] channels = mMap.getChannelsToScan(fullScan, System.currentTimeMillis());
+                for (int channel : channels) {
+                    mPlanned[channel] = true;
+                }
+                mNextChannel = 0;
+                mScanned = 0;
+                Log.d(LOGTAG, "BandScanner: " + (fullScan ? "full" : "incremental") + " scan of "
+                        + channels.length + "/" + mPlanned.length + " channels");
+                next();
+            }
+        });
+    }
+
+    /** Stop scanning, keeping what was measured so far */
+    public void cancel() {
+        mHandler.post(new Runnable() {
+            public void run() {
+                if (mScanning && (mTuner != null)) {
+                    finish(true, true);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop scanning before the receiver goes off: returns once the scan has
+     * finished on the scanner thread, without tuning back. Keeps what was
+     * measured so far.
+     */
+    public void cancelAndWait() {
+        if (Looper.myLooper() == mHandler.getLooper()) {
+            abort();
+            return;
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        if (!mHandler.post(new Runnable() {
+            public void run() {
+                abort();
+                done.countDown();
+            }
+        })) {
+            /* The scanner thread is gone, nothing runs on it anymore */
+            return;
+        }
+        try {
+            if (!done.await(CANCEL_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                Log.e(LOGTAG, "BandScanner: cancel timed out");
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void abort() {
+        if (mScanning && (mTuner != null)) {
+            finish(true, false);
+        }
+    }
+
+    /** The receiver finished tuning, from FmRxEvRadioTuneStatus */
+    public void onTuned(final int frequency) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                if (mScanning && (mChannel >= 0) && (frequency == mFrequency)) {
+                    mHandler.removeCallbacks(mTuneTimeout);
+                    postSample(SIGNAL_DWELL_MS);
+                }
+            }
+        });
+    }
+
+    /** From FmRxEvStereoStatus */
+    public void onStereo(final boolean stereo) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                mStereo = stereo;
+            }
+        });
+    }
+
+    /** From FmRxEvRdsPsInfo, cuts the RDS dwell short once PI and PS are known */
+    public void onProgramService(final RdsInfo info) {
+        if (info == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            public void run() {
+                if (info.getProgramId() != 0) {
+                    mPi = info.getProgramId();
+                }
+                if (info.getProgramService() != null) {
+                    mPs = info.getProgramService();
+                }
+                if (mWaitedForRds && mSamplePending && (mPi != 0) && (mPs != null)) {
+                    mHandler.removeCallbacks(mSample);
+                    sample();
+                }
+            }
+        });
+    }
+
+    private void next() {
+        while ((mNextChannel < mPlanned.length) && !mPlanned[mNextChannel]) {
+            mNextChannel++;
+        }
+        if (mNextChannel >= mPlanned.length) {
+            finish(false, true);
+            return;
+        }
+        mChannel = mNextChannel++;
+        mFrequency = mMap.getFrequency(mChannel);
+        mStereo = false;
+        mPi = 0;
+        mPs = null;
+        mWaitedForRds = false;
+        mTuner.setStation(mFrequency);
+        mHandler.postDelayed(mTuneTimeout, TUNE_TIMEOUT_MS);
+    }
+
+    private void postSample(long delayMs) {
+        mSamplePending = true;
+        mHandler.postDelayed(mSample, delayMs);
+    }
+
+    private void sample() {
+        mSamplePending = false;
+        int rssi = mTuner.getRssi();
+        /* Stay on a station a little longer for its RDS */
+        if ((rssi >= StationMap.SIGNAL_THRESHOLD) && !mWaitedForRds && (mPi == 0)) {
+            mWaitedForRds = true;
+            postSample(RDS_DWELL_MS);
+            return;
+        }
+        record(rssi);
+    }
+
+    private void record(int rssi) {
+        boolean wasStation = mMap.isStation(mChannel);
+        mMap.update(mChannel, rssi, mStereo, mPi, mPs, System.currentTimeMillis());
+        mScanned++;
+        mPlanned[mChannel] = false;
+        mDone[mChannel] = true;
+        if (wasStation != mMap.isStation(mChannel)) {
+            /* Something changed here, check the neighbours too */
+            if ((mChannel > 0) && !mDone[mChannel - 1]) {
+                mPlanned[mChannel - 1] = true;
+                mNextChannel = Math.min(mNextChannel, mChannel - 1);
+            }
+            if ((mChannel < (mPlanned.length - 1)) && !mDone[mChannel + 1]) {
+                mPlanned[mChannel + 1] = true;
+            }
+        }
+        mListener.onChannelScanned(mFrequency, rssi, mStereo, mPi, mPs);
+        next();
+    }
+
+    /* "retune": back to the frequency before the scan, not if FM goes off */
+    private void finish(boolean cancelled, boolean retune) {
+        mHandler.removeCallbacks(mTuneTimeout);
+        mHandler.removeCallbacks(mSample);
+        mSamplePending = false;
+        mChannel = -1;
+        mMap.save();
+        if (retune) {
+            mTuner.setStation(mReturnFrequency);
+        }
+        mTuner = null;
+        mScanning = false;
+        Log.d(LOGTAG, "BandScanner: " + mScanned + " channels scanned"
+                + (cancelled ? ", cancelled" : ""));
+        mListener.onScanComplete(cancelled);
+    }
+}
@@ -0,0 +1,146 @@
+package com.android.fm.radio;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Coalesces receiver state changes into one IFMRadioServiceCallbacks
+ * onStateBatch() call per frame interval. A batch carries the latest value of
+ * every field that changed since the previous batch, so a burst of RDS groups
+ * costs one binder transaction and clients need no follow-up getters.
+ */
+public class CallbackBatcher {
+    /* int, tuned frequency in kHz */
+    public static final String KEY_FREQUENCY = "frequency";
+
+    /* String, RDS Program Service */
+    public static final String KEY_PROGRAM_SERVICE = "ps";
+
+    /* String, RDS Radio Text */
+    public static final String KEY_RADIO_TEXT = "rt";
+
+    /* int, RDS Program Type */
+    public static final String KEY_PROGRAM_TYPE = "pty";
+
+    /* int, RDS Program Identifier */
+    public static final String KEY_PROGRAM_ID = "pi";
+
+    /* boolean, stereo reception */
+    public static final String KEY_STEREO = "stereo";
+
+    /* int, signal level bucket, 0 to SignalSampler.NUM_LEVELS - 1 */
+    public static final String KEY_SIGNAL_LEVEL = "signal_level";
+
+    /* boolean, RDS lock on the tuned station */
+    public static final String KEY_RDS_SUPPORTED = "rds_supported";
+
+    /* long, System.nanoTime() of the first tune status after FM came on */
+    public static final String KEY_AUDIO_STARTED = "audio_started";
+
+    /* One display frame */
+    public static final long FRAME_INTERVAL_MS = 16;
+
+    /** Receives the coalesced batches */
+    public interface Listener {
+        void onStateBatch(Bundle state);
+    }
+
+    private final Handler mHandler;
+
+    private final long mIntervalMs;
+
+    private final Listener mListener;
+
+    /* Fields changed since the last batch, null when nothing is pending */
+    private Bundle mPending;
+
+    /* Held while a batch is taken and delivered, keeps batches in order */
+    private final Object mDeliverLock = new Object();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    public CallbackBatcher(Looper looper, long intervalMs, Listener listener) {
+        mHandler = new Handler(looper);
+        mIntervalMs = intervalMs;
+        mListener = listener;
+    }
+
+    /* A new frequency makes any pending RDS data from the old one stale */
+    public synchronized void putFrequency(int frequency) {
+        Bundle pending = pending();
+        pending.remove(KEY_PROGRAM_SERVICE);
+        pending.remove(KEY_RADIO_TEXT);
+        pending.remove(KEY_PROGRAM_TYPE);
+        pending.remove(KEY_PROGRAM_ID);
+        pending.remove(KEY_RDS_SUPPORTED);
+        pending.putInt(KEY_FREQUENCY, frequency);
+    }
+
+    public synchronized void putProgramService(String programService, int pty, int pi) {
+        Bundle pending = pending();
+        pending.putString(KEY_PROGRAM_SERVICE, programService);
+        pending.putInt(KEY_PROGRAM_TYPE, pty);
+        pending.putInt(KEY_PROGRAM_ID, pi);
+    }
+
+    public synchronized void putRadioText(String radioText, int pty, int pi) {
+        Bundle pending = pending();
+        pending.putString(KEY_RADIO_TEXT, radioText);
+        pending.putInt(KEY_PROGRAM_TYPE, pty);
+        pending.putInt(KEY_PROGRAM_ID, pi);
+    }
+
+    public synchronized void putStereo(boolean stereo) {
+        pending().putBoolean(KEY_STEREO, stereo);
+    }
+
+    public synchronized void putSignalLevel(int level) {
+        pending().putInt(KEY_SIGNAL_LEVEL, level);
+    }
+
+    public synchronized void putRdsSupported(boolean rdsSupported) {
+        pending().putBoolean(KEY_RDS_SUPPORTED, rdsSupported);
+    }
+
+    public synchronized void putAudioStarted(long startedNs) {
+        pending().putLong(KEY_AUDIO_STARTED, startedNs);
+    }
+
+    /**
+     * Deliver the pending batch now, if any. Called before any callback that
+     * is not batched so the client sees events in order.
+     */
+    public void flush() {
+        synchronized (mDeliverLock) {
+            Bundle batch;
+            synchronized (this) {
+                batch = mPending;
+                mPending = null;
+                mHandler.removeCallbacks(mFlushRunnable);
+            }
+            if (batch != null) {
+                mListener.onStateBatch(batch);
+            }
+        }
+    }
+
+    /** Drop the pending batch without delivering it */
+    public synchronized void cancel() {
+        mPending = null;
+        mHandler.removeCallbacks(mFlushRunnable);
+    }
+
+    /* The first change in a frame schedules the flush for that frame */
+    private Bundle pending() {
+        if (mPending == null) {
+            mPending = new Bundle();
+            mHandler.postDelayed(mFlushRunnable, mIntervalMs);
+        }
+        return mPending;
+    }
+}
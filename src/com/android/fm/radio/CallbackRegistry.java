@@ -0,0 +1,325 @@
+package com.android.fm.radio;
+
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Every IFMRadioServiceCallbacks registered with the service, each with the
+ * set of events it wants. Callbacks are made from a dedicated dispatch thread
+ * so a slow client cannot stall the receiver's event thread, and clients whose
+ * process died are dropped as soon as their binder does.
+ */
+public class CallbackRegistry {
+    private static final String LOGTAG = "FMService";
+
+    /* Tune status, search complete, search list and band scan results */
+    public static final int INTEREST_TUNE = 0x01;
+
+    /* RDS PS, RT, PTY, PI and RDS lock */
+    public static final int INTEREST_RDS = 0x02;
+
+    /* Stereo, signal strength and alternate frequency */
+    public static final int INTEREST_SIGNAL = 0x04;
+
+    /* Enabled, disabled and mute */
+    public static final int INTEREST_STATE = 0x08;
+
+    public static final int INTEREST_ALL = INTEREST_TUNE | INTEREST_RDS | INTEREST_SIGNAL
+            | INTEREST_STATE;
+
+    /** One registered client, the cookie of its RemoteCallbackList entry */
+    private static class Client {
+        final IFMRadioServiceCallbacks mCallback;
+
+        final int mInterests;
+
+        final int mPid;
+
+        Client(IFMRadioServiceCallbacks callback, int interests, int pid) {
+            mCallback = callback;
+            mInterests = interests;
+            mPid = pid;
+        }
+    }
+
+    /* A callback to make on every interested client */
+    private interface Event {
+        void deliver(IFMRadioServiceCallbacks cb) throws RemoteException;
+    }
+
+    private final RemoteCallbackList<IFMRadioServiceCallbacks> mCallbacks =
+            new RemoteCallbackList<IFMRadioServiceCallbacks>() {
+        @Override
+        public void onCallbackDied(IFMRadioServiceCallbacks cb, Object cookie) {
+            Log.d(LOGTAG, "Callback died, pid: " + ((Client) cookie).mPid);
+            synchronized (mClients) {
+                mClients.remove(cookie);
+            }
+        }
+    };
+
+    /* Same clients as mCallbacks, for lookups outside of a broadcast */
+    private final ArrayList<Client> mClients = new ArrayList<Client>();
+
+    private final HandlerThread mDispatchThread;
+
+    private final Handler mDispatchHandler;
+
+    public CallbackRegistry() {
+        mDispatchThread = new HandlerThread("FmCallbackDispatch");
+        mDispatchThread.start();
+        mDispatchHandler = new Handler(mDispatchThread.getLooper());
+    }
+
+    /**
+     * Register "cb" for the events in "interests" on behalf of the calling
+     * process. Registering the same callback again replaces its interests.
+     */
+    public void register(IFMRadioServiceCallbacks cb, int interests) {
+        if (cb == null) {
+            return;
+        }
+        unregister(cb);
+        Client client = new Client(cb, interests, Binder.getCallingPid());
+        synchronized (mClients) {
+            if (mCallbacks.register(cb, client)) {
+                mClients.add(client);
+            }
+        }
+    }
+
+    public void unregister(IFMRadioServiceCallbacks cb) {
+        if (cb == null) {
+            return;
+        }
+        synchronized (mClients) {
+            mCallbacks.unregister(cb);
+            for (int i = mClients.size() - 1; i >= 0; i--) {
+                if (mClients.get(i).mCallback.asBinder() == cb.asBinder()) {
+                    mClients.remove(i);
+                }
+            }
+        }
+    }
+
+    /** Unregister every callback registered by process "pid" */
+    public void unregisterPid(int pid) {
+        synchronized (mClients) {
+            for (int i = mClients.size() - 1; i >= 0; i--) {
+                Client client = mClients.get(i);
+                if (client.mPid == pid) {
+                    mCallbacks.unregister(client.mCallback);
+                    mClients.remove(i);
+                }
+            }
+        }
+    }
+
+    /** Unregister every callback, e.g. once no client is bound */
+    public void clear() {
+        synchronized (mClients) {
+            for (Client client : mClients) {
+                mCallbacks.unregister(client.mCallback);
+            }
+            mClients.clear();
+        }
+    }
+
+    public boolean hasClients() {
+        synchronized (mClients) {
+            return !mClients.isEmpty();
+        }
+    }
+
+    /** Stop dispatching and drop every client */
+    public void kill() {
+        mDispatchHandler.removeCallbacksAndMessages(null);
+        mDispatchThread.quit();
+        synchronized (mClients) {
+            mCallbacks.kill();
+            mClients.clear();
+        }
+    }
+
+    public void notifyEnabled() {
+        dispatch(INTEREST_STATE, new Event() {
+            public void deliver(IFMRadioServiceCallbacks cb) throws RemoteException {
+                cb.onEnabled();
+            }
+        });
+    }
+
+    public void notifyDisabled() {
+        dispatch(INTEREST_STATE, new Event() {
+            public void deliver(IFMRadioServiceCallbacks cb) throws RemoteException {
+                cb.onDisabled();
+            }
+        });
+    }
+
+    public void notifyMute(final boolean muted) {
+        dispatch(INTEREST_STATE, new Event() {
+            public void deliver(IFMRadioServiceCallbacks cb) throws RemoteException {
+                cb.onMute(muted);
+            }
+        });
+    }
+
+    public void notifyTuneStatusChanged() {
+        dispatch(INTEREST_TUNE, new Event() {
+            public void deliver(IFMRadioServiceCallbacks cb) throws RemoteException {
+                cb.onTuneStatusChanged();
+            }
+        });
+    }
+
+    public void notifySearchComplete() {
+        dispatch(INTEREST_TUNE, new Event() {
+            public void deliver(IFMRadioServiceCallbacks cb) throws RemoteException {
+                cb.onSearchComplete();
+            }
+        });
+    }
+
+    public void notifySearchListComplete() {
+        dispatch(INTEREST_TUNE, new Event() {
+            public void deliver(IFMRadioServiceCallbacks cb) throws RemoteException {
+                cb.onSearchListComplete();
+            }
+        });
+    }
+
+    public void notifyAlternateFrequencyChanged(final int fromFrequency,
+            final int toFrequency, final boolean switched, final int decisionMs) {
+        dispatch(INTEREST_SIGNAL, new Event() {
+            public void deliver(IFMRadioServiceCallbacks cb) throws RemoteException {
+                cb.onAlternateFrequencyChanged(fromFrequency, toFrequency, switched,
+                        decisionMs);
+            }
+        });
+    }
+
+    public void notifyChannelScanned(final int frequency, final int rssi, final boolean stereo,
+            final int pi, final String ps) {
+        dispatch(INTEREST_TUNE, new Event() {
+            public void deliver(IFMRadioServiceCallbacks cb) throws RemoteException {
+                cb.onChannelScanned(frequency, rssi, stereo, pi, ps);
+            }
+        });
+    }
+
+    public void notifyBandScanComplete(final boolean cancelled) {
+        dispatch(INTEREST_TUNE, new Event() {
+            public void deliver(IFMRadioServiceCallbacks cb) throws RemoteException {
+                cb.onBandScanComplete(cancelled);
+            }
+        });
+    }
+
+    /**
+     * Send a CallbackBatcher batch. Clients only interested in part of the
+     * batch get a copy holding just those fields.
+     */
+    public void notifyStateBatch(final Bundle state) {
+        final int batchInterests = getInterests(state);
+        if (batchInterests == 0) {
+            return;
+        }
+        mDispatchHandler.post(new Runnable() {
+            public void run() {
+                int count = mCallbacks.beginBroadcast();
+                try {
+                    for (int i = 0; i < count; i++) {
+                        Client client = (Client) mCallbacks.getBroadcastCookie(i);
+                        int interests = client.mInterests & batchInterests;
+                        if (interests == 0) {
+                            continue;
+                        }
+                        Bundle batch = (interests == batchInterests) ? state : filter(state,
+                                interests);
+                        try {
+                            mCallbacks.getBroadcastItem(i).onStateBatch(batch);
+                        } catch (RemoteException e) {
+                            /* The list removes the dead binder */
+                            e.printStackTrace();
+                        }
+                    }
+                } finally {
+                    mCallbacks.finishBroadcast();
+                }
+            }
+        });
+    }
+
+    /* Queue "event" for every client whose interests include "interest" */
+    private void dispatch(final int interest, final Event event) {
+        mDispatchHandler.post(new Runnable() {
+            public void run() {
+                int count = mCallbacks.beginBroadcast();
+                try {
+                    for (int i = 0; i < count; i++) {
+                        Client client = (Client) mCallbacks.getBroadcastCookie(i);
+                        if ((client.mInterests & interest) == 0) {
+                            continue;
+                        }
+                        try {
+                            event.deliver(mCallbacks.getBroadcastItem(i));
+                        } catch (RemoteException e) {
+                            /* The list removes the dead binder */
+                            e.printStackTrace();
+                        }
+                    }
+                } finally {
+                    mCallbacks.finishBroadcast();
+                }
+            }
+        });
+    }
+
+    private static int getInterests(Bundle state) {
+        int interests = 0;
+        if (state.containsKey(CallbackBatcher.KEY_FREQUENCY)
+                || state.containsKey(CallbackBatcher.KEY_AUDIO_STARTED)) {
+            interests |= INTEREST_TUNE;
+        }
+        if (state.containsKey(CallbackBatcher.KEY_PROGRAM_SERVICE)
+                || state.containsKey(CallbackBatcher.KEY_RADIO_TEXT)
+                || state.containsKey(CallbackBatcher.KEY_PROGRAM_TYPE)
+                || state.containsKey(CallbackBatcher.KEY_PROGRAM_ID)
+                || state.containsKey(CallbackBatcher.KEY_RDS_SUPPORTED)) {
+            interests |= INTEREST_RDS;
+        }
+        if (state.containsKey(CallbackBatcher.KEY_STEREO)
+                || state.containsKey(CallbackBatcher.KEY_SIGNAL_LEVEL)) {
+            interests |= INTEREST_SIGNAL;
+        }
+        return interests;
+    }
+
+    private static Bundle filter(Bundle state, int interests) {
+        Bundle batch = new Bundle(state);
+        if ((interests & INTEREST_TUNE) == 0) {
+            batch.remove(CallbackBatcher.KEY_FREQUENCY);
+            batch.remove(CallbackBatcher.KEY_AUDIO_STARTED);
+        }
+        if ((interests & INTEREST_RDS) == 0) {
+            batch.remove(CallbackBatcher.KEY_PROGRAM_SERVICE);
+            batch.remove(CallbackBatcher.KEY_RADIO_TEXT);
+            batch.remove(CallbackBatcher.KEY_PROGRAM_TYPE);
+            batch.remove(CallbackBatcher.KEY_PROGRAM_ID);
+            batch.remove(CallbackBatcher.KEY_RDS_SUPPORTED);
+        }
+        if ((interests & INTEREST_SIGNAL) == 0) {
+            batch.remove(CallbackBatcher.KEY_STEREO);
+            batch.remove(CallbackBatcher.KEY_SIGNAL_LEVEL);
+        }
+        return batch;
+    }
+}
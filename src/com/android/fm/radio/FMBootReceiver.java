@@ -0,0 +1,27 @@
+package com.android.fm.radio;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Alarms do not survive a reboot: start the service at boot to set the
+ * FmScheduler alarm again, if there is anything scheduled.
+ */
+public class FMBootReceiver extends BroadcastReceiver {
+
+    private final static String LOGTAG = "FMBootReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())
+                && FmScheduler.hasEvents(context)) {
+            Log.d(LOGTAG, "Restoring the FM schedule");
+            Intent i = new Intent(context, FMRadioService.class);
+            i.setAction(FMRadioService.SERVICECMD);
+            i.putExtra(FMRadioService.CMDNAME, FMRadioService.CMDSCHEDULE);
+            context.startService(i);
+        }
+    }
+}
@@ -27,6 +27,7 @@ import android.os.IBinder;
 import android.os.Message;
 import android.os.RemoteException;
 import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.util.Log;
@@ -34,16 +35,17 @@ import android.view.Gravity;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Formatter;
 import java.util.HashMap;
@@ -104,6 +106,13 @@ public class FMRadio extends Activity {
      */
     private static final int NUM_AUTO_PRESETS_SEARCH = 12;
 
+    /* Set to true to read every preference in onCreate() instead of after the first frame */
+    private static final String EAGER_STARTUP_PROPERTY = "debug.fm.startup.eager";
+
+    /* getSearchList() plus preset insertion, reported by the service dump() */
+    private static final LatencyStats mSearchListInsertLatency = new LatencyStats(
+            "search-list-insert");
+
     /*
      * Command time out: For asynchonous operations, if no response is received
      * with int this duration, a timeout msg will be displayed.
@@ -164,6 +173,19 @@ public class FMRadio extends Activity {
     /* Middle row in the station info layout */
     private TextView mTuneStationFrequencyTV;
 
+    /* RDS radio text, scrolled when it does not fit */
+    private MarqueeTextView mRadioTextTV;
+
+    private TextView mStationInfoTV;
+
+    private TextView mSleepMsgTV;
+
+    /* RDS program service name of the tuned station, "" until it is known */
+    private String mProgramService = "";
+
+    /* Signal level bars, hidden until the service gives a level */
+    private ImageView mSignalLevelIV;
+
     /* Indicator of frequency */
     private FreqIndicator mFreqIndicator;
 
@@ -179,7 +201,14 @@ public class FMRadio extends Activity {
             int stepSize = FmSharedPreferences.getBandStepSize();
             int frequency = lowerLimit + ((progress / stepSize ) * stepSize);
             // change frequency
-            tuneRadio(frequency);
+            if (fromUser || mTunerViewMoving) {
+                /* Dragging: show it now, tune once the user settles */
+                showTuningFrequency(frequency);
+                mTuneCoalescer.request(frequency);
+            } else {
+                mTuneCoalescer.cancel();
+                tuneRadio(frequency);
+            }
         }
 
         @Override
@@ -194,8 +223,20 @@ public class FMRadio extends Activity {
 
     private SeekBarChangeListener mFrequencyIndicatorChangeListener;
 
+    /* Collapses drags of the indicator and tuner view into one tune */
+    private TuneCoalescer mTuneCoalescer;
+
+    /* The tuner view is moving the indicator, tune as for a drag */
+    private boolean mTunerViewMoving = false;
+
     /* micro-steps tuner for frequency */
     private TunerView mTunerView;
+
+    /* Times this activity's start up, see StartupTrace */
+    private StartupTrace mStartupTrace;
+
+    /* onCreate() just read the preferences, the first onResume() need not */
+    private boolean mSkipResumeLoad = false;
     private TunerView.OnMoveListener mTunerViewMoveListener
                 = new TunerView.OnMoveListener() {
         private int mSteps = 0;
@@ -204,6 +245,7 @@ public class FMRadio extends Activity {
             if (tunerView.isEnabled() && step != 0) {
                 mSteps += step;
                 int stepSize = FmSharedPreferences.getBandStepSize();
+                mTunerViewMoving = true;
                 if (mSteps > 5) {
                     mFreqIndicator.setProgress(((mFreqIndicator.getProgress() / stepSize) + 1) * stepSize);
                     mSteps = 0;
@@ -211,6 +253,7 @@ public class FMRadio extends Activity {
                     mFreqIndicator.setProgress(((mFreqIndicator.getProgress() / stepSize) - 1) * stepSize);
                     mSteps = 0;
                 }
+                mTunerViewMoving = false;
             }
         }
     };
@@ -221,6 +264,9 @@ public class FMRadio extends Activity {
 
     private int mStereo = -1;
 
+    /* Signal level bucket from the service, -1 until the first one */
+    private int mSignalLevel = -1;
+
     /* Current Status Indicators */
     private static boolean mRecording = false;
 
@@ -274,19 +320,24 @@ public class FMRadio extends Activity {
     /** Called when the activity is first created. */
     @Override
     public void onCreate(Bundle savedInstanceState) {
+        mStartupTrace = new StartupTrace();
 
         super.onCreate(savedInstanceState);
 
-        mPrefs = new FmSharedPreferences(this);
-        mPrefs.Load();
+        /* Only what the first frame needs, the rest is read after it is drawn */
+        mPrefs = new FmSharedPreferences(this,
+                !SystemProperties.getBoolean(EAGER_STARTUP_PROPERTY, false));
+        mSkipResumeLoad = true;
         mCommandActive = CMD_NONE;
         mCommandFailed = CMD_NONE;
+        mStartupTrace.endPhase(StartupTrace.PHASE_PREFS);
 
         Log.d(LOGTAG, "onCreate - Height : " + getWindowManager().getDefaultDisplay().getHeight()
                 + " - Width  : " + getWindowManager().getDefaultDisplay().getWidth());
 
         requestWindowFeature(Window.FEATURE_NO_TITLE);
         setContentView(R.layout.fmradio);
+        mStartupTrace.endPhase(StartupTrace.PHASE_INFLATE);
 
         mOnOffButton = (ImageButton) findViewById(R.id.btn_onoff);
         mOnOffButton.setOnClickListener(mTurnOnOffClickListener);
@@ -309,20 +360,31 @@ public class FMRadio extends Activity {
         if (mTuneStationFrequencyTV != null) {
             mTuneStationFrequencyTV.setOnClickListener(mFrequencyViewClickListener);
         }
+        mRadioTextTV = (MarqueeTextView) findViewById(R.id.radio_text_tv);
+        mStationInfoTV = (TextView) findViewById(R.id.station_info_tv);
+        mSleepMsgTV = (TextView) findViewById(R.id.sleep_msg_tv);
+        mSignalLevelIV = (ImageView) findViewById(R.id.signal_level_iv);
 
         mFreqIndicator = (FreqIndicator) findViewById(R.id.freq_indicator_view);
         mFreqIndicator.setMax(FmSharedPreferences.getUpperLimit() - FmSharedPreferences.getLowerLimit());
         mFreqIndicator.setMinFrequency(FmSharedPreferences.getLowerLimit());
+        mTuneCoalescer = new TuneCoalescer(getMainLooper(), new TuneCoalescer.Listener() {
+            public void onTune(int frequency) {
+                sendTune(frequency);
+            }
+        });
         mFrequencyIndicatorChangeListener = new SeekBarChangeListener();
         mFrequencyIndicatorChangeListener.setMin(mFreqIndicator.getMinFrequency());
         mFreqIndicator.setOnSeekBarChangeListener(mFrequencyIndicatorChangeListener);
 
         mTunerView = (TunerView) findViewById(R.id.fm_tuner_view);
         mTunerView.setOnMoveListener(mTunerViewMoveListener);
+        mStartupTrace.endPhase(StartupTrace.PHASE_VIEWS);
 
         IntentFilter filter = new IntentFilter();
         filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
         registerReceiver(mIntentReceiver, filter);
+        mStartupTrace.endPhase(StartupTrace.PHASE_RECEIVERS);
 
         enableRadioOnOffUI(false);
 
@@ -331,8 +393,45 @@ public class FMRadio extends Activity {
         } else {
             Log.d(LOGTAG, "onCreate: Start Service completed successfully");
         }
+        mStartupTrace.endPhase(StartupTrace.PHASE_BIND);
+
+        getWindow().getDecorView().getViewTreeObserver().addOnPreDrawListener(mFirstFrameListener);
+        getWindow().getDecorView().getViewTreeObserver()
+                .addOnPreDrawListener(mFrequencyShownListener);
     }
 
+    /* The first frame shows the tuned frequency, load the rest once it is on screen */
+    private final ViewTreeObserver.OnPreDrawListener mFirstFrameListener =
+            new ViewTreeObserver.OnPreDrawListener() {
+        public boolean onPreDraw() {
+            getWindow().getDecorView().getViewTreeObserver().removeOnPreDrawListener(this);
+            mHandler.post(mDeferredStartup);
+            return true;
+        }
+    };
+
+    /* Times the first frame the frequency is actually on, FM may be off until then */
+    private final ViewTreeObserver.OnPreDrawListener mFrequencyShownListener =
+            new ViewTreeObserver.OnPreDrawListener() {
+        public boolean onPreDraw() {
+            if (mTuneStationFrequencyTV.isShown()
+                    && (mTuneStationFrequencyTV.getText().length() > 0)) {
+                getWindow().getDecorView().getViewTreeObserver()
+                        .removeOnPreDrawListener(this);
+                mStartupTrace.onFrequencyShown();
+            }
+            return true;
+        }
+    };
+
+    private final Runnable mDeferredStartup = new Runnable() {
+        public void run() {
+            mStartupTrace.beginPhase();
+            FmSharedPreferences.loadDeferred();
+            mStartupTrace.endPhase(StartupTrace.PHASE_DEFERRED_LOAD);
+        }
+    };
+
     @Override
     public void onRestart() {
         Log.d(LOGTAG, "FMRadio: onRestart");
@@ -342,6 +441,8 @@ public class FMRadio extends Activity {
     @Override
     public void onStop() {
         Log.d(LOGTAG, "FMRadio: onStop");
+        /* Make sure the edits batched by Save() reach the disk */
+        FmSharedPreferences.flush();
         super.onStop();
     }
 
@@ -365,6 +466,9 @@ public class FMRadio extends Activity {
     @Override
     protected void onPause() {
         super.onPause();
+        mSleepDisplayActive = false;
+        mUIUpdateHandlerHandler.removeMessages(SLEEPTIMER_UPDATE);
+        mTuneCoalescer.flush();
         FmSharedPreferences.setTunedFrequency(mTunedStation.getFrequency());
         mPrefs.Save();
     }
@@ -374,9 +478,15 @@ public class FMRadio extends Activity {
         super.onResume();
 
         Log.d(LOGTAG, "FMRadio: onResume");
+        mSleepDisplayActive = true;
+        refreshSleepTimer();
 
-        // Re-load FM preferences
-        mPrefs.Load();
+        // Re-load FM preferences, they may have been changed by Settings
+        if (mSkipResumeLoad) {
+            mSkipResumeLoad = false;
+        } else {
+            mPrefs.Load();
+        }
 
         // Grab the station from the tuned frequency
         PresetStation station = FmSharedPreferences.getStationFromFrequency(FmSharedPreferences
@@ -429,7 +539,16 @@ public class FMRadio extends Activity {
 
     @Override
     public void onDestroy() {
-        endSleepTimer();
+        /* The service keeps the sleep timer, only the countdown stops */
+        mUIUpdateHandlerHandler.removeMessages(SLEEPTIMER_UPDATE);
+        FmSharedPreferences.flush();
+        try {
+            if (mService != null) {
+                mService.unregisterCallback(mServiceCallbacks);
+            }
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
         unbindFromService(this);
         mService = null;
         if (mIntentReceiver != null) {
@@ -1053,16 +1172,37 @@ public class FMRadio extends Activity {
     }
 
     private boolean startRecord() {
-        mRecording = true;
-        DebugToasts("Started Recording", Toast.LENGTH_SHORT);
+        if (mService != null) {
+            try {
+                mRecording = mService.startRecording();
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+        }
+        DebugToasts(mRecording ? "Started Recording" : "Unable to record", Toast.LENGTH_SHORT);
         return mRecording;
     }
 
+    /* The service ends a recording by itself once the record duration is reached */
     private boolean isRecording() {
+        if (mService != null) {
+            try {
+                mRecording = mService.isRecording();
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+        }
         return mRecording;
     }
 
     private boolean stopRecord() {
+        if (mService != null) {
+            try {
+                mService.stopRecording();
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+        }
         mRecording = false;
         DebugToasts("Stopped Recording", Toast.LENGTH_SHORT);
         return mRecording;
@@ -1088,7 +1228,13 @@ public class FMRadio extends Activity {
     }
 
     private void enableRadioOnOffUI(boolean bEnable) {
+        if (!bEnable) {
+            mSignalLevel = -1;
+        }
+        mOnSignalLevel.run();
         mTuneStationFrequencyTV.setVisibility(((bEnable == true) ? View.VISIBLE : View.INVISIBLE));
+        mRadioTextTV.setVisibility(((bEnable == true) ? View.VISIBLE : View.INVISIBLE));
+        mStationInfoTV.setVisibility(((bEnable == true) ? View.VISIBLE : View.INVISIBLE));
 
         setTurnOnOffButtonImage();
 
@@ -1106,7 +1252,9 @@ public class FMRadio extends Activity {
 
 
     private void setupPresetLayout() {
-        int numStations = FmSharedPreferences.getListStationCount();
+        /* One consistent view of the list for all the buttons */
+        PresetList.Snapshot presets = FmSharedPreferences.getCurrentListSnapshot();
+        int numStations = (presets != null) ? presets.size() : 0;
         int addedStations = 0;
 
         /*
@@ -1123,10 +1271,13 @@ public class FMRadio extends Activity {
         for (int buttonIndex = 0; (buttonIndex < MAX_PRESETS_PER_PAGE); buttonIndex++) {
             if (mPresetButtons[buttonIndex] != null) {
                 int stationIdex = (mPresetPageNumber * MAX_PRESETS_PER_PAGE) + buttonIndex;
-                PresetStation station = FmSharedPreferences.getStationInList(stationIdex);
+                PresetStation station = null;
+                if (stationIdex < numStations) {
+                    station = presets.getStation(stationIdex);
+                }
                 String display = "+";
                 if (station != null) {
-                    display = station.getName();
+                    display = presets.getName(stationIdex);
                     mPresetButtons[buttonIndex].setText(display);
                     mPresetButtons[buttonIndex].setTag(station);
                     addedStations++;
@@ -1142,9 +1293,20 @@ public class FMRadio extends Activity {
     private void updateStationInfoToUI() {
         mTuneStationFrequencyTV.setText(FrequencyPicker.formatFrequencyString(mTunedStation.getFrequency()));
         FmSharedPreferences.setTunedFrequency(mTunedStation.getFrequency());
+        updateRdsInfoToUI();
         setupPresetLayout();
     }
 
+    /* Show the station name and genre, "KISS FM - Pop Music" */
+    private void updateRdsInfoToUI() {
+        String info = mProgramService;
+        if (mTunedStation.getPty() != 0) {
+            String pty = mTunedStation.getPtyString();
+            info = (info.length() > 0) ? (info + " - " + pty) : pty;
+        }
+        mStationInfoTV.setText(info);
+    }
+
     private boolean isFmOn() {
         boolean bOn = false;
         if (mService != null) {
@@ -1305,10 +1467,11 @@ public class FMRadio extends Activity {
             mIsSearching = false;
             if (mService != null) {
                 try {
-                    mIsSearching = mService.searchStrongStationList(NUM_AUTO_PRESETS_SEARCH);
+                    /* Only a first scan walks the whole band, later ones re-verify */
+                    mIsSearching = mService.startBandScan(false);
                     if (mIsSearching == false) {
                         mCommandFailed = CMD_SEARCHLIST;
-                        Log.e(LOGTAG, " mService.searchStrongStationList failed");
+                        Log.e(LOGTAG, " mService.startBandScan failed");
                         showDialog(DIALOG_CMD_FAILED);
                     }
                 } catch (RemoteException e) {
@@ -1327,86 +1490,114 @@ public class FMRadio extends Activity {
 
     private static final int SHOWBUSY_TIMEOUT = 300000;
 
-    /** Sleep Handling: After the timer expires, the app needs to shut down */
-    private static final int SLEEPTIMER_EXPIRED = 0x1001;
-
+    /**
+     * Sleep Handling: the service turns FM off at the deadline, the activity
+     * only counts down, and only while it is visible
+     */
     private static final int SLEEPTIMER_UPDATE = 0x1002;
 
-    private Thread mSleepUpdateHandlerThread = null;
+    /* Volume fade out before the sleep timer turns FM off, if enabled */
+    private static final int SLEEP_FADE_MS = 30 * 1000;
 
     /*
-     * Phone time when the App has to be shut down, calculated based on what the
-     * user configured
+     * Phone time when the service shuts FM down, 0 if no sleep timer is set
      */
     private long mSleepAtPhoneTime = 0;
 
-    private boolean mSleepCancelled = false;
+    /* Between onResume() and onPause() */
+    private boolean mSleepDisplayActive = false;
 
     private void initiateSleepTimer(long seconds) {
-        mSleepAtPhoneTime = (SystemClock.elapsedRealtime()) + (seconds * 1000);
         Log.d(LOGTAG, "Sleep in seconds : " + seconds);
-
-        mSleepCancelled = false;
-        if (mSleepUpdateHandlerThread == null) {
-            mSleepUpdateHandlerThread = new Thread(null, doSleepProcessing, "SleepUpdateThread");
-        }
-        /* Launch he dummy thread to simulate the transfer progress */
-        Log.d(LOGTAG, "Thread State: " + mSleepUpdateHandlerThread.getState());
-        if (mSleepUpdateHandlerThread.getState() == Thread.State.TERMINATED) {
-            mSleepUpdateHandlerThread = new Thread(null, doSleepProcessing, "SleepUpdateThread");
-        }
-        /* If the thread state is "new" then the thread has not yet started */
-        if (mSleepUpdateHandlerThread.getState() == Thread.State.NEW) {
-            mSleepUpdateHandlerThread.start();
+        if (mService != null) {
+            try {
+                int fadeMs = FmSharedPreferences.getSleepFade() ? SLEEP_FADE_MS : 0;
+                if (mService.startSleepTimer((int) (seconds * 1000), fadeMs)) {
+                    mSleepAtPhoneTime = SystemClock.elapsedRealtime() + (seconds * 1000);
+                    updateExpiredSleepTime();
+                }
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
         }
     }
 
     private void endSleepTimer() {
         mSleepAtPhoneTime = 0;
-        mSleepCancelled = true;
-        // Log.d(LOGTAG, "endSleepTimer");
-    }
-
-    private boolean hasSleepTimerExpired() {
-        boolean expired = true;
-        if (isSleepTimerActive()) {
-            long timeNow = ((SystemClock.elapsedRealtime()));
-            // Log.d(LOGTAG, "hasSleepTimerExpired - " + mSleepAtPhoneTime +
-            // " now: "+ timeNow);
-            if (timeNow < mSleepAtPhoneTime) {
-                expired = false;
+        updateExpiredSleepTime();
+        if (mService != null) {
+            try {
+                mService.cancelSleepTimer();
+            } catch (RemoteException e) {
+                e.printStackTrace();
             }
         }
-        return expired;
     }
 
-    private boolean isSleepTimerActive() {
-        boolean active = false;
-        if (mSleepAtPhoneTime > 0) {
-            active = true;
+    /* The timer outlives the activity, read it back from the service */
+    private void refreshSleepTimer() {
+        mSleepAtPhoneTime = 0;
+        if (mService != null) {
+            try {
+                int remaining = mService.getSleepTimerRemainingMs();
+                if (remaining > 0) {
+                    mSleepAtPhoneTime = SystemClock.elapsedRealtime() + remaining;
+                }
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+        }
+        updateExpiredSleepTime();
+    }
+
+    /*
+     * The service only sends the level when it changes, read the last one
+     * back from the samples: at least one falls in SLOW_INTERVAL_MS.
+     */
+    private void refreshSignalLevel() {
+        mSignalLevel = -1;
+        if (mService != null) {
+            try {
+                int[] stats = mService.getSignalStats((int) SignalSampler.SLOW_INTERVAL_MS);
+                if ((stats != null) && (stats[SignalSampler.STAT_SAMPLES] > 0)) {
+                    mSignalLevel = SignalSampler.getLevel(stats[SignalSampler.STAT_AVG]);
+                }
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
         }
-        return active;
+        mOnSignalLevel.run();
     }
 
+    private boolean isSleepTimerActive() {
+        return mSleepAtPhoneTime > SystemClock.elapsedRealtime();
+    }
+
+    /*
+     * Update the countdown, then come back when the whole second shown
+     * changes; nothing is scheduled while the activity is not visible.
+     */
     private void updateExpiredSleepTime() {
+        mUIUpdateHandlerHandler.removeMessages(SLEEPTIMER_UPDATE);
+        long remaining = mSleepAtPhoneTime - SystemClock.elapsedRealtime();
+        if ((mSleepAtPhoneTime == 0) || (remaining <= 0)) {
+            mSleepMsgTV.setVisibility(View.GONE);
+            return;
+        }
+        if (!mSleepDisplayActive) {
+            return;
+        }
+        mSleepMsgTV.setText(getString(R.string.sleep_countdown,
+                makeTimeString((remaining + 999) / 1000)));
+        mSleepMsgTV.setVisibility(View.VISIBLE);
+        mUIUpdateHandlerHandler.sendEmptyMessageDelayed(SLEEPTIMER_UPDATE,
+                ((remaining - 1) % 1000) + 1);
     }
 
     private Handler mUIUpdateHandlerHandler = new Handler() {
         public void handleMessage(Message msg) {
             switch (msg.what) {
-                case SLEEPTIMER_EXPIRED: {
-                    mSleepAtPhoneTime = 0;
-                    if (mSleepCancelled != true) {
-                        // Log.d(LOGTAG,
-                        // "mUIUpdateHandlerHandler - SLEEPTIMER_EXPIRED");
-                        DebugToasts("Turning Off FM Radio", Toast.LENGTH_SHORT);
-                        disableRadio();
-                    }
-                    return;
-                }
                 case SLEEPTIMER_UPDATE: {
-                    // Log.d(LOGTAG,
-                    // "mUIUpdateHandlerHandler - SLEEPTIMER_UPDATE");
                     updateExpiredSleepTime();
                     break;
                 }
@@ -1417,27 +1608,6 @@ public class FMRadio extends Activity {
         }
     };
 
-    /* Thread processing */
-    private Runnable doSleepProcessing = new Runnable() {
-        public void run() {
-            boolean sleepTimerExpired = hasSleepTimerExpired();
-            while (sleepTimerExpired == false) {
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-                Message statusUpdate = new Message();
-                statusUpdate.what = SLEEPTIMER_UPDATE;
-                mUIUpdateHandlerHandler.sendMessage(statusUpdate);
-                sleepTimerExpired = hasSleepTimerExpired();
-            }
-            Message finished = new Message();
-            finished.what = SLEEPTIMER_EXPIRED;
-            mUIUpdateHandlerHandler.sendMessage(finished);
-        }
-    };
-
     private static StringBuilder sFormatBuilder = new StringBuilder();
 
     private static Formatter sFormatter = new Formatter(sFormatBuilder, Locale.getDefault());
@@ -1464,14 +1634,27 @@ public class FMRadio extends Activity {
     }
 
     private void tuneRadio(int frequency) {
+        if ((mService != null)) {
+            showTuningFrequency(frequency);
+            sendTune(frequency);
+        }
+    }
+
+    /* Show "frequency" as the tuned station before the receiver gets there */
+    private void showTuningFrequency(int frequency) {
+        mTunedStation.setName("");
+        mTunedStation.setPI(0);
+        mTunedStation.setPty(0);
+        mTunedStation.setFrequency(frequency);
+        mProgramService = "";
+        mRadioTextTV.setText("");
+        updateStationInfoToUI();
+    }
+
+    private void sendTune(int frequency) {
         if ((mService != null)) {
             boolean bStatus = false;
             try {
-                mTunedStation.setName("");
-                mTunedStation.setPI(0);
-                mTunedStation.setPty(0);
-                mTunedStation.setFrequency(frequency);
-                updateStationInfoToUI();
                 bStatus = mService.tune(frequency);
                 if (bStatus) {
                     mCommandActive = CMD_TUNE;
@@ -1486,13 +1669,22 @@ public class FMRadio extends Activity {
         }
     }
 
+    /*
+     * Show the tuned frequency. The RDS shown is only cleared if the station
+     * changed, a search completes after the batch that already carried the
+     * cached RDS of the station it found.
+     */
     private void resetFMStationInfoUI() {
-        mTunedStation.setFrequency(FmSharedPreferences.getTunedFrequency());
-        mTunedStation.setName("");
-        mTunedStation.setPI(0);
-        mTunedStation.setRDSSupported(false);
-        // mTunedStation.setPI(20942);
-        mTunedStation.setPty(0);
+        int frequency = FmSharedPreferences.getTunedFrequency();
+        if (frequency != mTunedStation.getFrequency()) {
+            mTunedStation.setFrequency(frequency);
+            mTunedStation.setName("");
+            mTunedStation.setPI(0);
+            mTunedStation.setRDSSupported(false);
+            mTunedStation.setPty(0);
+            mProgramService = "";
+            mRadioTextTV.setText("");
+        }
         updateStationInfoToUI();
     }
 
@@ -1520,12 +1712,6 @@ public class FMRadio extends Activity {
 
     final Runnable mUpdateStationInfo = new Runnable() {
         public void run() {
-            PresetStation station = FmSharedPreferences.getStationFromFrequency(FmSharedPreferences
-                    .getTunedFrequency());
-            if (station != null) {
-                mTunedStation.Copy(station);
-            }
-
             updateSearchProgress();
             resetFMStationInfoUI();
         }
@@ -1550,8 +1736,9 @@ public class FMRadio extends Activity {
 
             /* Now get the list */
             if (mService != null) {
+                long start = System.nanoTime();
                 try {
-                    int[] searchList = mService.getSearchList();
+                    int[] searchList = mService.getBandScanStations(NUM_AUTO_PRESETS_SEARCH);
                     if (searchList != null) {
                         /* Add the stations into the preset list */
                         int currentList = FmSharedPreferences.getCurrentListIndex();
@@ -1573,6 +1760,7 @@ public class FMRadio extends Activity {
                 } catch (RemoteException e) {
                     e.printStackTrace();
                 }
+                mSearchListInsertLatency.recordSince(start);
             }
             updateSearchProgress();
             resetFMStationInfoUI();
@@ -1586,11 +1774,25 @@ public class FMRadio extends Activity {
         }
     };
 
+    /* Reveal one more bar of the signal icon per level */
+    final Runnable mOnSignalLevel = new Runnable() {
+        public void run() {
+            if (mSignalLevel < 0) {
+                mSignalLevelIV.setVisibility(View.INVISIBLE);
+            } else {
+                mSignalLevelIV.setImageLevel((mSignalLevel + 1) * 10000
+                        / SignalSampler.NUM_LEVELS);
+                mSignalLevelIV.setVisibility(View.VISIBLE);
+            }
+        }
+    };
+
     final Runnable mUpdateRadioText = new Runnable() {
         public void run() {
             String str = "";
             if (mService != null) {
                 try {
+                    mRadioTextTV.setText(mService.getRadioText());
                     /* Get PTY and PI and update the display */
                     int tempInt = mService.getProgramType();
                     /* Save PTY */
@@ -1599,6 +1801,7 @@ public class FMRadio extends Activity {
                     if (tempInt != 0) {
                         mTunedStation.setPI(tempInt);
                     }
+                    updateRdsInfoToUI();
                 } catch (RemoteException e) {
                     e.printStackTrace();
                 }
@@ -1612,6 +1815,8 @@ public class FMRadio extends Activity {
             String str = "";
             if (mService != null) {
                 try {
+                    String ps = mService.getProgramService();
+                    mProgramService = (ps != null) ? ps : "";
                     /* Get PTY and PI and update the display */
                     int tempInt = mService.getProgramType();
                     /* Save PTY */
@@ -1622,6 +1827,7 @@ public class FMRadio extends Activity {
                     if (tempInt != 0) {
                         mTunedStation.setPI(tempInt);
                     }
+                    updateRdsInfoToUI();
                 } catch (RemoteException e) {
                     e.printStackTrace();
                 }
@@ -1633,138 +1839,6 @@ public class FMRadio extends Activity {
         Log.d(LOGTAG, "Debug:" + str);
     }
 
-    /**
-     * This Handler will scroll the text view. On startScroll, the scrolling
-     * starts after SCROLLER_START_DELAY_MS The Text View is scrolled left one
-     * character after every SCROLLER_UPDATE_DELAY_MS When the entire text is
-     * scrolled, the scrolling will restart after SCROLLER_RESTART_DELAY_MS
-     */
-    private static final class ScrollerText extends Handler {
-
-        private static final byte SCROLLER_STOPPED = 0x51;
-
-        private static final byte SCROLLER_STARTING = 0x52;
-
-        private static final byte SCROLLER_RUNNING = 0x53;
-
-        private static final int SCROLLER_MSG_START = 0xF1;
-
-        private static final int SCROLLER_MSG_TICK = 0xF2;
-
-        private static final int SCROLLER_MSG_RESTART = 0xF3;
-
-        private static final int SCROLLER_START_DELAY_MS = 1000;
-
-        private static final int SCROLLER_RESTART_DELAY_MS = 3000;
-
-        private static final int SCROLLER_UPDATE_DELAY_MS = 200;
-
-        private final WeakReference<TextView> mView;
-
-        private byte mStatus = SCROLLER_STOPPED;
-
-        String mOriginalString;
-
-        int mStringlength = 0;
-
-        int mIteration = 0;
-
-        ScrollerText(TextView v) {
-            mView = new WeakReference<TextView>(v);
-        }
-
-        /**
-         * Scrolling Message Handler
-         */
-        @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case SCROLLER_MSG_START:
-                    mStatus = SCROLLER_RUNNING;
-                    updateText();
-                    break;
-                case SCROLLER_MSG_TICK:
-                    updateText();
-                    break;
-                case SCROLLER_MSG_RESTART:
-                    if (mStatus == SCROLLER_RUNNING) {
-                        startScroll();
-                    }
-                    break;
-            }
-        }
-
-        /**
-         * Moves the text left by one character and posts a delayed message for
-         * next update after SCROLLER_UPDATE_DELAY_MS. If the entire string is
-         * scrolled, then it displays the entire string and waits for
-         * SCROLLER_RESTART_DELAY_MS for scrolling restart
-         */
-        void updateText() {
-            if (mStatus != SCROLLER_RUNNING) {
-                return;
-            }
-
-            removeMessages(SCROLLER_MSG_TICK);
-
-            final TextView textView = mView.get();
-            if (textView != null) {
-                String szStr2 = "";
-                if (mStringlength > 0) {
-                    mIteration++;
-                    if (mIteration >= mStringlength) {
-                        mIteration = 0;
-                        sendEmptyMessageDelayed(SCROLLER_MSG_RESTART, SCROLLER_RESTART_DELAY_MS);
-                    } else {
-                        sendEmptyMessageDelayed(SCROLLER_MSG_TICK, SCROLLER_UPDATE_DELAY_MS);
-                    }
-                    // String szStr1 = mOriginalString.substring(0, mTick);
-                    szStr2 = mOriginalString.substring(mIteration);
-                }
-                // textView.setText(szStr2+"     "+szStr1);
-                textView.setText(szStr2);
-            }
-        }
-
-        /**
-         * Stops the scrolling The textView will be set to the original string.
-         */
-        void stopScroll() {
-            mStatus = SCROLLER_STOPPED;
-            removeMessages(SCROLLER_MSG_TICK);
-            removeMessages(SCROLLER_MSG_RESTART);
-            removeMessages(SCROLLER_MSG_START);
-            resetScroll();
-        }
-
-        /**
-         * Resets the scroll to display the original string.
-         */
-        private void resetScroll() {
-            mIteration = 0;
-            final TextView textView = mView.get();
-            if (textView != null) {
-                textView.setText(mOriginalString);
-            }
-        }
-
-        /**
-         * Starts the Scrolling of the TextView after a delay of
-         * SCROLLER_START_DELAY_MS Starts only if Length > 0
-         */
-        void startScroll() {
-            final TextView textView = mView.get();
-            if (textView != null) {
-                mOriginalString = (String) textView.getText();
-                mStringlength = mOriginalString.length();
-                if (mStringlength > 0) {
-                    mStatus = SCROLLER_STARTING;
-                    sendEmptyMessageDelayed(SCROLLER_MSG_START, SCROLLER_START_DELAY_MS);
-                }
-            }
-        }
-    }
-
     public static IFMRadioService sService = null;
 
     private static HashMap<Context, ServiceBinder> sConnectionMap = new HashMap<Context, ServiceBinder>();
@@ -1828,6 +1902,8 @@ public class FMRadio extends Activity {
             if (mService != null) {
                 try {
                     mService.registerCallbacks(mServiceCallbacks);
+                    refreshSleepTimer();
+                    refreshSignalLevel();
 
                     asyncCheckAndEnableRadio();
                 } catch (RemoteException e) {
@@ -1876,8 +1952,12 @@ public class FMRadio extends Activity {
             mHandler.post(mUpdateRadioText);
         }
 
-        public void onAlternateFrequencyChanged() {
-            Log.d(LOGTAG, "mServiceCallbacks.onAlternateFrequencyChanged :");
+        public void onAlternateFrequencyChanged(int fromFrequency, int toFrequency,
+                boolean bSwitched, int decisionMs) {
+            /* A switch also comes as a tune status, which updates the display */
+            Log.d(LOGTAG, "mServiceCallbacks.onAlternateFrequencyChanged : " + fromFrequency
+                    + " -> " + toFrequency + " switched: " + bSwitched + " in " + decisionMs
+                    + " ms");
         }
 
         public void onSignalStrengthChanged() {
@@ -1894,6 +1974,16 @@ public class FMRadio extends Activity {
             mHandler.post(mSearchListComplete);
         }
 
+        public void onChannelScanned(int frequency, int rssi, boolean bStereo, int pi, String ps) {
+            Log.d(LOGTAG, "mServiceCallbacks.onChannelScanned :" + frequency + " rssi: " + rssi);
+        }
+
+        public void onBandScanComplete(boolean bCancelled) {
+            Log.d(LOGTAG, "mServiceCallbacks.onBandScanComplete :" + bCancelled);
+            /* A cancelled scan does not fill the presets */
+            mHandler.post(bCancelled ? mSearchComplete : mSearchListComplete);
+        }
+
         public void onMute(boolean bMuted) {
             // do nothing when FM is muted
         }
@@ -1921,5 +2011,63 @@ public class FMRadio extends Activity {
                 mTunedStation.setRDSSupported(true);
             }
         }
+
+        public void onStateBatch(final Bundle state) {
+            Log.d(LOGTAG, "mServiceCallbacks.onStateBatch :" + state.keySet());
+            mHandler.post(new Runnable() {
+                public void run() {
+                    applyStateBatch(state);
+                }
+            });
+        }
     };
+
+    /*
+     * Apply a batch of state changes from the service, same as the individual
+     * callbacks but without calling back into the service for the values.
+     * A new frequency is applied first, so the cached RDS the service sends
+     * with it for a known station is shown right away rather than cleared.
+     */
+    private void applyStateBatch(Bundle state) {
+        if (state.containsKey(CallbackBatcher.KEY_STEREO)) {
+            if (state.getBoolean(CallbackBatcher.KEY_STEREO)
+                    && FmSharedPreferences.getAudioOutputMode()) {
+                mStereo = FMRADIO_UI_STATION_AUDIO_STEREO;
+            } else {
+                mStereo = FMRADIO_UI_STATION_AUDIO_MONO;
+            }
+            mOnStereo.run();
+        }
+        if (state.containsKey(CallbackBatcher.KEY_SIGNAL_LEVEL)) {
+            mSignalLevel = state.getInt(CallbackBatcher.KEY_SIGNAL_LEVEL);
+            mOnSignalLevel.run();
+        }
+        if (state.containsKey(CallbackBatcher.KEY_FREQUENCY)) {
+            mUpdateStationInfo.run();
+        }
+        if (state.containsKey(CallbackBatcher.KEY_AUDIO_STARTED)) {
+            mStartupTrace.onAudioStarted(state.getLong(CallbackBatcher.KEY_AUDIO_STARTED));
+        }
+        if (state.getBoolean(CallbackBatcher.KEY_RDS_SUPPORTED, false)) {
+            mTunedStation.setRDSSupported(true);
+        }
+        if (state.containsKey(CallbackBatcher.KEY_RADIO_TEXT)) {
+            mRadioTextTV.setText(state.getString(CallbackBatcher.KEY_RADIO_TEXT));
+        }
+        if (state.containsKey(CallbackBatcher.KEY_PROGRAM_SERVICE)) {
+            String ps = state.getString(CallbackBatcher.KEY_PROGRAM_SERVICE);
+            mProgramService = (ps != null) ? ps : "";
+        }
+        if (state.containsKey(CallbackBatcher.KEY_PROGRAM_TYPE)) {
+            mTunedStation.setPty(state.getInt(CallbackBatcher.KEY_PROGRAM_TYPE));
+        }
+        int pi = state.getInt(CallbackBatcher.KEY_PROGRAM_ID, 0);
+        if (pi != 0) {
+            mTunedStation.setPI(pi);
+        }
+        if (state.containsKey(CallbackBatcher.KEY_PROGRAM_SERVICE)
+                || state.containsKey(CallbackBatcher.KEY_PROGRAM_TYPE)) {
+            updateRdsInfoToUI();
+        }
+    }
 }
@@ -15,22 +15,30 @@ import android.content.IntentFilter;
 import android.hardware.fmradio.FmConfig;
 import android.hardware.fmradio.FmReceiver;
 import android.hardware.fmradio.FmRxEvCallbacksAdaptor;
-import android.hardware.fmradio.FmRxRdsData;
 import android.media.AudioManager;
 import android.media.AudioManager.OnAudioFocusChangeListener;
 import android.media.AudioSystem;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.PowerManager;
 import android.os.RemoteException;
+import android.os.SystemProperties;
 import android.os.PowerManager.WakeLock;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 import android.widget.RemoteViews;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 
 /**
  * Provides "background" FM Radio (that uses the hardware) capabilities,
@@ -43,6 +51,10 @@ public class FMRadioService extends Service {
     public static final String CMDTOGGLEPAUSE = "togglepause";
     public static final String CMDNEXT = "next";
     public static final String CMDPREVIOUS = "previous";
+    /* Sent by the FmScheduler alarm */
+    public static final String CMDSCHEDULE = "schedule";
+    /* Sent by the SleepTimer alarm */
+    public static final String CMDSLEEP = "sleep";
 
     /**
      * Static translation for audio output going through a wired headset
@@ -59,6 +71,37 @@ public class FMRadioService extends Service {
      */
     private static final String FMRADIO_DEVICE_FD_STRING = "/dev/radio0";
 
+    /* Set to true to replace the FM hardware with SimulatedTuner */
+    private static final String SIMULATED_TUNER_PROPERTY = "debug.fm.simulated_tuner";
+
+    /* Optional band map file for the simulated tuner */
+    private static final String SIMULATED_BAND_MAP_PROPERTY = "debug.fm.sim.bandmap";
+
+    private static final String SIMULATED_LATENCY_PROPERTY = "debug.fm.sim.latency_ms";
+
+    /*
+     * Audio source to record the FM audio from, the FM capture source differs
+     * per device. Unset, there is no recording: DEFAULT would be the microphone.
+     */
+    private static final String RECORD_SOURCE_PROPERTY = "persist.fm.record_source";
+
+    /* Directory on the external storage for the recordings */
+    private static final String RECORDINGS_DIR = "FMRecordings";
+
+    /*
+     * Seconds of audio the time shift buffer keeps, 0 disables time shift.
+     * Without RECORD_SOURCE_PROPERTY there is nothing to capture, it is off.
+     */
+    private static final String TIMESHIFT_SECONDS_PROPERTY = "persist.fm.timeshift_seconds";
+
+    private static final int DEFAULT_TIMESHIFT_SECONDS = 120;
+
+    /* About 300 MB of PCM */
+    private static final int MAX_TIMESHIFT_SECONDS = 30 * 60;
+
+    /* Circular file of the time shift buffer, in the cache directory */
+    private static final String TIMESHIFT_FILE = "timeshift.pcm";
+
     /**
      * ID identifying this service when launched in the foreground
      */
@@ -79,7 +122,19 @@ public class FMRadioService extends Service {
     /**
      * Manipulates the FM radio hardware
      */
-    private FmReceiver mReceiver;
+    private volatile RadioTuner mReceiver;
+
+    /* Every receiver command below runs on this queue's thread */
+    private ReceiverCommandQueue mCommandQueue;
+
+    /* Collapses repeated CMDNEXT/CMDPREVIOUS steps into one tune */
+    private TuneCoalescer mTuneCoalescer;
+
+    /* The current or last band scan, null before the first one */
+    private volatile BandScanner mBandScanner;
+
+    /* The band scan muted the audio and has to restore it */
+    private boolean mBandScanMuted = false;
 
     /**
      * Receives Headset related Intents
@@ -94,7 +149,7 @@ public class FMRadioService extends Service {
     /**
      * Interface containing callback methods
      */
-    private IFMRadioServiceCallbacks mCallbacks;
+    private CallbackRegistry mCallbackRegistry;
 
     /**
      * Handle to FM shared preferences
@@ -147,10 +202,90 @@ public class FMRadioService extends Service {
     final Handler mHandler = new Handler();
 
     /**
-     * Resource to read Radio Data System (RDS) information embedded in a
-     * radio stream if it exists
+     * Radio Data System (RDS) state of the tuned station. Replaced as a whole
+     * by setRdsState(), so binder threads read it without locking.
      */
-    private FmRxRdsData mFMRxRDSData = null;
+    private volatile RdsState mRdsState = RdsState.empty(0);
+
+    /* RDS states of the recently heard stations, restored when tuning to them */
+    private StationCache mStationCache;
+
+    /* Hot path latencies, reported by dump() */
+    private static final LatencyStats mTuneLatency = new LatencyStats("tune-to-callback");
+
+    private static final LatencyStats mPsLatency = new LatencyStats("rds-ps-dispatch");
+
+    private static final LatencyStats mRtLatency = new LatencyStats("rds-rt-dispatch");
+
+    private static final LatencyStats mSearchListLatency = new LatencyStats(
+            "search-list-to-callback");
+
+    /* fmOn() to the first tune status and the first RDS, cold and warm resume */
+    private static final LatencyStats mColdAudioLatency = new LatencyStats("fmon-to-audio-cold");
+
+    private static final LatencyStats mWarmAudioLatency = new LatencyStats("fmon-to-audio-warm");
+
+    private static final LatencyStats mColdRdsLatency = new LatencyStats("fmon-to-rds-cold");
+
+    private static final LatencyStats mWarmRdsLatency = new LatencyStats("fmon-to-rds-warm");
+
+    /* Taken by fmOff(), kept for the life of the process for a warm fmOn() */
+    private static volatile ReceiverSnapshot mLastGoodState = null;
+
+    /* Last power mode and auto AF sent, so fmOn() on a running receiver can skip them */
+    private volatile boolean mLowPowerMode = false;
+
+    private volatile boolean mAutoAF = false;
+
+    /* System.nanoTime() of the pending fmOn(), 0 once audio / RDS was delivered */
+    private volatile long mPowerOnAudioNs = 0;
+
+    private volatile long mPowerOnRdsNs = 0;
+
+    private volatile boolean mWarmPowerOn = false;
+
+    /* Raw RDS groups per FmRxEvRdsGroupData, and blocks read per event */
+    private static final int RAW_RDS_BUFFER_GROUPS = 4;
+
+    private static final int RAW_RDS_READ_BLOCKS = 64;
+
+    /* Builds PS and RT from the raw RDS groups, on the FM event thread */
+    private RdsDecoder mRdsDecoder;
+
+    /* Software AF switching, started by enableAutoAF() */
+    private AfEngine mAfEngine;
+
+    /* Signal level of the tuned station, polled while FM is on */
+    private SignalSampler mSignalSampler;
+
+    /* The FM audio capture, shared by the recorder and the time shift buffer */
+    private FmAudioCapture mAudioCapture;
+
+    private FmRecorder mRecorder;
+
+    /* Both null when time shift is disabled */
+    private TimeShiftBuffer mTimeShiftBuffer;
+
+    private TimeShiftPlayer mTimeShiftPlayer;
+
+    /* Scheduled recordings and tunes */
+    private FmScheduler mScheduler;
+
+    /* FM was turned on for a scheduled event and goes off after it */
+    private boolean mScheduledFmOn = false;
+
+    private SleepTimer mSleepTimer;
+
+    /* The receiver delivers raw groups, the PS/RT events are ignored */
+    private volatile boolean mRawRdsEnabled = false;
+
+    /* Coalesces tune, stereo and RDS events into onStateBatch() calls */
+    private CallbackBatcher mBatcher;
+
+    /* System.nanoTime() of the pending tune or search list request, 0 if none */
+    private volatile long mTuneStartNs = 0;
+
+    private volatile long mSearchListStartNs = 0;
 
     /**
      * Used to modify UI view hierarchies
@@ -207,10 +342,33 @@ public class FMRadioService extends Service {
 
         // Instantiate a handle to our shared preferences
         // TODO: These should be stored in a properties file and read from via a ResourceBundle
-        mPrefs = new FmSharedPreferences(this);
-
-        // Since this is the onCreate(), we set Callbacks to null
-        mCallbacks = null;
+        // The activity of the process may have loaded them already, maybe deferred
+        mPrefs = new FmSharedPreferences(this, false, false);
+
+        // Since this is the onCreate(), no client is registered yet
+        mCallbackRegistry = new CallbackRegistry();
+        mCommandQueue = new ReceiverCommandQueue();
+        mTuneCoalescer = new TuneCoalescer(getMainLooper(), new TuneCoalescer.Listener() {
+            public void onTune(int frequency) {
+                tune(frequency);
+            }
+        });
+        mRdsDecoder = new RdsDecoder(mRdsListener);
+        mAfEngine = new AfEngine(mCommandQueue.getLooper(), mAfListener);
+        mSignalSampler = new SignalSampler(mCommandQueue.getLooper(), mSignalListener);
+        mAudioCapture = new FmAudioCapture(SystemProperties.getInt(RECORD_SOURCE_PROPERTY,
+                FmAudioCapture.NO_SOURCE));
+        mRecorder = new FmRecorder(mAudioCapture, mRecordListener);
+        int timeShiftSeconds = mAudioCapture.hasSource() ? SystemProperties.getInt(
+                TIMESHIFT_SECONDS_PROPERTY, DEFAULT_TIMESHIFT_SECONDS) : 0;
+        if (timeShiftSeconds > 0) {
+            mTimeShiftBuffer = new TimeShiftBuffer(new File(getCacheDir(), TIMESHIFT_FILE),
+                    Math.min(timeShiftSeconds, MAX_TIMESHIFT_SECONDS));
+            mTimeShiftPlayer = new TimeShiftPlayer(mTimeShiftBuffer, mTimeShiftListener);
+        }
+        mStationCache = StationCache.load(getFilesDir());
+        mBatcher = new CallbackBatcher(getMainLooper(), CallbackBatcher.FRAME_INTERVAL_MS,
+                mBatchListener);
 
         // Handle to telephone resources
         TelephonyManager tmgr = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
@@ -231,6 +389,12 @@ public class FMRadioService extends Service {
         // Register for headset plug/unplug intents
         registerHeadsetListener();
 
+        mSleepTimer = new SleepTimer(this, mSleepListener);
+
+        /* Catch up on scheduled events that came due while the process was gone */
+        mScheduler = FmScheduler.load(this, mScheduleListener);
+        mScheduler.onAlarm();
+
         /* If the service was idle, but got killed before it stopped itself, the
            system will relaunch it. Make sure it gets stopped again in that
            case.
@@ -257,6 +421,7 @@ public class FMRadioService extends Service {
 
         // make sure there aren't any other messages coming
         mDelayedStopHandler.removeCallbacksAndMessages(null);
+        mTuneCoalescer.cancel();
 
         /* Remove the Screen On/off listener */
         if (mScreenOnOffReceiver != null) {
@@ -277,6 +442,15 @@ public class FMRadioService extends Service {
         /* Since the service is closing, disable the receiver */
         fmOff();
 
+        /* Only now: fmOff() still notifies the clients, flushes the batcher
+           and stops a band scan on the command thread */
+        mBatcher.cancel();
+        mCallbackRegistry.kill();
+        mCommandQueue.quit();
+
+        /* Write out the tuned frequency and any other pending preference edits */
+        FmSharedPreferences.flush();
+
         TelephonyManager tmgr = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
         tmgr.listen(mPhoneStateListener, 0);
 
@@ -292,6 +466,71 @@ public class FMRadioService extends Service {
                 FMMediaButtonIntentReceiver.class.getName()));
     }
 
+    /*
+     * "adb shell dumpsys activity service FMRadioService" prints the hot path
+     * latencies as CSV, "... FMRadioService reset" clears them.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        if ((args != null) && (args.length > 0) && "reset".equals(args[0])) {
+            LatencyStats.resetAll();
+            pw.println("latency stats reset");
+            return;
+        }
+        LatencyStats.dumpAll(pw);
+        pw.println("prefs-coalesced-writes," + FmSharedPreferences.getCoalescedWrites());
+        pw.println("cmd-queue-depth," + mCommandQueue.getDepth());
+        pw.println("cmd-queue-max-depth," + mCommandQueue.getMaxDepth());
+        pw.println("cmd-superseded," + mCommandQueue.getSupersededCount());
+        pw.println("tune-requests," + TuneCoalescer.getRequestedCount());
+        pw.println("tune-sent," + TuneCoalescer.getSentCount());
+        pw.println("tune-avoided," + TuneCoalescer.getAvoidedCount());
+        pw.println("rds-raw," + mRawRdsEnabled);
+        pw.println("rds-blocks," + mRdsDecoder.getBlockCount());
+        pw.println("rds-block-errors," + mRdsDecoder.getBlockErrors());
+        pw.println("rds-groups," + mRdsDecoder.getGroupCount());
+        pw.println("rds-ps-published," + mRdsDecoder.getPsPublishedCount());
+        pw.println("rds-rt-published," + mRdsDecoder.getRtPublishedCount());
+        pw.println("signal-samples," + mSignalSampler.getSampleCount());
+        dumpSignalStats(pw, "signal-1s", 1000);
+        dumpSignalStats(pw, "signal-10s", 10 * 1000);
+        dumpSignalStats(pw, "signal-60s", 60 * 1000);
+        pw.println("record-active," + mRecorder.isRecording());
+        pw.println("record-bytes," + mRecorder.getBytesWritten());
+        pw.println("record-bytes-per-sec," + mRecorder.getBytesPerSecond());
+        pw.println("record-dropped-frames," + mRecorder.getDroppedFrames());
+        pw.println("record-lag-ms," + mRecorder.getLagMs());
+        pw.println("record-max-lag-ms," + mRecorder.getMaxLagMs());
+        pw.println("capture-active," + mAudioCapture.isCapturing());
+        if (mTimeShiftPlayer != null) {
+            pw.println("timeshift-capacity-bytes," + mTimeShiftBuffer.getCapacity());
+            pw.println("timeshift-state," + mTimeShiftPlayer.getState());
+            pw.println("timeshift-delay-ms," + mTimeShiftPlayer.getDelayMs());
+            pw.println("timeshift-buffered-ms," + mTimeShiftPlayer.getBufferedMs());
+            pw.println("timeshift-catch-ups," + mTimeShiftPlayer.getCatchUpCount());
+            pw.println("timeshift-overruns," + mTimeShiftBuffer.getOverrunCount());
+        }
+        pw.println("sleep-remaining-ms," + mSleepTimer.getRemainingMs());
+        pw.println("schedule-events," + mScheduler.size());
+        pw.println("schedule-wakeups," + mScheduler.getWakeupCount());
+        pw.println("schedule-missed," + mScheduler.getMissedCount());
+        pw.println("af-switches," + mAfEngine.getSwitchCount());
+        pw.println("af-reverts," + mAfEngine.getRevertCount());
+        pw.println("station-cache-size," + mStationCache.size());
+        pw.println("station-cache-hits," + mStationCache.getHitCount());
+        pw.println("station-cache-misses," + mStationCache.getMissCount());
+        pw.println("station-cache-pi-mismatches," + mStationCache.getPiMismatchCount());
+    }
+
+    /* name,min,avg,max,stereo percent,samples */
+    private void dumpSignalStats(PrintWriter pw, String name, long windowMs) {
+        int[] stats = mSignalSampler.getStats(windowMs);
+        pw.println(name + "," + stats[SignalSampler.STAT_MIN] + ","
+                + stats[SignalSampler.STAT_AVG] + "," + stats[SignalSampler.STAT_MAX] + ","
+                + stats[SignalSampler.STAT_STEREO_PERCENT] + ","
+                + stats[SignalSampler.STAT_SAMPLES]);
+    }
+
     private OnAudioFocusChangeListener mAudioFocusListener = new OnAudioFocusChangeListener() {
         public void onAudioFocusChange(int focusChange) {
             switch (focusChange) {
@@ -369,16 +608,12 @@ public class FMRadioService extends Service {
                 /* Disable FM and let the UI know */
                 if (isFmOn()) {
                     fmOff();
-                    try {
-                        /*
-                         * Notify the UI/Activity, only if the service is "bound" by
-                         * an activity and if Callbacks are registered
-                         */
-                        if ((mServiceInUse) && (mCallbacks != null)) {
-                            mCallbacks.onDisabled();
-                        }
-                    } catch (RemoteException e) {
-                        e.printStackTrace();
+                    /*
+                     * Notify the UI/Activity, only if the service is "bound" by
+                     * an activity and if Callbacks are registered
+                     */
+                    if (mServiceInUse) {
+                        mCallbackRegistry.notifyDisabled();
                     }
                 }
             }
@@ -420,19 +655,24 @@ public class FMRadioService extends Service {
             if (FMRadioService.CMDTOGGLEPAUSE.equals(cmd)) {
                 Log.d(LOGTAG, "Play/Pause Intent received");
 
+                // With time shift, pause keeps the audio and play goes on from there
+                if (isFmOn() && (mTimeShiftPlayer != null)
+                        && (mTimeShiftPlayer.getState() == TimeShiftPlayer.STATE_PAUSED)) {
+                    Log.d(LOGTAG, "Resuming FM radio playback from the time shift buffer");
+                    resumeLive();
+                    mCallbackRegistry.notifyMute(false);
+                }
+                else if (isFmOn() && !isMuted() && pauseLive()) {
+                    Log.d(LOGTAG, "Paused FM radio playback into the time shift buffer");
+                    mCallbackRegistry.notifyMute(true);
+                }
                 // This handles the PLAY action
-                if(isFmOn() && isMuted()) {
+                else if(isFmOn() && isMuted()) {
                     Log.d(LOGTAG, "Unpausing FM radio playback");
                     unMute();
                     startFM();
 
-                    try {
-                        if (mCallbacks != null) {
-                            mCallbacks.onMute(false);
-                        }
-                    } catch (RemoteException e) {
-                        e.printStackTrace();
-                    }
+                    mCallbackRegistry.notifyMute(false);
                 }
                 // This handles the PAUSE action
                 else if(isFmOn() && !isMuted()) {
@@ -440,13 +680,7 @@ public class FMRadioService extends Service {
                     mute();
                     stopFM();
 
-                    try {
-                        if (mCallbacks != null) {
-                            mCallbacks.onMute(true);
-                        }
-                    } catch (RemoteException e) {
-                        e.printStackTrace();
-                    }
+                    mCallbackRegistry.notifyMute(true);
                 }
             }
             else if(FMRadioService.CMDNEXT.equals(cmd)) {
@@ -455,16 +689,12 @@ public class FMRadioService extends Service {
                     Log.d(LOGTAG, "Moving up in frequency");
                     nextFrequency(true);
 
-                    try {
-                        /*
-                         * Notify the UI/Activity, only if the service is "bound" by
-                         * an activity and if Callbacks are registered
-                         */
-                        if ((mServiceInUse) && (mCallbacks != null)) {
-                            mCallbacks.onTuneStatusChanged();
-                        }
-                    } catch (RemoteException e) {
-                        e.printStackTrace();
+                    /*
+                     * Notify the UI/Activity, only if the service is "bound" by
+                     * an activity and if Callbacks are registered
+                     */
+                    if (mServiceInUse) {
+                        mCallbackRegistry.notifyTuneStatusChanged();
                     }
                 }
             }
@@ -474,19 +704,23 @@ public class FMRadioService extends Service {
                     Log.d(LOGTAG, "Moving down in frequency");
                     nextFrequency(false);
 
-                    try {
-                        /*
-                         * Notify the UI/Activity, only if the service is "bound" by
-                         * an activity and if Callbacks are registered
-                         */
-                        if ((mServiceInUse) && (mCallbacks != null)) {
-                            mCallbacks.onTuneStatusChanged();
-                        }
-                    } catch (RemoteException e) {
-                        e.printStackTrace();
+                    /*
+                     * Notify the UI/Activity, only if the service is "bound" by
+                     * an activity and if Callbacks are registered
+                     */
+                    if (mServiceInUse) {
+                        mCallbackRegistry.notifyTuneStatusChanged();
                     }
                 }
             }
+            else if(FMRadioService.CMDSCHEDULE.equals(cmd)) {
+                Log.d(LOGTAG, "Schedule alarm received");
+                mScheduler.onAlarm();
+            }
+            else if(FMRadioService.CMDSLEEP.equals(cmd)) {
+                Log.d(LOGTAG, "Sleep alarm received");
+                mSleepTimer.onAlarm();
+            }
         }
 
         // make sure the service will shut down on its own if it was
@@ -502,8 +736,9 @@ public class FMRadioService extends Service {
         mServiceInUse = false;
         Log.d(LOGTAG, "onUnbind");
 
-        /* Application/UI is not attached, so go into lower power mode */
-        unregisterCallbacks();
+        /* Application/UI is not attached, so go into lower power mode.
+           Not unregisterCallbacks(): outside a binder call the calling pid is ours */
+        mCallbackRegistry.clear();
         setLowPowerMode(true);
         if (isFmOn()) {
             // something is currently playing, or will be playing once
@@ -539,13 +774,7 @@ public class FMRadioService extends Service {
                     mute();
                     stopFM();
                     mResumeAfterCall = true;
-                    try {
-                        if (mCallbacks != null) {
-                            mCallbacks.onMute(true);
-                        }
-                    } catch (RemoteException e) {
-                        e.printStackTrace();
-                    }
+                    mCallbackRegistry.notifyMute(true);
                 }
             } // ringing
             else if (state == TelephonyManager.CALL_STATE_OFFHOOK) {
@@ -553,13 +782,7 @@ public class FMRadioService extends Service {
                 mute();
                 stopFM();
                 mResumeAfterCall = true;
-                try {
-                    if (mCallbacks != null) {
-                        mCallbacks.onMute(true);
-                    }
-                } catch (RemoteException e) {
-                    e.printStackTrace();
-                }
+                mCallbackRegistry.notifyMute(true);
             } // offhook
             else if (state == TelephonyManager.CALL_STATE_IDLE) {
                 // start playing again
@@ -580,13 +803,7 @@ public class FMRadioService extends Service {
                             FMMediaButtonIntentReceiver.class.getName()));
 
                     mResumeAfterCall = false;
-                    try {
-                        if (mCallbacks != null) {
-                            mCallbacks.onMute(false);
-                        }
-                    } catch (RemoteException e) {
-                        e.printStackTrace();
-                    }
+                    mCallbackRegistry.notifyMute(false);
                 }
             }// idle
         }
@@ -729,6 +946,13 @@ public class FMRadioService extends Service {
             mService.get().registerCallbacks(cb);
         }
 
+        public void registerCallbacksForEvents(IFMRadioServiceCallbacks cb, int interests)
+                throws RemoteException {
+            mService.get().registerCallbacksForEvents(cb, interests);
+        }
+        public void unregisterCallback(IFMRadioServiceCallbacks cb) throws RemoteException {
+            mService.get().unregisterCallback(cb);
+        }
         public void unregisterCallbacks() throws RemoteException {
             mService.get().unregisterCallbacks();
         }
@@ -793,10 +1017,88 @@ public class FMRadioService extends Service {
             return (mService.get().getSearchList());
         }
 
+        public boolean startBandScan(boolean bFullScan) {
+            return (mService.get().startBandScan(bFullScan));
+        }
+
+        public boolean cancelBandScan() {
+            return (mService.get().cancelBandScan());
+        }
+
+        public int[] getBandScanStations(int maxStations) {
+            return (mService.get().getBandScanStations(maxStations));
+        }
+
         public boolean setLowPowerMode(boolean enable) {
             return (mService.get().setLowPowerMode(enable));
         }
 
+        public int[] getSignalStats(int windowMs) {
+            return (mService.get().getSignalStats(windowMs));
+        }
+
+        public boolean startRecording() {
+            return (mService.get().startRecording());
+        }
+
+        public boolean stopRecording() {
+            return (mService.get().stopRecording());
+        }
+
+        public boolean isRecording() {
+            return (mService.get().isRecording());
+        }
+
+        public boolean pauseLive() {
+            return (mService.get().pauseLive());
+        }
+
+        public boolean resumeLive() {
+            return (mService.get().resumeLive());
+        }
+
+        public boolean seekTimeShift(int delayMs) {
+            return (mService.get().seekTimeShift(delayMs));
+        }
+
+        public boolean jumpToLive() {
+            return (mService.get().jumpToLive());
+        }
+
+        public int getTimeShiftDelayMs() {
+            return (mService.get().getTimeShiftDelayMs());
+        }
+
+        public int getTimeShiftBufferedMs() {
+            return (mService.get().getTimeShiftBufferedMs());
+        }
+
+        public int scheduleEvent(int frequency, long startTime, int durationMs,
+                int presetList, int presetStation, boolean bRecord) {
+            return (mService.get().scheduleEvent(frequency, startTime, durationMs, presetList,
+                    presetStation, bRecord));
+        }
+
+        public boolean cancelScheduledEvent(int id) {
+            return (mService.get().cancelScheduledEvent(id));
+        }
+
+        public long[] getScheduledEvents() {
+            return (mService.get().getScheduledEvents());
+        }
+
+        public boolean startSleepTimer(int delayMs, int fadeMs) {
+            return (mService.get().startSleepTimer(delayMs, fadeMs));
+        }
+
+        public void cancelSleepTimer() {
+            mService.get().cancelSleepTimer();
+        }
+
+        public int getSleepTimerRemainingMs() {
+            return (mService.get().getSleepTimerRemainingMs());
+        }
+
         public int getPowerMode() {
             return (mService.get().getPowerMode());
         }
@@ -820,6 +1122,24 @@ public class FMRadioService extends Service {
 
     private final IBinder mBinder = new ServiceStub(this);
 
+    /*
+     * Create the tuner driving the radio: the FM hardware, or the simulated
+     * tuner when SIMULATED_TUNER_PROPERTY is set.
+     */
+    private RadioTuner createTuner() {
+        if (SystemProperties.getBoolean(SIMULATED_TUNER_PROPERTY, false)) {
+            String bandMap = SystemProperties.get(SIMULATED_BAND_MAP_PROPERTY, "");
+            int latency = SystemProperties.getInt(SIMULATED_LATENCY_PROPERTY,
+                    SimulatedTuner.DEFAULT_LATENCY_MS);
+            Log.d(LOGTAG, "Using simulated tuner, band map: [" + bandMap + "] latency: "
+                    + latency);
+            return new SimulatedTuner(fmCallbacks, (bandMap.length() > 0) ? SimulatedTuner
+                    .loadBandMap(bandMap) : SimulatedTuner.getDefaultBandMap(), latency,
+                    SimulatedTuner.DEFAULT_RDS_INTERVAL_MS, SimulatedTuner.DEFAULT_DWELL_MS);
+        }
+        return new FmReceiverTuner(FMRADIO_DEVICE_FD_STRING);
+    }
+
     /*
      * Turn ON FM: Powers up FM hardware, and initializes the FM module .
      * @return true if fm Enable api was invoked successfully, false if the api
@@ -827,56 +1147,98 @@ public class FMRadioService extends Service {
      */
     private boolean fmOn() {
         boolean bStatus = false;
+        boolean bAlreadyOn = false;
+        long powerOnNs = System.nanoTime();
         Log.d(LOGTAG, "fmOn");
         mAudioManager.registerMediaButtonEventReceiver(new ComponentName(getPackageName(), FMMediaButtonIntentReceiver.class.getName()));
         mAudioManager.requestAudioFocus(mAudioFocusListener, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
 
         if (mReceiver == null) {
-            mReceiver = new FmReceiver(FMRADIO_DEVICE_FD_STRING, null);
+            mReceiver = createTuner();
             if (mReceiver == null) {
                 throw new RuntimeException("FmReceiver service not available!");
             }
         }
 
         if (mReceiver != null) {
+            FmConfig config = FmSharedPreferences.getFMConfiguration();
+            /* Resume from the last good state only if the band setup is unchanged */
+            ReceiverSnapshot lastGood = mLastGoodState;
+            boolean bWarm = (lastGood != null) && lastGood.hasConfig(config);
             if (isFmOn()) {
                 /* FM Is already on, */
                 bStatus = true;
+                bAlreadyOn = true;
                 Log.d(LOGTAG, "mReceiver.already enabled");
             } else {
                 // This sets up the FM radio device
-                FmConfig config = FmSharedPreferences.getFMConfiguration();
                 Log.d(LOGTAG, "fmOn: RadioBand   :" + config.getRadioBand());
                 Log.d(LOGTAG, "fmOn: Emphasis    :" + config.getEmphasis());
                 Log.d(LOGTAG, "fmOn: ChSpacing   :" + config.getChSpacing());
                 Log.d(LOGTAG, "fmOn: RdsStd      :" + config.getRdsStd());
                 Log.d(LOGTAG, "fmOn: LowerLimit  :" + config.getLowerLimit());
                 Log.d(LOGTAG, "fmOn: UpperLimit  :" + config.getUpperLimit());
-                bStatus = mReceiver.enable(FmSharedPreferences.getFMConfiguration());
+                bStatus = mReceiver.enable(config);
                 Log.d(LOGTAG, "mReceiver.enable done, Status :" + bStatus);
             }
 
             if (bStatus == true) {
                 startFM();
-                bStatus = mReceiver.registerRdsGroupProcessing(FmReceiver.FM_RX_RDS_GRP_RT_EBL
-                        | FmReceiver.FM_RX_RDS_GRP_PS_EBL | FmReceiver.FM_RX_RDS_GRP_AF_EBL
-                        | FmReceiver.FM_RX_RDS_GRP_PS_SIMPLE_EBL);
-                Log.d(LOGTAG, "registerRdsGroupProcessing done, Status :" + bStatus);
-                bStatus = enableAutoAF(FmSharedPreferences.getAutoAFSwitch());
-                Log.d(LOGTAG, "enableAutoAF done, Status :" + bStatus);
-                /* Put the hardware into normal mode */
-                bStatus = setLowPowerMode(false);
-                Log.d(LOGTAG, "setLowPowerMode done, Status :" + bStatus);
-
-                /* There is no internal Antenna */
-                bStatus = mReceiver.setInternalAntenna(false);
-                Log.d(LOGTAG, "setInternalAntenna done, Status :" + bStatus);
-
-                /* Read back to verify the internal Antenna mode */
-                readInternalAntennaAvailable();
+                /* A receiver that stayed on keeps everything sent to it so far */
+                if (!bAlreadyOn) {
+                    /* Prefer the raw groups, the stack's PS/RT stay as the fall back */
+                    mRawRdsEnabled = mReceiver.setRdsGroupOptions(RdsDecoder.GROUPS_PS_RT,
+                            RAW_RDS_BUFFER_GROUPS, false);
+                    Log.d(LOGTAG, "setRdsGroupOptions done, Status :" + mRawRdsEnabled);
+                    int groups = FmReceiver.FM_RX_RDS_GRP_AF_EBL;
+                    if (!mRawRdsEnabled) {
+                        groups |= FmReceiver.FM_RX_RDS_GRP_RT_EBL | FmReceiver.FM_RX_RDS_GRP_PS_EBL
+                                | FmReceiver.FM_RX_RDS_GRP_PS_SIMPLE_EBL;
+                    }
+                    bStatus = mReceiver.registerRdsGroupProcessing(groups);
+                    Log.d(LOGTAG, "registerRdsGroupProcessing done, Status :" + bStatus);
+                }
+                boolean bAutoAF = FmSharedPreferences.getAutoAFSwitch();
+                if (!bAlreadyOn || (bAutoAF != mAutoAF)) {
+                    bStatus = enableAutoAF(bAutoAF);
+                    Log.d(LOGTAG, "enableAutoAF done, Status :" + bStatus);
+                }
+                if (!bAlreadyOn || mLowPowerMode) {
+                    /* Put the hardware into normal mode */
+                    bStatus = setLowPowerMode(false);
+                    Log.d(LOGTAG, "setLowPowerMode done, Status :" + bStatus);
+                }
+
+                if (!bAlreadyOn) {
+                    /* There is no internal Antenna */
+                    bStatus = mReceiver.setInternalAntenna(false);
+                    Log.d(LOGTAG, "setInternalAntenna done, Status :" + bStatus);
+                }
+
+                if (bWarm) {
+                    /* The antenna does not come and go, no need to read it back */
+                    mInternalAntennaAvailable = lastGood.isInternalAntennaAvailable();
+                } else if (!bAlreadyOn) {
+                    /* Read back to verify the internal Antenna mode */
+                    readInternalAntennaAvailable();
+                }
 
                 mFMOn = true;
                 bStatus = true;
+                mSignalSampler.start(mReceiver);
+
+                mWarmPowerOn = bWarm || bAlreadyOn;
+                mPowerOnRdsNs = powerOnNs;
+                if (bAlreadyOn) {
+                    /* The audio never stopped */
+                    mPowerOnAudioNs = 0;
+                    mWarmAudioLatency.recordSince(powerOnNs);
+                } else {
+                    mPowerOnAudioNs = powerOnNs;
+                    if (bWarm) {
+                        showCachedStation(lastGood);
+                    }
+                }
             } else {
                 stop();
             }
@@ -884,6 +1246,71 @@ public class FMRadioService extends Service {
         return (bStatus);
     }
 
+    /*
+     * Hand the RDS of the last good state to the clients right away if we
+     * are resuming on the same station, it stays until the station's own RDS
+     * replaces it.
+     */
+    private void showCachedStation(ReceiverSnapshot lastGood) {
+        int frequency = FmSharedPreferences.getTunedFrequency();
+        RdsState rdsState = lastGood.getRds();
+        if (!rdsState.hasRds() || (lastGood.getFrequency() != frequency)) {
+            return;
+        }
+        Log.d(LOGTAG, "showCachedStation: " + frequency + " PS: ["
+                + rdsState.getProgramService() + "]");
+        /* The tune status of the resumed station restores it from mStationCache */
+        setRdsState(rdsState);
+        mBatcher.putFrequency(frequency);
+        putRds(rdsState);
+        recordPowerOnRds();
+    }
+
+    private void putRds(RdsState rdsState) {
+        if (rdsState.getProgramService() != null) {
+            mBatcher.putProgramService(rdsState.getProgramService(),
+                    rdsState.getProgramType(), rdsState.getProgramId());
+        }
+        if (rdsState.getRadioText() != null) {
+            mBatcher.putRadioText(rdsState.getRadioText(), rdsState.getProgramType(),
+                    rdsState.getProgramId());
+        }
+    }
+
+    /* Publish "rdsState" to the readers and remember it for a retune back */
+    private void setRdsState(RdsState rdsState) {
+        mRdsState = rdsState;
+        mStationCache.put(rdsState);
+    }
+
+    /*
+     * Switch mRdsState to the station on "frequency": its cached state if it
+     * was heard before, an empty one otherwise. Returns the cached state or
+     * null.
+     */
+    private RdsState restoreRdsState(int frequency) {
+        RdsState recent = mStationCache.get(frequency);
+        mRdsState = (recent != null) ? recent : RdsState.empty(frequency);
+        return recent;
+    }
+
+    private void recordPowerOnAudio() {
+        long start = mPowerOnAudioNs;
+        if (start != 0) {
+            mPowerOnAudioNs = 0;
+            mBatcher.putAudioStarted(System.nanoTime());
+            (mWarmPowerOn ? mWarmAudioLatency : mColdAudioLatency).recordSince(start);
+        }
+    }
+
+    private void recordPowerOnRds() {
+        long start = mPowerOnRdsNs;
+        if (start != 0) {
+            mPowerOnRdsNs = 0;
+            (mWarmPowerOn ? mWarmRdsLatency : mColdRdsLatency).recordSince(start);
+        }
+    }
+
     /*
      * Turn OFF FM: Disable the FM Host and hardware . .
      * @return true if fm Disable api was invoked successfully, false if the api
@@ -894,6 +1321,34 @@ public class FMRadioService extends Service {
         Log.d(LOGTAG, "fmOff");
         mAudioManager.abandonAudioFocus(mAudioFocusListener);
         stopFM();
+        if (isFmOn()) {
+            /* Remember where we were for a warm fmOn() */
+            mLastGoodState = ReceiverSnapshot.capture(FmSharedPreferences.getFMConfiguration(),
+                    FmSharedPreferences.getTunedFrequency(), mRdsState,
+                    mInternalAntennaAvailable);
+        }
+        mStationCache.save();
+        mSleepTimer.cancel();
+        mAfEngine.stop();
+        mSignalSampler.stop();
+        mRecorder.stop();
+        if (mTimeShiftPlayer != null) {
+            synchronized (mTimeShiftBuffer) {
+                mTimeShiftPlayer.reset();
+                stopTimeShiftCapture();
+            }
+        }
+        mRawRdsEnabled = false;
+        mPowerOnAudioNs = 0;
+        mPowerOnRdsNs = 0;
+        /* Stop the scan before the receiver goes, it must not tune a disabled one */
+        BandScanner scanner = mBandScanner;
+        if ((scanner != null) && scanner.isScanning()) {
+            scanner.cancelAndWait();
+        }
+        /* Commands still queued are meaningless once the device is off */
+        mTuneCoalescer.cancel();
+        mCommandQueue.clear();
         // This will disable the FM radio device
         if (mReceiver != null) {
             bStatus = mReceiver.disable();
@@ -939,14 +1394,30 @@ public class FMRadioService extends Service {
      * Register UI/Activity Callbacks
      */
     public void registerCallbacks(IFMRadioServiceCallbacks cb) {
-        mCallbacks = cb;
+        mCallbackRegistry.register(cb, CallbackRegistry.INTEREST_ALL);
+    }
+
+    /*
+     * Register Callbacks for only some events, "interests" is a combination of
+     * the CallbackRegistry.INTEREST_* flags.
+     */
+    public void registerCallbacksForEvents(IFMRadioServiceCallbacks cb, int interests) {
+        mCallbackRegistry.register(cb, interests);
     }
 
     /*
-     * unRegister UI/Activity Callbacks
+     * unRegister one client's Callbacks
+     */
+    public void unregisterCallback(IFMRadioServiceCallbacks cb) {
+        mCallbackRegistry.unregister(cb);
+    }
+
+    /*
+     * unRegister UI/Activity Callbacks of the calling process, only
+     * meaningful from a binder call.
      */
     public void unregisterCallbacks() {
-        mCallbacks = null;
+        mCallbackRegistry.unregisterPid(Binder.getCallingPid());
     }
 
     /*
@@ -1012,14 +1483,24 @@ public class FMRadioService extends Service {
      * muted. Note: Callback FmRxEvRadioTuneStatus will be called when the tune
      * is complete
      */
-    public boolean tune(int frequency) {
+    public boolean tune(final int frequency) {
         boolean bCommandSent = false;
         double doubleFrequency = frequency / 1000.00;
 
         Log.d(LOGTAG, "tuneRadio:  " + doubleFrequency);
         if (mReceiver != null) {
-            mReceiver.setStation(frequency);
-            bCommandSent = true;
+            cancelBandScan();
+            /* The new station is heard live */
+            jumpToLive();
+            mTuneStartNs = System.nanoTime();
+            bCommandSent = mCommandQueue.submit(ReceiverCommandQueue.CMD_TUNE, new Runnable() {
+                public void run() {
+                    RadioTuner receiver = mReceiver;
+                    if (receiver != null) {
+                        receiver.setStation(frequency);
+                    }
+                }
+            });
             updateNotification();
         }
         return bCommandSent;
@@ -1039,9 +1520,11 @@ public class FMRadioService extends Service {
         // Verify we don't have a null handle to FmReceiver
         if(mReceiver != null) {
             /* We have to grab the current freq from FmSharedPreferences rather than mReceiver
-             * since any changes to freq get saved to FmSharedPreferences and NOT mReceiver
+             * since any changes to freq get saved to FmSharedPreferences and NOT mReceiver.
+             * While a held button is still being coalesced, step from the pending target.
              */
-            int intCurrFreq = FmSharedPreferences.getTunedFrequency();
+            int intCurrFreq = mTuneCoalescer.isPending() ? mTuneCoalescer.getPendingFrequency()
+                    : FmSharedPreferences.getTunedFrequency();
             Log.d(LOGTAG, "Current Tuned frequency: "+intCurrFreq);
 
             if(up) {
@@ -1055,8 +1538,9 @@ public class FMRadioService extends Service {
             // Update the new frequency in FmSharedPreferences
             FmSharedPreferences.setTunedFrequency(intNewFreq);
 
-            // Call tune() to process the changes in FmReceiver
-            bCommandSent = tune(intNewFreq);
+            // Tune once the button presses settle
+            mTuneCoalescer.request(intNewFreq);
+            bCommandSent = true;
         }
 
         return bCommandSent;
@@ -1075,16 +1559,23 @@ public class FMRadioService extends Service {
     public boolean seek(boolean up) {
         boolean bCommandSent = false;
         if (mReceiver != null) {
+            final int direction;
             if (up == true) {
                 Log.d(LOGTAG, "seek:  Up");
-                mReceiver.searchStations(FmReceiver.FM_RX_SRCH_MODE_SEEK,
-                        FmReceiver.FM_RX_DWELL_PERIOD_1S, FmReceiver.FM_RX_SEARCHDIR_UP);
+                direction = FmReceiver.FM_RX_SEARCHDIR_UP;
             } else {
                 Log.d(LOGTAG, "seek:  Down");
-                mReceiver.searchStations(FmReceiver.FM_RX_SRCH_MODE_SEEK,
-                        FmReceiver.FM_RX_DWELL_PERIOD_1S, FmReceiver.FM_RX_SEARCHDIR_DOWN);
+                direction = FmReceiver.FM_RX_SEARCHDIR_DOWN;
             }
-            bCommandSent = true;
+            bCommandSent = mCommandQueue.submit(ReceiverCommandQueue.CMD_SEEK, new Runnable() {
+                public void run() {
+                    RadioTuner receiver = mReceiver;
+                    if (receiver != null) {
+                        receiver.searchStations(FmReceiver.FM_RX_SRCH_MODE_SEEK,
+                                FmReceiver.FM_RX_DWELL_PERIOD_1S, direction);
+                    }
+                }
+            });
         }
         return bCommandSent;
     }
@@ -1101,33 +1592,34 @@ public class FMRadioService extends Service {
      * FmRxEvRadioTuneStatus will also be called when tuned to a station at the
      * end of the Search or if the seach was cancelled.
      */
-    public boolean scan(int pty) {
+    public boolean scan(final int pty) {
         boolean bCommandSent = false;
         if (mReceiver != null) {
             Log.d(LOGTAG, "scan:  PTY: " + pty);
+            final boolean bPtyScan;
             if (FmSharedPreferences.isRBDSStd()) {
                 /* RBDS : Validate PTY value?? */
-                if (((pty > 0) && (pty <= 23)) || ((pty >= 29) && (pty <= 31))) {
-                    bCommandSent = mReceiver
-                            .searchStations(FmReceiver.FM_RX_SRCHRDS_MODE_SCAN_PTY,
-                                    FmReceiver.FM_RX_DWELL_PERIOD_7S,
-                                    FmReceiver.FM_RX_SEARCHDIR_UP, pty, 0);
-                } else {
-                    bCommandSent = mReceiver.searchStations(FmReceiver.FM_RX_SRCH_MODE_SCAN,
-                            FmReceiver.FM_RX_DWELL_PERIOD_7S, FmReceiver.FM_RX_SEARCHDIR_UP);
-                }
+                bPtyScan = ((pty > 0) && (pty <= 23)) || ((pty >= 29) && (pty <= 31));
             } else {
                 /* RDS : Validate PTY value?? */
-                if ((pty > 0) && (pty <= 31)) {
-                    bCommandSent = mReceiver
-                            .searchStations(FmReceiver.FM_RX_SRCHRDS_MODE_SCAN_PTY,
-                                    FmReceiver.FM_RX_DWELL_PERIOD_7S,
-                                    FmReceiver.FM_RX_SEARCHDIR_UP, pty, 0);
-                } else {
-                    bCommandSent = mReceiver.searchStations(FmReceiver.FM_RX_SRCH_MODE_SCAN,
-                            FmReceiver.FM_RX_DWELL_PERIOD_7S, FmReceiver.FM_RX_SEARCHDIR_UP);
-                }
+                bPtyScan = (pty > 0) && (pty <= 31);
             }
+            bCommandSent = mCommandQueue.submit(ReceiverCommandQueue.CMD_SCAN, new Runnable() {
+                public void run() {
+                    RadioTuner receiver = mReceiver;
+                    if (receiver == null) {
+                        return;
+                    }
+                    if (bPtyScan) {
+                        receiver.searchStations(FmReceiver.FM_RX_SRCHRDS_MODE_SCAN_PTY,
+                                FmReceiver.FM_RX_DWELL_PERIOD_7S,
+                                FmReceiver.FM_RX_SEARCHDIR_UP, pty, 0);
+                    } else {
+                        receiver.searchStations(FmReceiver.FM_RX_SRCH_MODE_SCAN,
+                                FmReceiver.FM_RX_DWELL_PERIOD_7S, FmReceiver.FM_RX_SEARCHDIR_UP);
+                    }
+                }
+            });
         }
         return bCommandSent;
     }
@@ -1141,12 +1633,22 @@ public class FMRadioService extends Service {
      * Search is complete 2. Callback FmRxEvRadioTuneStatus will also be called
      * when tuned to the previously tuned station.
      */
-    public boolean searchStrongStationList(int numStations) {
+    public boolean searchStrongStationList(final int numStations) {
         boolean bCommandSent = false;
         if (mReceiver != null) {
             Log.d(LOGTAG, "searchStrongStationList:  numStations: " + numStations);
-            bCommandSent = mReceiver.searchStationList(FmReceiver.FM_RX_SRCHLIST_MODE_STRONG,
-                    FmReceiver.FM_RX_SEARCHDIR_UP, numStations, 0);
+            mSearchListStartNs = System.nanoTime();
+            bCommandSent = mCommandQueue.submit(ReceiverCommandQueue.CMD_SEARCH_LIST,
+                    new Runnable() {
+                        public void run() {
+                            RadioTuner receiver = mReceiver;
+                            if (receiver != null) {
+                                receiver.searchStationList(
+                                        FmReceiver.FM_RX_SRCHLIST_MODE_STRONG,
+                                        FmReceiver.FM_RX_SEARCHDIR_UP, numStations, 0);
+                            }
+                        }
+                    });
         }
         return bCommandSent;
     }
@@ -1161,12 +1663,20 @@ public class FMRadioService extends Service {
      * when tuned to a station at the end of the Search or if the seach was
      * cancelled.
      */
-    public boolean seekPI(int piCode) {
+    public boolean seekPI(final int piCode) {
         boolean bCommandSent = false;
         if (mReceiver != null) {
             Log.d(LOGTAG, "seekPI:  piCode: " + piCode);
-            bCommandSent = mReceiver.searchStations(FmReceiver.FM_RX_SRCHRDS_MODE_SEEK_PI,
-                    FmReceiver.FM_RX_DWELL_PERIOD_1S, FmReceiver.FM_RX_SEARCHDIR_UP, 0, piCode);
+            bCommandSent = mCommandQueue.submit(ReceiverCommandQueue.CMD_SEEK_PI, new Runnable() {
+                public void run() {
+                    RadioTuner receiver = mReceiver;
+                    if (receiver != null) {
+                        receiver.searchStations(FmReceiver.FM_RX_SRCHRDS_MODE_SEEK_PI,
+                                FmReceiver.FM_RX_DWELL_PERIOD_1S, FmReceiver.FM_RX_SEARCHDIR_UP,
+                                0, piCode);
+                    }
+                }
+            });
         }
         return bCommandSent;
     }
@@ -1183,7 +1693,16 @@ public class FMRadioService extends Service {
         boolean bCommandSent = false;
         if (mReceiver != null) {
             Log.d(LOGTAG, "cancelSearch");
-            bCommandSent = mReceiver.cancelSearch();
+            cancelBandScan();
+            bCommandSent = mCommandQueue.submit(ReceiverCommandQueue.CMD_CANCEL_SEARCH,
+                    new Runnable() {
+                        public void run() {
+                            RadioTuner receiver = mReceiver;
+                            if (receiver != null) {
+                                receiver.cancelSearch();
+                            }
+                        }
+                    });
         }
         return bCommandSent;
     }
@@ -1194,16 +1713,13 @@ public class FMRadioService extends Service {
      * should typically called when Callback FmRxEvRdsPsInfo is invoked. 2.
      * Since PS contains multiple fields, this Service reads all the fields and
      * "caches" the values and provides this helper routine for the Activity to
-     * get only the information it needs. 3. The "cached" data fields are always
-     * "cleared" when the tune status changes.
+     * get only the information it needs. 3. The "cached" data fields switch to
+     * the new station's when the tune status changes.
      */
     public String getProgramService() {
-        String str = "";
-        if (mFMRxRDSData != null) {
-            str = mFMRxRDSData.getPrgmServices();
-            if (str == null) {
-                str = "";
-            }
+        String str = mRdsState.getProgramService();
+        if (str == null) {
+            str = "";
         }
         Log.d(LOGTAG, "Program Service: [" + str + "]");
         return str;
@@ -1215,16 +1731,13 @@ public class FMRadioService extends Service {
      * should typically called when Callback FmRxEvRdsRtInfo is invoked. 2.
      * Since RT contains multiple fields, this Service reads all the fields and
      * "caches" the values and provides this helper routine for the Activity to
-     * get only the information it needs. 3. The "cached" data fields are always
-     * "cleared" when the tune status changes.
+     * get only the information it needs. 3. The "cached" data fields switch to
+     * the new station's when the tune status changes.
      */
     public String getRadioText() {
-        String str = "";
-        if (mFMRxRDSData != null) {
-            str = mFMRxRDSData.getRadioText();
-            if (str == null) {
-                str = "";
-            }
+        String str = mRdsState.getRadioText();
+        if (str == null) {
+            str = "";
         }
         Log.d(LOGTAG, "Radio Text: [" + str + "]");
         return str;
@@ -1237,13 +1750,14 @@ public class FMRadioService extends Service {
      * FmRxEvRdsPsInfo is invoked. 2. Since RT/PS contains multiple fields, this
      * Service reads all the fields and "caches" the values and provides this
      * helper routine for the Activity to get only the information it needs. 3.
-     * The "cached" data fields are always "cleared" when the tune status
-     * changes.
+     * The "cached" data fields switch to the new station's when the tune
+     * status changes.
      */
     public int getProgramType() {
         int pty = -1;
-        if (mFMRxRDSData != null) {
-            pty = mFMRxRDSData.getPrgmType();
+        RdsState rdsState = mRdsState;
+        if (rdsState.hasRds()) {
+            pty = rdsState.getProgramType();
         }
         Log.d(LOGTAG, "PTY: [" + pty + "]");
         return pty;
@@ -1256,18 +1770,83 @@ public class FMRadioService extends Service {
      * FmRxEvRdsPsInfo is invoked. 2. Since RT/PS contains multiple fields, this
      * Service reads all the fields and "caches" the values and provides this
      * helper routine for the Activity to get only the information it needs. 3.
-     * The "cached" data fields are always "cleared" when the tune status
-     * changes.
+     * The "cached" data fields switch to the new station's when the tune
+     * status changes.
      */
     public int getProgramID() {
         int pi = -1;
-        if (mFMRxRDSData != null) {
-            pi = mFMRxRDSData.getPrgmId();
+        RdsState rdsState = mRdsState;
+        if (rdsState.hasRds()) {
+            pi = rdsState.getProgramId();
         }
         Log.d(LOGTAG, "PI: [" + pi + "]");
         return pi;
     }
 
+    /*
+     * Scan the band channel by channel, building the station map of the
+     * current region. boolean bFullScan: true - visit every channel. false -
+     * only re-verify the known stations and the channels due for a check.
+     * @return true if the scan was started. Note: onChannelScanned is called
+     * for every channel as it is measured, then onBandScanComplete, and the
+     * receiver returns to the tuned station.
+     */
+    public boolean startBandScan(boolean bFullScan) {
+        RadioTuner receiver = mReceiver;
+        BandScanner scanner = mBandScanner;
+        if ((receiver == null) || ((scanner != null) && scanner.isScanning())) {
+            return false;
+        }
+        Log.d(LOGTAG, "startBandScan: full: " + bFullScan);
+        StationMap map = StationMap.load(getFilesDir(), FmSharedPreferences.getCountry(),
+                FmSharedPreferences.getLowerLimit(), FmSharedPreferences.getUpperLimit(),
+                FmSharedPreferences.getBandStepSize());
+        scanner = new BandScanner(mCommandQueue.getLooper(), map, mBandScanListener);
+        mBandScanner = scanner;
+
+        /* Do not play every channel on the way, nor switch to AFs */
+        mBandScanMuted = !isMuted() && mute();
+        mAfEngine.setSuspended(true);
+        mSignalSampler.setSuspended(true);
+        mTuneCoalescer.cancel();
+        mCommandQueue.clear();
+        scanner.start(receiver, bFullScan, FmSharedPreferences.getTunedFrequency());
+        return true;
+    }
+
+    /*
+     * Stop a band scan, the channels measured so far are kept.
+     * @return true if a scan was running.
+     */
+    public boolean cancelBandScan() {
+        BandScanner scanner = mBandScanner;
+        if ((scanner == null) || !scanner.isScanning()) {
+            return false;
+        }
+        Log.d(LOGTAG, "cancelBandScan");
+        scanner.cancel();
+        return true;
+    }
+
+    /*
+     * Retrieves the strongest stations of the last band scan, or of the saved
+     * station map if there was no scan since the service started.
+     * int maxStations: maximum number of stations to return.
+     * @return station frequencies in band order.
+     */
+    public int[] getBandScanStations(int maxStations) {
+        BandScanner scanner = mBandScanner;
+        StationMap map;
+        if (scanner != null) {
+            map = scanner.getStationMap();
+        } else {
+            map = StationMap.load(getFilesDir(), FmSharedPreferences.getCountry(),
+                    FmSharedPreferences.getLowerLimit(), FmSharedPreferences.getUpperLimit(),
+                    FmSharedPreferences.getBandStepSize());
+        }
+        return map.getStrongestStations(maxStations);
+    }
+
     /*
      * Retrieves the station list from the SearchStationlist.
      * @return Array of integers that represents the station frequencies. Note:
@@ -1295,15 +1874,217 @@ public class FMRadioService extends Service {
         boolean bCommandSent = false;
         if (mReceiver != null) {
             Log.d(LOGTAG, "setLowPowerMode: " + bLowPower);
-            if (bLowPower) {
-                bCommandSent = mReceiver.setPowerMode(FmReceiver.FM_RX_LOW_POWER_MODE);
-            } else {
-                bCommandSent = mReceiver.setPowerMode(FmReceiver.FM_RX_NORMAL_POWER_MODE);
-            }
+            mLowPowerMode = bLowPower;
+            /* Low power mode is for the screen off, nobody sees the signal level */
+            mSignalSampler.setIdle(bLowPower);
+            final int powerMode = bLowPower ? FmReceiver.FM_RX_LOW_POWER_MODE
+                    : FmReceiver.FM_RX_NORMAL_POWER_MODE;
+            bCommandSent = mCommandQueue.submit(ReceiverCommandQueue.CMD_POWER_MODE,
+                    new Runnable() {
+                        public void run() {
+                            RadioTuner receiver = mReceiver;
+                            if (receiver != null) {
+                                receiver.setPowerMode(powerMode);
+                            }
+                        }
+                    });
         }
         return bCommandSent;
     }
 
+    /*
+     * Record the FM audio into a WAV file in RECORDINGS_DIR, for at most the
+     * record duration set in the preferences. The file is opened and written
+     * on the recorder's own threads.
+     * @return true if the recording was started.
+     */
+    public boolean startRecording() {
+        return startRecording(FmSharedPreferences.getRecordDurationMs());
+    }
+
+    /* "maxDurationMs" 0 records until stopRecording() */
+    private boolean startRecording(long maxDurationMs) {
+        if (!isFmOn()) {
+            return false;
+        }
+        if (!mAudioCapture.hasSource()) {
+            Log.e(LOGTAG, "startRecording: no FM capture source, set " + RECORD_SOURCE_PROPERTY);
+            return false;
+        }
+        if (!Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
+            Log.e(LOGTAG, "startRecording: no external storage");
+            return false;
+        }
+        String name = "FM-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "-"
+                + FmSharedPreferences.getTunedFrequency() + ".wav";
+        File file = new File(new File(Environment.getExternalStorageDirectory(),
+                RECORDINGS_DIR), name);
+        return mRecorder.start(file, maxDurationMs);
+    }
+
+    /*
+     * Stop recording, the file is completed in the background.
+     * @return true if a recording was running.
+     */
+    public boolean stopRecording() {
+        boolean bStatus = mRecorder.isRecording();
+        mRecorder.stop();
+        return bStatus;
+    }
+
+    public boolean isRecording() {
+        return mRecorder.isRecording();
+    }
+
+    /*
+     * Pause the radio, the audio goes on into the time shift buffer.
+     * @return false if FM is off, time shift is disabled or the buffer
+     * cannot be mapped.
+     */
+    public boolean pauseLive() {
+        if (!isFmOn() || (mTimeShiftPlayer == null)) {
+            return false;
+        }
+        synchronized (mTimeShiftBuffer) {
+            if (!startTimeShiftCapture()) {
+                return false;
+            }
+            mTimeShiftPlayer.pause();
+        }
+        return true;
+    }
+
+    /*
+     * Play on from where pauseLive() stopped, catching up with live.
+     * @return false if FM is off or time shift is disabled.
+     */
+    public boolean resumeLive() {
+        if (!isFmOn() || (mTimeShiftPlayer == null)) {
+            return false;
+        }
+        mTimeShiftPlayer.resume();
+        return true;
+    }
+
+    /*
+     * Play from "delayMs" behind live, as far back as the buffer goes
+     * (getTimeShiftBufferedMs()). 0 goes back to live.
+     * @return false if FM is off or time shift is disabled.
+     */
+    public boolean seekTimeShift(int delayMs) {
+        if (!isFmOn() || (mTimeShiftPlayer == null)) {
+            return false;
+        }
+        synchronized (mTimeShiftBuffer) {
+            if ((delayMs > 0) && !startTimeShiftCapture()) {
+                return false;
+            }
+            mTimeShiftPlayer.seek(delayMs);
+        }
+        return true;
+    }
+
+    /*
+     * The capture only runs while behind live: pause freezes the read
+     * position at the write position, nothing before it is needed. Called
+     * with mTimeShiftBuffer locked.
+     */
+    private boolean startTimeShiftCapture() {
+        if (!mTimeShiftBuffer.open()) {
+            return false;
+        }
+        mAudioCapture.addSink(mTimeShiftBuffer);
+        return true;
+    }
+
+    /* Called with mTimeShiftBuffer locked */
+    private void stopTimeShiftCapture() {
+        mAudioCapture.removeSink(mTimeShiftBuffer);
+        mTimeShiftBuffer.close();
+    }
+
+    /*
+     * Skip the shifted audio and play live.
+     * @return false if time shift is disabled.
+     */
+    public boolean jumpToLive() {
+        if (mTimeShiftPlayer == null) {
+            return false;
+        }
+        mTimeShiftPlayer.jumpToLive();
+        return true;
+    }
+
+    /*
+     * Schedule a tune to "frequency", or to preset "presetStation" of list
+     * "presetList" if it still exists then (-1 for none), at "startTime"
+     * (System.currentTimeMillis()) for "durationMs". With "bRecord" the
+     * station is recorded meanwhile. FM is turned on for the event if it is
+     * off, and off again after it.
+     * @return the event id, -1 if it is over or overlaps another event.
+     */
+    public int scheduleEvent(int frequency, long startTime, int durationMs, int presetList,
+            int presetStation, boolean bRecord) {
+        return mScheduler.add(frequency, startTime, durationMs, presetList, presetStation,
+                bRecord);
+    }
+
+    public boolean cancelScheduledEvent(int id) {
+        return mScheduler.remove(id);
+    }
+
+    /*
+     * Retrieves the scheduled events.
+     * @return FmScheduler.EVENT_FIELDS values per event, indexed by the
+     * FmScheduler.FIELD_ constants.
+     */
+    public long[] getScheduledEvents() {
+        return mScheduler.getEvents();
+    }
+
+    /*
+     * Turn FM off in "delayMs", fading the volume out over the last "fadeMs"
+     * (0 for no fade). Replaces a timer already set.
+     * @return false if FM is off.
+     */
+    public boolean startSleepTimer(int delayMs, int fadeMs) {
+        if (!isFmOn()) {
+            return false;
+        }
+        mSleepTimer.start(delayMs, fadeMs);
+        return true;
+    }
+
+    public void cancelSleepTimer() {
+        mSleepTimer.cancel();
+    }
+
+    /* Time left before the sleep timer turns FM off, 0 if it is not set */
+    public int getSleepTimerRemainingMs() {
+        return (int) mSleepTimer.getRemainingMs();
+    }
+
+    /* How far behind live playback is, 0 when live */
+    public int getTimeShiftDelayMs() {
+        return (mTimeShiftPlayer != null) ? (int) mTimeShiftPlayer.getDelayMs() : 0;
+    }
+
+    /* How much audio the time shift buffer holds */
+    public int getTimeShiftBufferedMs() {
+        return (mTimeShiftPlayer != null) ? (int) mTimeShiftPlayer.getBufferedMs() : 0;
+    }
+
+    /*
+     * Retrieves the signal level statistics of the tuned station.
+     * int windowMs: how far back to look, at most SignalSampler.CAPACITY
+     * samples are kept.
+     * @return min, avg and max level, stereo percentage and the number of
+     * samples, indexed by the SignalSampler.STAT_ constants.
+     */
+    public int[] getSignalStats(int windowMs) {
+        return mSignalSampler.getStats(windowMs);
+    }
+
     /*
      * Get the FM Power Mode on the FM hardware SoC.
      * @return the device power mode.
@@ -1324,13 +2105,27 @@ public class FMRadioService extends Service {
      * alternate frequency. false: Do not switch to alternate frequency.
      * @return true if set Auto AF mode api was invoked successfully, false if
      * the api failed. Note: Callback FmRxEvRadioTuneStatus will be called when
-     * tune is complete to a different frequency.
+     * tune is complete to a different frequency. The switching is done by
+     * mAfEngine, the receiver's own AF jump stays off so the two do not fight.
      */
-    public boolean enableAutoAF(boolean bEnable) {
+    public boolean enableAutoAF(final boolean bEnable) {
         boolean bCommandSent = false;
         if (mReceiver != null) {
             Log.d(LOGTAG, "enableAutoAF: " + bEnable);
-            bCommandSent = mReceiver.enableAFjump(bEnable);
+            mAutoAF = bEnable;
+            bCommandSent = mCommandQueue.submit(ReceiverCommandQueue.CMD_AUTO_AF, new Runnable() {
+                public void run() {
+                    RadioTuner receiver = mReceiver;
+                    if (receiver != null) {
+                        receiver.enableAFjump(false);
+                        if (bEnable) {
+                            mAfEngine.start(receiver, FmSharedPreferences.getTunedFrequency());
+                        } else {
+                            mAfEngine.stop();
+                        }
+                    }
+                }
+            });
         }
         return bCommandSent;
     }
@@ -1379,6 +2174,189 @@ public class FMRadioService extends Service {
         return (mHeadsetPlugged);
     }
 
+    /* Band scan results, on the receiver command thread */
+    private final BandScanner.Listener mBandScanListener = new BandScanner.Listener() {
+        public void onChannelScanned(int frequency, int rssi, boolean stereo, int pi, String ps) {
+            mCallbackRegistry.notifyChannelScanned(frequency, rssi, stereo, pi, ps);
+            mAfEngine.onSignal(frequency, rssi);
+        }
+
+        public void onScanComplete(boolean cancelled) {
+            mAfEngine.setSuspended(false);
+            mSignalSampler.setSuspended(false);
+            if (mBandScanMuted) {
+                mBandScanMuted = false;
+                unMute();
+            }
+            mCallbackRegistry.notifyBandScanComplete(cancelled);
+        }
+    };
+
+    /* Converged PS and RT from mRdsDecoder, merged into mRdsState */
+    private final RdsDecoder.Listener mRdsListener = new RdsDecoder.Listener() {
+        public void onProgramService(String programService, int pty, int pi) {
+            long start = System.nanoTime();
+            BandScanner scanner = mBandScanner;
+            if ((scanner != null) && scanner.isScanning()) {
+                scanner.onProgramService(new RdsInfo(programService, null, pty, pi));
+                return;
+            }
+            Log.d(LOGTAG, "PS: [" + programService + "] PI: [" + pi + "] PTY: [" + pty + "]");
+            setRdsState(mRdsState.withProgramService(programService, pty, pi));
+            mAfEngine.onProgramId(pi);
+            mBatcher.putProgramService(programService, pty, pi);
+            recordPowerOnRds();
+            mPsLatency.recordSince(start);
+        }
+
+        public void onRadioText(String radioText, int pty, int pi) {
+            long start = System.nanoTime();
+            BandScanner scanner = mBandScanner;
+            if ((scanner != null) && scanner.isScanning()) {
+                return;
+            }
+            Log.d(LOGTAG, "RT: [" + radioText + "] PI: [" + pi + "] PTY: [" + pty + "]");
+            setRdsState(mRdsState.withRadioText(radioText, pty, pi));
+            mAfEngine.onProgramId(pi);
+            mBatcher.putRadioText(radioText, pty, pi);
+            recordPowerOnRds();
+            mRtLatency.recordSince(start);
+        }
+    };
+
+    /* AF switch decisions, on the receiver command thread */
+    private final AfEngine.Listener mAfListener = new AfEngine.Listener() {
+        public void onAfDecision(int fromFrequency, int toFrequency, boolean switched,
+                long decisionNs) {
+            mCallbackRegistry.notifyAlternateFrequencyChanged(fromFrequency, toFrequency,
+                    switched, (int) (decisionNs / 1000000));
+        }
+    };
+
+    /* End of a recording, on the recorder's writer thread */
+    private final FmRecorder.Listener mRecordListener = new FmRecorder.Listener() {
+        public void onRecordingStopped(File file, long durationMs, int reason) {
+            Log.d(LOGTAG, "Recording stopped: " + file + " " + durationMs + " ms, reason: "
+                    + reason);
+        }
+    };
+
+    /*
+     * The hardware path plays while live; behind live it is turned off but
+     * the receiver stays unmuted so the capture keeps filling the buffer.
+     * Back at live the capture stops, unless a pause or seek came since.
+     */
+    private final TimeShiftPlayer.Listener mTimeShiftListener = new TimeShiftPlayer.Listener() {
+        public void onLiveChanged(final boolean live) {
+            mHandler.post(new Runnable() {
+                public void run() {
+                    if (live) {
+                        synchronized (mTimeShiftBuffer) {
+                            if (mTimeShiftPlayer.getState() == TimeShiftPlayer.STATE_LIVE) {
+                                stopTimeShiftCapture();
+                            }
+                        }
+                    }
+                    if (!isFmOn()) {
+                        return;
+                    }
+                    if (live) {
+                        startFM();
+                    } else {
+                        stopFM();
+                    }
+                }
+            });
+        }
+    };
+
+    /*
+     * Scheduled events, on the main thread. The wake lock is held from the
+     * warm up to the end of the session.
+     */
+    private final FmScheduler.Listener mScheduleListener = new FmScheduler.Listener() {
+        public void onPrewarm(int frequency) {
+            mWakeLock.acquire();
+            if (!isFmOn()) {
+                Log.d(LOGTAG, "Schedule: turning FM on for " + frequency);
+                mScheduledFmOn = fmOn();
+                if (mScheduledFmOn) {
+                    /* Settled on the station by the start */
+                    scheduledTune(frequency, true);
+                }
+            }
+        }
+
+        public void onEventStart(FmScheduler.Event event, int frequency) {
+            boolean bTurnedOn = false;
+            if (!isFmOn()) {
+                /* Turned off since the warm up */
+                mScheduledFmOn = bTurnedOn = fmOn();
+            }
+            if (isFmOn()) {
+                scheduledTune(frequency, bTurnedOn);
+                if (event.isRecord() && !mRecorder.isRecording()) {
+                    startRecording(0);
+                }
+            }
+        }
+
+        public void onEventEnd(FmScheduler.Event event, boolean chained) {
+            if (event.isRecord() && !chained) {
+                stopRecording();
+            }
+        }
+
+        public void onSessionEnd() {
+            if (mScheduledFmOn && isFmOn()) {
+                Log.d(LOGTAG, "Schedule: turning FM off");
+                fmOff();
+                mCallbackRegistry.notifyDisabled();
+            }
+            mScheduledFmOn = false;
+            mWakeLock.release();
+        }
+    };
+
+    /* "bForce" after fmOn(), which leaves the tuning to the caller */
+    private void scheduledTune(int frequency, boolean bForce) {
+        if (bForce || (FmSharedPreferences.getTunedFrequency() != frequency)) {
+            FmSharedPreferences.setTunedFrequency(frequency);
+            tune(frequency);
+        }
+    }
+
+    /* The sleep timer expired, on the main thread */
+    private final SleepTimer.Listener mSleepListener = new SleepTimer.Listener() {
+        public void onSleep() {
+            if (isFmOn()) {
+                Log.d(LOGTAG, "Sleep: turning FM off");
+                fmOff();
+                mCallbackRegistry.notifyDisabled();
+            }
+        }
+    };
+
+    /* Signal level bucket changes, on the receiver command thread */
+    private final SignalSampler.Listener mSignalListener = new SignalSampler.Listener() {
+        public void onSignalLevelChanged(int level, int rssi) {
+            Log.d(LOGTAG, "Signal level: " + level + " (" + rssi + ")");
+            mBatcher.putSignalLevel(level);
+        }
+    };
+
+    /* Hands the coalesced batches to the registered clients */
+    private final CallbackBatcher.Listener mBatchListener = new CallbackBatcher.Listener() {
+        public void onStateBatch(Bundle state) {
+            mCallbackRegistry.notifyStateBatch(state);
+            long start = mTuneStartNs;
+            if ((start != 0) && state.containsKey(CallbackBatcher.KEY_FREQUENCY)) {
+                mTuneStartNs = 0;
+                mTuneLatency.recordSince(start);
+            }
+        }
+    };
+
     /* Receiver callbacks back from the FM Stack */
     FmRxEvCallbacksAdaptor fmCallbacks = new FmRxEvCallbacksAdaptor() {
         public void FmRxEvEnableReceiver() {
@@ -1415,17 +2393,34 @@ public class FMRadioService extends Service {
 
         public void FmRxEvRadioTuneStatus(int frequency) {
             Log.d(LOGTAG, "FmRxEvRadioTuneStatus: Tuned Frequency: " + frequency);
-            try {
-                FmSharedPreferences.setTunedFrequency(frequency);
-                // Log.d(LOGTAG, "Call mCallbacks.onTuneStatusChanged");
-                /* Since the Tuned Status changed, clear out the RDSData cached */
-                mFMRxRDSData = null;
-                if (mCallbacks != null) {
-                    mCallbacks.onTuneStatusChanged();
-                }
-            } catch (RemoteException e) {
-                e.printStackTrace();
+            mRdsDecoder.reset();
+            BandScanner scanner = mBandScanner;
+            if ((scanner != null) && scanner.isScanning()) {
+                /* Channels visited by the scan are not the tuned station */
+                scanner.onTuned(frequency);
+                return;
             }
+            FmSharedPreferences.setTunedFrequency(frequency);
+            /*
+             * Since the Tuned Status changed, switch to the RDS state of the
+             * new station, which is kept if it was tuned recently. An AF of
+             * the tuned station carries the same programme.
+             */
+            RdsState rdsState = mRdsState;
+            RdsState recent;
+            if (rdsState.hasAlternative(frequency)) {
+                recent = rdsState.withFrequency(frequency);
+                mRdsState = recent;
+            } else {
+                recent = restoreRdsState(frequency);
+            }
+            mBatcher.putFrequency(frequency);
+            if (recent != null) {
+                putRds(recent);
+            }
+            mAfEngine.onTuned(frequency);
+            mSignalSampler.onTuned();
+            recordPowerOnAudio();
         }
 
         public void FmRxEvStationParameters() {
@@ -1434,24 +2429,19 @@ public class FMRadioService extends Service {
 
         public void FmRxEvRdsLockStatus(boolean bRDSSupported) {
             Log.d(LOGTAG, "FmRxEvRdsLockStatus: " + bRDSSupported);
-            try {
-                if (mCallbacks != null) {
-                    mCallbacks.onStationRDSSupported(bRDSSupported);
-                }
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
+            mBatcher.putRdsSupported(bRDSSupported);
         }
 
         public void FmRxEvStereoStatus(boolean stereo) {
             Log.d(LOGTAG, "FmRxEvStereoStatus: " + stereo);
-            try {
-                if (mCallbacks != null) {
-                    mCallbacks.onAudioUpdate(stereo);
-                }
-            } catch (RemoteException e) {
-                e.printStackTrace();
+            BandScanner scanner = mBandScanner;
+            if ((scanner != null) && scanner.isScanning()) {
+                scanner.onStereo(stereo);
+                return;
             }
+            setRdsState(mRdsState.withStereo(stereo));
+            mSignalSampler.onStereo(stereo);
+            mBatcher.putStereo(stereo);
         }
 
         public void FmRxEvServiceAvailable() {
@@ -1476,17 +2466,15 @@ public class FMRadioService extends Service {
 
         public void FmRxEvSearchComplete(int frequency) {
             Log.d(LOGTAG, "FmRxEvSearchComplete: Tuned Frequency: " + frequency);
-            try {
-                FmSharedPreferences.setTunedFrequency(frequency);
-                // Log.d(LOGTAG, "Call mCallbacks.onSearchComplete");
-                /* Since the Tuned Status changed, clear out the RDSData cached */
-                mFMRxRDSData = null;
-                if (mCallbacks != null) {
-                    mCallbacks.onSearchComplete();
-                }
-            } catch (RemoteException e) {
-                e.printStackTrace();
+            mRdsDecoder.reset();
+            FmSharedPreferences.setTunedFrequency(frequency);
+            /* Since the Tuned Status changed, switch to the new station's RDS state */
+            RdsState recent = restoreRdsState(frequency);
+            if (recent != null) {
+                putRds(recent);
             }
+            mBatcher.flush();
+            mCallbackRegistry.notifySearchComplete();
         }
 
         public void FmRxEvSearchRdsComplete() {
@@ -1495,12 +2483,12 @@ public class FMRadioService extends Service {
 
         public void FmRxEvSearchListComplete() {
             Log.d(LOGTAG, "FmRxEvSearchListComplete");
-            try {
-                if (mCallbacks != null) {
-                    mCallbacks.onSearchListComplete();
-                }
-            } catch (RemoteException e) {
-                e.printStackTrace();
+            mBatcher.flush();
+            mCallbackRegistry.notifySearchListComplete();
+            long start = mSearchListStartNs;
+            if (start != 0) {
+                mSearchListStartNs = 0;
+                mSearchListLatency.recordSince(start);
             }
         }
 
@@ -1510,50 +2498,82 @@ public class FMRadioService extends Service {
 
         public void FmRxEvRdsGroupData() {
             Log.d(LOGTAG, "FmRxEvRdsGroupData");
+            RadioTuner receiver = mReceiver;
+            if (mRawRdsEnabled && (receiver != null)) {
+                byte[] blocks = receiver.getRawRds(RAW_RDS_READ_BLOCKS);
+                if (blocks != null) {
+                    mRdsDecoder.decode(blocks, blocks.length);
+                }
+            }
         }
 
         public void FmRxEvRdsPsInfo() {
             Log.d(LOGTAG, "FmRxEvRdsPsInfo: ");
-            try {
-                if (mReceiver != null) {
-                    mFMRxRDSData = mReceiver.getPSInfo();
-                    if (mFMRxRDSData != null) {
-                        Log.d(LOGTAG, "PI: [" + mFMRxRDSData.getPrgmId() + "]");
-                        Log.d(LOGTAG, "PTY: [" + mFMRxRDSData.getPrgmType() + "]");
-                        Log.d(LOGTAG, "PS: [" + mFMRxRDSData.getPrgmServices() + "]");
-                    }
-                    if (mCallbacks != null) {
-                        mCallbacks.onProgramServiceChanged();
-                    }
+            if (mRawRdsEnabled) {
+                /* mRdsDecoder reports the PS */
+                return;
+            }
+            long start = System.nanoTime();
+            if (mReceiver != null) {
+                RdsInfo rdsData = mReceiver.getPSInfo();
+                BandScanner scanner = mBandScanner;
+                if ((scanner != null) && scanner.isScanning()) {
+                    scanner.onProgramService(rdsData);
+                    return;
+                }
+                if (rdsData != null) {
+                    Log.d(LOGTAG, "PI: [" + rdsData.getProgramId() + "]");
+                    Log.d(LOGTAG, "PTY: [" + rdsData.getProgramType() + "]");
+                    Log.d(LOGTAG, "PS: [" + rdsData.getProgramService() + "]");
+                    setRdsState(mRdsState.withProgramService(rdsData.getProgramService(),
+                            rdsData.getProgramType(), rdsData.getProgramId()));
+                    mAfEngine.onProgramId(rdsData.getProgramId());
+                    mBatcher.putProgramService(rdsData.getProgramService(),
+                            rdsData.getProgramType(), rdsData.getProgramId());
+                    recordPowerOnRds();
                 }
-            } catch (RemoteException e) {
-                e.printStackTrace();
             }
+            mPsLatency.recordSince(start);
         }
 
         public void FmRxEvRdsRtInfo() {
             Log.d(LOGTAG, "FmRxEvRdsRtInfo");
-            try {
-                // Log.d(LOGTAG, "Call mCallbacks.onRadioTextChanged");
-                if (mReceiver != null) {
-                    mFMRxRDSData = mReceiver.getRTInfo();
-                    if (mFMRxRDSData != null) {
-                        Log.d(LOGTAG, "PI: [" + mFMRxRDSData.getPrgmId() + "]");
-                        Log.d(LOGTAG, "PTY: [" + mFMRxRDSData.getPrgmType() + "]");
-                        Log.d(LOGTAG, "RT: [" + mFMRxRDSData.getRadioText() + "]");
-                    }
-                    if (mCallbacks != null) {
-                        mCallbacks.onRadioTextChanged();
-                    }
+            if (mRawRdsEnabled) {
+                /* mRdsDecoder reports the RT */
+                return;
+            }
+            long start = System.nanoTime();
+            if (mReceiver != null) {
+                RdsInfo rdsData = mReceiver.getRTInfo();
+                if (rdsData != null) {
+                    Log.d(LOGTAG, "PI: [" + rdsData.getProgramId() + "]");
+                    Log.d(LOGTAG, "PTY: [" + rdsData.getProgramType() + "]");
+                    Log.d(LOGTAG, "RT: [" + rdsData.getRadioText() + "]");
+                    setRdsState(mRdsState.withRadioText(rdsData.getRadioText(),
+                            rdsData.getProgramType(), rdsData.getProgramId()));
+                    mAfEngine.onProgramId(rdsData.getProgramId());
+                    mBatcher.putRadioText(rdsData.getRadioText(), rdsData.getProgramType(),
+                            rdsData.getProgramId());
+                    recordPowerOnRds();
                 }
-            } catch (RemoteException e) {
-                e.printStackTrace();
             }
-
+            mRtLatency.recordSince(start);
         }
 
         public void FmRxEvRdsAfInfo() {
             Log.d(LOGTAG, "FmRxEvRdsAfInfo");
+            RadioTuner receiver = mReceiver;
+            if (receiver == null) {
+                return;
+            }
+            int[] afList = receiver.getAFInfo();
+            if (afList != null) {
+                RdsState rdsState = mRdsState;
+                Log.d(LOGTAG, "AF: " + afList.length + " frequencies, PI: ["
+                        + rdsState.getProgramId() + "]");
+                setRdsState(rdsState.withAfList(afList, 0));
+                mAfEngine.onAfList(rdsState.getProgramId(), afList);
+            }
         }
 
         public void FmRxEvRdsPiMatchAvailable() {
@@ -0,0 +1,183 @@
+package com.android.fm.radio;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The one AudioRecord reading the FM audio, shared by everything that needs
+ * the PCM (recorder, time-shift buffer): the audio source can only be opened
+ * once. The capture thread runs while at least one Sink is added and hands
+ * every chunk to all of them, so a sink must never block.
+ *
+ * The thread only sees that the last sink is gone after its current read.
+ * A sink added before then keeps it running; one added after it gave up
+ * starts a new thread, which waits for the old one to release the
+ * AudioRecord before opening its own.
+ *
+ * PCM is SAMPLE_RATE Hz, CHANNELS channels, 16 bit little endian.
+ */
+public class FmAudioCapture {
+    private static final String LOGTAG = "FMService";
+
+    /* No FM capture source on this device */
+    public static final int NO_SOURCE = -1;
+
+    public static final int SAMPLE_RATE = 44100;
+
+    public static final int CHANNELS = 2;
+
+    public static final int BYTES_PER_FRAME = CHANNELS * 2;
+
+    /* About 90 ms of audio per read */
+    public static final int CHUNK_BYTES = 4096 * BYTES_PER_FRAME;
+
+    /** Receives the captured audio, on the capture thread */
+    public interface Sink {
+        void onPcm(byte[] data, int length);
+
+        /** The audio source failed, the sink was removed */
+        void onCaptureError();
+    }
+
+    private final int mAudioSource;
+
+    private final CopyOnWriteArrayList<Sink> mSinks = new CopyOnWriteArrayList<Sink>();
+
+    /* The capture thread, null when stopped; one that is still exiting is not it */
+    private Thread mThread;
+
+    /* The last capture thread that stopped, it may still hold the AudioRecord */
+    private Thread mExitingThread;
+
+    /* "audioSource" is a MediaRecorder.AudioSource, or NO_SOURCE */
+    public FmAudioCapture(int audioSource) {
+        mAudioSource = audioSource;
+    }
+
+    /** False without an FM capture source; any other source is not the FM audio */
+    public boolean hasSource() {
+        return mAudioSource != NO_SOURCE;
+    }
+
+    /** Start feeding "sink", starting the capture if it is the first one */
+    public synchronized void addSink(Sink sink) {
+        if (mSinks.addIfAbsent(sink) && (mThread == null)) {
+            final Thread previous = mExitingThread;
+            mThread = new Thread(new Runnable() {
+                public void run() {
+                    captureLoop(previous);
+                }
+            }, "FmAudioCapture");
+            mThread.start();
+        }
+    }
+
+    /** Stop feeding "sink", stopping the capture if it was the last one */
+    public void removeSink(Sink sink) {
+        mSinks.remove(sink);
+    }
+
+    public synchronized boolean isCapturing() {
+        return (mThread != null) && !mSinks.isEmpty();
+    }
+
+    /* False once the sinks are gone, the caller then no longer is the capture thread */
+    private synchronized boolean keepCapturing() {
+        if (mSinks.isEmpty()) {
+            stopped();
+            return false;
+        }
+        return true;
+    }
+
+    /* Called with the lock held */
+    private void stopped() {
+        mExitingThread = mThread;
+        mThread = null;
+    }
+
+    /* Frame time of "bytes" of PCM */
+    public static long bytesToMs(long bytes) {
+        return (bytes / BYTES_PER_FRAME) * 1000L / SAMPLE_RATE;
+    }
+
+    /* Whole frames of PCM lasting "ms" */
+    public static long msToBytes(long ms) {
+        return (ms * SAMPLE_RATE / 1000) * BYTES_PER_FRAME;
+    }
+
+    private void captureLoop(Thread previous) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        if (previous != null) {
+            /* The audio source can only be opened once the old thread released it */
+            try {
+                previous.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        int channelConfig = AudioFormat.CHANNEL_IN_STEREO;
+        int minBuffer = AudioRecord.getMinBufferSize(SAMPLE_RATE, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT);
+        AudioRecord record = null;
+        boolean error = true;
+        try {
+            if (minBuffer <= 0) {
+                Log.e(LOGTAG, "Capture: no buffer size (" + minBuffer + ")");
+                return;
+            }
+            record = new AudioRecord(mAudioSource, SAMPLE_RATE, channelConfig,
+                    AudioFormat.ENCODING_PCM_16BIT, Math.max(minBuffer, CHUNK_BYTES * 2));
+            if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+                Log.e(LOGTAG, "Capture: unable to open audio source " + mAudioSource);
+                return;
+            }
+            record.startRecording();
+            Log.d(LOGTAG, "Capture started, source " + mAudioSource);
+            byte[] buffer = new byte[CHUNK_BYTES];
+            while (keepCapturing()) {
+                int count = record.read(buffer, 0, buffer.length);
+                if (count < 0) {
+                    Log.e(LOGTAG, "Capture: read error " + count);
+                    return;
+                }
+                for (Sink sink : mSinks) {
+                    sink.onPcm(buffer, count);
+                }
+            }
+            error = false;
+        } finally {
+            if (record != null) {
+                if (record.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+                    record.stop();
+                }
+                record.release();
+            }
+            Log.d(LOGTAG, "Capture stopped" + (error ? " on error" : ""));
+            if (error) {
+                failSinks();
+            }
+        }
+    }
+
+    /* The sinks are dropped, each may add itself again later */
+    private void failSinks() {
+        Sink[] sinks;
+        synchronized (this) {
+            if (mThread != Thread.currentThread()) {
+                /* Already stopped */
+                return;
+            }
+            sinks = mSinks.toArray(new Sink[mSinks.size()]);
+            mSinks.clear();
+            stopped();
+        }
+        for (Sink sink : sinks) {
+            sink.onCaptureError();
+        }
+    }
+}
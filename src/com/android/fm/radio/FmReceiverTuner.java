@@ -0,0 +1,107 @@
+package com.android.fm.radio;
+
+import android.hardware.fmradio.FmConfig;
+import android.hardware.fmradio.FmReceiver;
+
+/**
+ * RadioTuner backed by the qcom FmReceiver on the device.
+ */
+public class FmReceiverTuner implements RadioTuner {
+    private final FmReceiver mReceiver;
+
+    public FmReceiverTuner(String devicePath) {
+        mReceiver = new FmReceiver(devicePath, null);
+    }
+
+    public boolean enable(FmConfig config) {
+        return mReceiver.enable(config);
+    }
+
+    public boolean disable() {
+        return mReceiver.disable();
+    }
+
+    public boolean configure(FmConfig config) {
+        return mReceiver.configure(config);
+    }
+
+    public boolean setStation(int frequency) {
+        return mReceiver.setStation(frequency);
+    }
+
+    public boolean searchStations(int mode, int dwellPeriod, int direction) {
+        return mReceiver.searchStations(mode, dwellPeriod, direction);
+    }
+
+    public boolean searchStations(int mode, int dwellPeriod, int direction, int pty, int pi) {
+        return mReceiver.searchStations(mode, dwellPeriod, direction, pty, pi);
+    }
+
+    public boolean searchStationList(int mode, int direction, int numStations, int pty) {
+        return mReceiver.searchStationList(mode, direction, numStations, pty);
+    }
+
+    public boolean cancelSearch() {
+        return mReceiver.cancelSearch();
+    }
+
+    public int[] getStationList() {
+        return mReceiver.getStationList();
+    }
+
+    public boolean setMuteMode(int mode) {
+        return mReceiver.setMuteMode(mode);
+    }
+
+    public boolean setStereoMode(boolean stereo) {
+        return mReceiver.setStereoMode(stereo);
+    }
+
+    public boolean setPowerMode(int mode) {
+        return mReceiver.setPowerMode(mode);
+    }
+
+    public int getPowerMode() {
+        return mReceiver.getPowerMode();
+    }
+
+    public boolean enableAFjump(boolean enable) {
+        return mReceiver.enableAFjump(enable);
+    }
+
+    public boolean registerRdsGroupProcessing(int groups) {
+        return mReceiver.registerRdsGroupProcessing(groups);
+    }
+
+    public boolean setRdsGroupOptions(int groupMask, int bufferSize, boolean changeFilter) {
+        return mReceiver.setRdsGroupOptions(groupMask, bufferSize, changeFilter);
+    }
+
+    public byte[] getRawRds(int numBlocks) {
+        return mReceiver.getRawRDS(numBlocks);
+    }
+
+    public boolean setInternalAntenna(boolean internal) {
+        return mReceiver.setInternalAntenna(internal);
+    }
+
+    public boolean getInternalAntenna() {
+        return mReceiver.getInternalAntenna();
+    }
+
+    public int getRssi() {
+        return mReceiver.getRssi();
+    }
+
+    public RdsInfo getPSInfo() {
+        return RdsInfo.fromRdsData(mReceiver.getPSInfo());
+    }
+
+    public RdsInfo getRTInfo() {
+        return RdsInfo.fromRdsData(mReceiver.getRTInfo());
+    }
+
+    public int[] getAFInfo() {
+        return mReceiver.getAFInfo();
+    }
+}
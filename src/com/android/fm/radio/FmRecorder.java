@@ -0,0 +1,288 @@
+package com.android.fm.radio;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the FM audio into a WAV file. As a sink of FmAudioCapture it
+ * copies the PCM into a PcmRingBuffer and never blocks the capture thread
+ * on the disk: what does not fit is dropped and counted. A writer thread
+ * takes the PCM out in CHUNK_BYTES pieces and streams them through a WRITE_BUFFER_BYTES buffer
+ * into a FileChannel, so the file grows in large sequential writes. The
+ * WAV header sizes are filled in when the recording ends.
+ *
+ * One recording at a time; start() and stop() may be called from any thread.
+ */
+public class FmRecorder implements FmAudioCapture.Sink {
+    private static final String LOGTAG = "FMService";
+
+    private static final int SAMPLE_RATE = FmAudioCapture.SAMPLE_RATE;
+
+    private static final int CHANNELS = FmAudioCapture.CHANNELS;
+
+    private static final int BYTES_PER_FRAME = FmAudioCapture.BYTES_PER_FRAME;
+
+    /* About two seconds of audio */
+    private static final int RING_BYTES = SAMPLE_RATE * BYTES_PER_FRAME * 2;
+
+    /* The unit the writer wakes up for */
+    private static final int CHUNK_BYTES = FmAudioCapture.CHUNK_BYTES;
+
+    private static final int WRITE_BUFFER_BYTES = 256 * 1024;
+
+    private static final int WAV_HEADER_BYTES = 44;
+
+    /* Why a recording ended */
+    public static final int STOP_REQUESTED = 0;
+
+    public static final int STOP_DURATION_REACHED = 1;
+
+    public static final int STOP_ERROR = 2;
+
+    /** Told when a recording ends, on the writer thread */
+    public interface Listener {
+        void onRecordingStopped(File file, long durationMs, int reason);
+    }
+
+    private final Listener mListener;
+
+    private final FmAudioCapture mCapture;
+
+    private volatile boolean mRecording = false;
+
+    private volatile int mStopReason;
+
+    /* Ring of the current recording, filled on the capture thread */
+    private volatile PcmRingBuffer mRing;
+
+    private volatile Thread mWriterThread;
+
+    private File mFile;
+
+    /* Statistics of the current or last recording */
+    private volatile long mStartMs;
+
+    private volatile long mBytesWritten;
+
+    private volatile long mDroppedFrames;
+
+    private volatile int mLagMs;
+
+    private volatile int mMaxLagMs;
+
+    public FmRecorder(FmAudioCapture capture, Listener listener) {
+        mCapture = capture;
+        mListener = listener;
+    }
+
+    /**
+     * Start recording into "file", for at most "maxDurationMs" (0 or less for
+     * no limit). Returns false if a recording is already running.
+     */
+    public synchronized boolean start(File file, long maxDurationMs) {
+        if (mRecording || ((mWriterThread != null) && mWriterThread.isAlive())) {
+            /* Still recording, or still completing the last file */
+            return false;
+        }
+        final PcmRingBuffer ring = new PcmRingBuffer(RING_BYTES);
+        final long maxBytes = (maxDurationMs > 0)
+                ? FmAudioCapture.msToBytes(maxDurationMs) : Long.MAX_VALUE;
+        mFile = file;
+        mStartMs = System.currentTimeMillis();
+        mBytesWritten = 0;
+        mDroppedFrames = 0;
+        mLagMs = 0;
+        mMaxLagMs = 0;
+        mStopReason = STOP_REQUESTED;
+        mRecording = true;
+        mRing = ring;
+        mWriterThread = new Thread(new Runnable() {
+            public void run() {
+                writeLoop(ring, maxBytes);
+            }
+        }, "FmRecordWriter");
+        mWriterThread.start();
+        mCapture.addSink(this);
+        Log.d(LOGTAG, "Recording to " + file + ", limit " + maxDurationMs + " ms");
+        return true;
+    }
+
+    /** Stop the recording, the file is completed on the writer thread */
+    public void stop() {
+        if (mRecording) {
+            Log.d(LOGTAG, "Recording stop requested");
+            stopWith(STOP_REQUESTED);
+        }
+    }
+
+    public boolean isRecording() {
+        return mRecording;
+    }
+
+    /** File of the current or last recording, null if there was none */
+    public synchronized File getFile() {
+        return mFile;
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /** Frames that had to be dropped because the writer fell behind */
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /** Audio waiting for the writer, now and at worst */
+    public int getLagMs() {
+        return mLagMs;
+    }
+
+    public int getMaxLagMs() {
+        return mMaxLagMs;
+    }
+
+    /** Average write rate of the current or last recording */
+    public long getBytesPerSecond() {
+        long elapsed = System.currentTimeMillis() - mStartMs;
+        return (elapsed > 0) ? (mBytesWritten * 1000) / elapsed : 0;
+    }
+
+    private void stopWith(int reason) {
+        if (mRecording) {
+            mStopReason = reason;
+            mRecording = false;
+        }
+        Thread writer = mWriterThread;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    public void onPcm(byte[] data, int length) {
+        PcmRingBuffer ring = mRing;
+        if (!mRecording || (ring == null)) {
+            return;
+        }
+        int written = ring.write(data, 0, length);
+        if (written < length) {
+            mDroppedFrames += (length - written) / BYTES_PER_FRAME;
+        }
+        if (ring.available() >= CHUNK_BYTES) {
+            LockSupport.unpark(mWriterThread);
+        }
+    }
+
+    public void onCaptureError() {
+        Log.e(LOGTAG, "Recording: capture failed");
+        stopWith(STOP_ERROR);
+    }
+
+    private void writeLoop(PcmRingBuffer ring, long maxBytes) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        RandomAccessFile file = null;
+        long pcmBytes = 0;
+        byte[] chunk = new byte[CHUNK_BYTES];
+        ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+        try {
+            File dir = mFile.getParentFile();
+            if ((dir != null) && !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("unable to create " + dir);
+            }
+            file = new RandomAccessFile(mFile, "rw");
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+            /* The sizes are filled in at the end */
+            channel.write(wavHeader(0), 0);
+            channel.position(WAV_HEADER_BYTES);
+
+            boolean draining = false;
+            while (pcmBytes < maxBytes) {
+                int available = ring.available();
+                mLagMs = (int) FmAudioCapture.bytesToMs(available);
+                mMaxLagMs = Math.max(mMaxLagMs, mLagMs);
+                if ((available < CHUNK_BYTES) && !draining) {
+                    if (!mRecording) {
+                        /* Stopped, write out what is left */
+                        draining = true;
+                        continue;
+                    }
+                    LockSupport.parkNanos(this, 50 * 1000000L);
+                    continue;
+                }
+                int count = ring.read(chunk, 0,
+                        (int) Math.min(CHUNK_BYTES, maxBytes - pcmBytes));
+                if (count == 0) {
+                    break;
+                }
+                if (out.remaining() < count) {
+                    writeFully(channel, out);
+                }
+                out.put(chunk, 0, count);
+                pcmBytes += count;
+                mBytesWritten = pcmBytes + WAV_HEADER_BYTES;
+            }
+            if (pcmBytes >= maxBytes) {
+                Log.d(LOGTAG, "Recording: duration reached");
+                stopWith(STOP_DURATION_REACHED);
+            }
+            writeFully(channel, out);
+            channel.write(wavHeader(pcmBytes), 0);
+        } catch (IOException e) {
+            Log.e(LOGTAG, "Recording: unable to write " + mFile + ": " + e);
+            stopWith(STOP_ERROR);
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        /* Stop the capture feed if the writer ended first */
+        stopWith(mStopReason);
+        mCapture.removeSink(this);
+        mRing = null;
+        long durationMs = FmAudioCapture.bytesToMs(pcmBytes);
+        Log.d(LOGTAG, "Recorded " + durationMs + " ms to " + mFile + ", dropped "
+                + mDroppedFrames + " frames, max lag " + mMaxLagMs + " ms");
+        mListener.onRecordingStopped(mFile, durationMs, mStopReason);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /* Canonical 44 byte header of a 16 bit PCM WAV file with "pcmBytes" of data */
+    private static ByteBuffer wavHeader(long pcmBytes) {
+        int dataBytes = (int) Math.min(pcmBytes, Integer.MAX_VALUE - WAV_HEADER_BYTES);
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] { 'R', 'I', 'F', 'F' });
+        header.putInt(dataBytes + WAV_HEADER_BYTES - 8);
+        header.put(new byte[] { 'W', 'A', 'V', 'E', 'f', 'm', 't', ' ' });
+        header.putInt(16);
+        header.putShort((short) 1);
+        header.putShort((short) CHANNELS);
+        header.putInt(SAMPLE_RATE);
+        header.putInt(SAMPLE_RATE * BYTES_PER_FRAME);
+        header.putShort((short) BYTES_PER_FRAME);
+        header.putShort((short) 16);
+        header.put(new byte[] { 'd', 'a', 't', 'a' });
+        header.putInt(dataBytes);
+        header.flip();
+        return header;
+    }
+}
@@ -0,0 +1,470 @@
+package com.android.fm.radio;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Scheduled recordings and timed tunes, driven by AlarmManager so they
+ * happen whether or not the activity or even the process is alive.
+ *
+ * Only one alarm is ever set, for the next boundary of the first event:
+ * its warm up PREWARM_MS before the start (the receiver is turned on and
+ * tuned, so the audio is there on time), its start or its end. Events
+ * closer together than BATCH_GAP_MS share one receiver session, with no
+ * warm up or power down in between, and back to back recordings of the
+ * same station go on as one recording. Boundaries within SLACK_MS of each
+ * other are handled in the same wakeup.
+ *
+ * Events are kept in a file, so an alarm that restarts the process finds
+ * them again; what was due in the meantime is caught up on, what ended is
+ * dropped.
+ */
+public class FmScheduler {
+    private static final String LOGTAG = "FMService";
+
+    /* "FMSE" */
+    private static final int MAGIC = 0x464D5345;
+
+    private static final int VERSION = 1;
+
+    private static final String FILE_NAME = "schedule.bin";
+
+    public static final int MAX_EVENTS = 64;
+
+    /* fmOn() and the first tune are done well within this */
+    public static final long PREWARM_MS = 10 * 1000;
+
+    public static final long BATCH_GAP_MS = 2 * 60 * 1000;
+
+    private static final long SLACK_MS = 1000;
+
+    /* Fields of one event in getEvents() */
+    public static final int FIELD_ID = 0;
+
+    public static final int FIELD_FREQUENCY = 1;
+
+    public static final int FIELD_START = 2;
+
+    public static final int FIELD_DURATION = 3;
+
+    public static final int FIELD_PRESET_LIST = 4;
+
+    public static final int FIELD_PRESET_STATION = 5;
+
+    public static final int FIELD_RECORD = 6;
+
+    public static final int EVENT_FIELDS = 7;
+
+    /**
+     * Told about the boundaries, on the main thread. The calls are posted in
+     * order and never made with the schedule locked, so a slow power up does
+     * not hold up add(), remove() or the next onAlarm().
+     */
+    public interface Listener {
+        /** The receiver should be on and tuned to "frequency" */
+        void onPrewarm(int frequency);
+
+        void onEventStart(Event event, int frequency);
+
+        /** "chained": the next event goes on with the same recording */
+        void onEventEnd(Event event, boolean chained);
+
+        /** No event follows closely, the receiver may go off */
+        void onSessionEnd();
+    }
+
+    /** One scheduled tune, or recording when isRecord() */
+    public static class Event {
+        private final int mId;
+
+        private final int mFrequency;
+
+        private final long mStartTime;
+
+        private final long mDurationMs;
+
+        private final int mPresetList;
+
+        private final int mPresetStation;
+
+        private final boolean mRecord;
+
+        Event(int id, int frequency, long startTime, long durationMs, int presetList,
+                int presetStation, boolean record) {
+            mId = id;
+            mFrequency = frequency;
+            mStartTime = startTime;
+            mDurationMs = durationMs;
+            mPresetList = presetList;
+            mPresetStation = presetStation;
+            mRecord = record;
+        }
+
+        public int getId() {
+            return mId;
+        }
+
+        /** Frequency to use if the preset is gone */
+        public int getFrequency() {
+            return mFrequency;
+        }
+
+        /** System.currentTimeMillis() time of the start */
+        public long getStartTime() {
+            return mStartTime;
+        }
+
+        public long getEndTime() {
+            return mStartTime + mDurationMs;
+        }
+
+        /** Preset list index, -1 if the event is not for a preset */
+        public int getPresetList() {
+            return mPresetList;
+        }
+
+        public int getPresetStation() {
+            return mPresetStation;
+        }
+
+        public boolean isRecord() {
+            return mRecord;
+        }
+
+        /* The preset's frequency if it is still there, the event's own otherwise */
+        int resolveFrequency() {
+            if (mPresetList >= 0) {
+                PresetList list = FmSharedPreferences.getStationList(mPresetList);
+                if ((list != null) && (mPresetStation >= 0)
+                        && (mPresetStation < list.getStationCount())) {
+                    int frequency = list.getStationFrequency(mPresetStation);
+                    if (frequency > 0) {
+                        return frequency;
+                    }
+                }
+            }
+            return mFrequency;
+        }
+    }
+
+    private final File mFile;
+
+    private final Listener mListener;
+
+    private final Handler mHandler;
+
+    private final AlarmManager mAlarmManager;
+
+    private final PendingIntent mAlarmIntent;
+
+    /* Sorted by start time, none overlapping */
+    private final ArrayList<Event> mEvents = new ArrayList<Event>();
+
+    private int mNextId = 1;
+
+    /* Progress of the first event; not saved, a restart redoes what is due */
+    private int mActiveId = -1;
+
+    private boolean mWarm = false;
+
+    private long mWakeups = 0;
+
+    private long mMissed = 0;
+
+    private FmScheduler(Context context, Listener listener) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        mListener = listener;
+        mHandler = new Handler(context.getMainLooper());
+        mAlarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        Intent intent = new Intent(context, FMRadioService.class);
+        intent.setAction(FMRadioService.SERVICECMD);
+        intent.putExtra(FMRadioService.CMDNAME, FMRadioService.CMDSCHEDULE);
+        mAlarmIntent = PendingIntent.getService(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /** The schedule kept by "context"; call onAlarm() once the listener is ready */
+    public static FmScheduler load(Context context, Listener listener) {
+        FmScheduler scheduler = new FmScheduler(context, listener);
+        if (scheduler.mFile.exists()) {
+            scheduler.read();
+        }
+        return scheduler;
+    }
+
+    /** True if "context" has events scheduled, e.g. to restore the alarm at boot */
+    public static boolean hasEvents(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME).exists();
+    }
+
+    /**
+     * Schedule an event. "presetList" and "presetStation" name a preset
+     * whose frequency is used when the event starts, -1 for none.
+     *
+     * @return the event id, or -1 if the event is over, overlaps another
+     *         one or the schedule is full
+     */
+    public synchronized int add(int frequency, long startTime, long durationMs,
+            int presetList, int presetStation, boolean record) {
+        long endTime = startTime + durationMs;
+        if ((durationMs <= 0) || (endTime <= System.currentTimeMillis())
+                || (mEvents.size() >= MAX_EVENTS)) {
+            return -1;
+        }
+        int index = 0;
+        for (Event other : mEvents) {
+            if ((startTime < other.getEndTime()) && (other.getStartTime() < endTime)) {
+                Log.d(LOGTAG, "Schedule: overlaps event " + other.getId());
+                return -1;
+            }
+            if (other.getStartTime() < startTime) {
+                index++;
+            }
+        }
+        Event event = new Event(mNextId++, frequency, startTime, durationMs, presetList,
+                presetStation, record);
+        mEvents.add(index, event);
+        Log.d(LOGTAG, "Schedule: added event " + event.getId() + " at " + startTime + " for "
+                + durationMs + " ms, record: " + record);
+        save();
+        update();
+        return event.getId();
+    }
+
+    /** Remove event "id", ending it if it is running */
+    public synchronized boolean remove(int id) {
+        for (int i = 0; i < mEvents.size(); i++) {
+            Event event = mEvents.get(i);
+            if (event.getId() == id) {
+                mEvents.remove(i);
+                save();
+                if (id == mActiveId) {
+                    mActiveId = -1;
+                    postEventEnd(event, false);
+                }
+                update();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** All events, EVENT_FIELDS values each, indexed by the FIELD_ constants */
+    public synchronized long[] getEvents() {
+        long[] events = new long[mEvents.size() * EVENT_FIELDS];
+        for (int i = 0; i < mEvents.size(); i++) {
+            Event event = mEvents.get(i);
+            int base = i * EVENT_FIELDS;
+            events[base + FIELD_ID] = event.getId();
+            events[base + FIELD_FREQUENCY] = event.getFrequency();
+            events[base + FIELD_START] = event.getStartTime();
+            events[base + FIELD_DURATION] = event.getEndTime() - event.getStartTime();
+            events[base + FIELD_PRESET_LIST] = event.getPresetList();
+            events[base + FIELD_PRESET_STATION] = event.getPresetStation();
+            events[base + FIELD_RECORD] = event.isRecord() ? 1 : 0;
+        }
+        return events;
+    }
+
+    public synchronized int size() {
+        return mEvents.size();
+    }
+
+    public synchronized long getWakeupCount() {
+        return mWakeups;
+    }
+
+    /** Events that ended before they could be started, e.g. with the device off */
+    public synchronized long getMissedCount() {
+        return mMissed;
+    }
+
+    /** The alarm went off, or the process (re)started: handle what is due */
+    public synchronized void onAlarm() {
+        mWakeups++;
+        update();
+    }
+
+    private void update() {
+        long now = System.currentTimeMillis();
+        long due = now + SLACK_MS;
+        boolean changed = false;
+        while (!mEvents.isEmpty()) {
+            Event event = mEvents.get(0);
+            if (event.getEndTime() <= due) {
+                mEvents.remove(0);
+                changed = true;
+                if (event.getId() == mActiveId) {
+                    mActiveId = -1;
+                    Event next = mEvents.isEmpty() ? null : mEvents.get(0);
+                    boolean chained = (next != null) && event.isRecord() && next.isRecord()
+                            && (next.getStartTime() <= event.getEndTime() + SLACK_MS)
+                            && (next.resolveFrequency() == event.resolveFrequency());
+                    Log.d(LOGTAG, "Schedule: event " + event.getId() + " ended"
+                            + (chained ? ", recording goes on" : ""));
+                    postEventEnd(event, chained);
+                } else {
+                    Log.d(LOGTAG, "Schedule: missed event " + event.getId());
+                    mMissed++;
+                }
+                continue;
+            }
+            if (mWarm && (mActiveId < 0) && (event.getStartTime() > now + BATCH_GAP_MS)) {
+                /* Nothing follows closely, do not keep the receiver on for it */
+                endSession();
+            }
+            if ((event.getStartTime() <= due) && (event.getId() != mActiveId)) {
+                int frequency = event.resolveFrequency();
+                if (!mWarm) {
+                    /* Late, e.g. after a restart: warm up and start at once */
+                    mWarm = true;
+                    postPrewarm(frequency);
+                }
+                mActiveId = event.getId();
+                Log.d(LOGTAG, "Schedule: event " + event.getId() + " started on " + frequency);
+                postEventStart(event, frequency);
+            } else if ((event.getStartTime() - PREWARM_MS <= due) && !mWarm) {
+                mWarm = true;
+                Log.d(LOGTAG, "Schedule: warming up for event " + event.getId());
+                postPrewarm(event.resolveFrequency());
+            }
+            break;
+        }
+        if (mEvents.isEmpty() && mWarm) {
+            endSession();
+        }
+        if (changed) {
+            save();
+        }
+        setAlarm(now);
+    }
+
+    private void endSession() {
+        mWarm = false;
+        Log.d(LOGTAG, "Schedule: session ended");
+        mHandler.post(new Runnable() {
+            public void run() {
+                mListener.onSessionEnd();
+            }
+        });
+    }
+
+    private void postPrewarm(final int frequency) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                mListener.onPrewarm(frequency);
+            }
+        });
+    }
+
+    private void postEventStart(final Event event, final int frequency) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                mListener.onEventStart(event, frequency);
+            }
+        });
+    }
+
+    private void postEventEnd(final Event event, final boolean chained) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                mListener.onEventEnd(event, chained);
+            }
+        });
+    }
+
+    /* One alarm, for the next boundary of the first event */
+    private void setAlarm(long now) {
+        if (mEvents.isEmpty()) {
+            mAlarmManager.cancel(mAlarmIntent);
+            return;
+        }
+        Event event = mEvents.get(0);
+        long next;
+        if (event.getId() == mActiveId) {
+            next = event.getEndTime();
+        } else if (mWarm || (event.getStartTime() - PREWARM_MS <= now)) {
+            next = event.getStartTime();
+        } else {
+            next = event.getStartTime() - PREWARM_MS;
+        }
+        mAlarmManager.set(AlarmManager.RTC_WAKEUP, next, mAlarmIntent);
+    }
+
+    private void save() {
+        if (mEvents.isEmpty()) {
+            /* No file means nothing to restore at boot */
+            mFile.delete();
+            return;
+        }
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mNextId);
+            out.writeInt(mEvents.size());
+            for (Event event : mEvents) {
+                out.writeInt(event.getId());
+                out.writeInt(event.getFrequency());
+                out.writeLong(event.getStartTime());
+                out.writeLong(event.getEndTime() - event.getStartTime());
+                out.writeInt(event.getPresetList());
+                out.writeInt(event.getPresetStation());
+                out.writeBoolean(event.isRecord());
+            }
+        } catch (IOException e) {
+            Log.e(LOGTAG, "Unable to save schedule " + mFile + ": " + e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void read() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                Log.e(LOGTAG, "Ignoring unsupported schedule " + mFile);
+                return;
+            }
+            mNextId = in.readInt();
+            int count = Math.min(in.readInt(), MAX_EVENTS);
+            for (int i = 0; i < count; i++) {
+                mEvents.add(new Event(in.readInt(), in.readInt(), in.readLong(), in.readLong(),
+                        in.readInt(), in.readInt(), in.readBoolean()));
+            }
+        } catch (IOException e) {
+            Log.e(LOGTAG, "Unable to read schedule " + mFile + ": " + e);
+            mEvents.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -5,10 +5,16 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.hardware.fmradio.FmConfig;
 import android.hardware.fmradio.FmReceiver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -87,6 +93,28 @@ public class FmSharedPreferences {
 
     private static FmConfig mFMConfiguration;
 
+    private static PresetStore mPresetStore;
+
+    /* Lists whose stations Load(true) left in the store, with their store index */
+    private static final Map<PresetList, Integer> mUnloadedLists =
+            new IdentityHashMap<PresetList, Integer>();
+
+    /* Set by the first Load() of the process */
+    private static boolean mLoaded = false;
+
+    /* False while Load(true) has left the Settings preferences unread */
+    private static boolean mSettingsLoaded = true;
+
+    /* Frequency -> bit mask of the lists holding a station on that frequency */
+    private static final IntIntMap mListsByFrequency = new IntIntMap();
+
+    /* Lists past this index are not covered by the cross-list index */
+    public static final int MAX_INDEXED_LISTS = 32;
+
+    private static int mListsVersion = 0;
+
+    private static long mListsByFrequencyStamp = -1;
+
     private static final String DEFAULT_NO_NAME = "";
 
     private static final int DEFAULT_NO_FREQUENCY = 97400;
@@ -103,9 +131,30 @@ public class FmSharedPreferences {
 
     private static int mListIndex;
 
-    private Context mContext;
+    private static Context mContext;
+
+    /* Write-behind: edits are batched and written on the writer thread */
+    private static final int MSG_FLUSH = 1;
+
+    /* Quiet period after the last edit before the batch is written */
+    private static final long WRITE_DELAY_MS = 500;
+
+    /* Upper bound on how long a continuous stream of edits can defer a write */
+    private static final long MAX_WRITE_DELAY_MS = 2000;
+
+    private static final Object mWriteLock = new Object();
+
+    private static Handler mWriterHandler;
 
-    private static int mTunedFrequency = 87600;
+    private static boolean mDirty = false;
+
+    private static long mFirstDirtyTime = 0;
+
+    private static long mCoalescedWrites = 0;
+
+    private static final LatencyStats mFlushStats = new LatencyStats("prefs-flush");
+
+    private static volatile int mTunedFrequency = 87600;
 
     private static int mFrequencyBand_Stepsize = 100;
 
@@ -122,37 +171,67 @@ public class FmSharedPreferences {
 
     private static boolean mHeadsetRemovalBehaviour = true;
 
+    /* Fade the volume out before the sleep timer turns FM off */
+    private static boolean mSleepFade = false;
+
     private static int mRecordDuration = 0;
 
+    /* Minutes of each record duration index, as in R.array.record_duration_values */
+    private static final int[] RECORD_DURATION_MINUTES = {
+            5, 15, 30, -1
+    };
+
     private static int mBluetoothExitBehaviour = 0;
 
     FmSharedPreferences(Context context) {
+        this(context, false);
+    }
+
+    /* "bDeferred": see Load(boolean) */
+    FmSharedPreferences(Context context, boolean bDeferred) {
+        this(context, bDeferred, true);
+    }
+
+    /*
+     * Without "bReload", preferences another component of the process has
+     * loaded (the activity, maybe deferred) are left as they are; they are
+     * only read if nothing loaded them yet.
+     */
+    FmSharedPreferences(Context context, boolean bDeferred, boolean bReload) {
         mContext = context.getApplicationContext();
+        if (!bReload && mLoaded) {
+            return;
+        }
         mFMConfiguration = new FmConfig();
-        Load();
+        PresetStation.loadPtyStrings(mContext);
+        Load(bDeferred);
     }
 
     public static void removeStation(int listIndex, int stationIndex) {
         if (listIndex < getNumList()) {
-            mListOfPlists.get(listIndex).removeStation(stationIndex);
+            getList(listIndex).removeStation(stationIndex);
+            markDirty();
         }
     }
 
     public static void removeStation(int listIndex, PresetStation station) {
         if (listIndex < getNumList()) {
-            mListOfPlists.get(listIndex).removeStation(station);
+            getList(listIndex).removeStation(station);
+            markDirty();
         }
     }
 
     public static void setListName(int listIndex, String name) {
         if (listIndex < getNumList()) {
-            mListOfPlists.get(listIndex).setName(name);
+            getList(listIndex).setName(name);
+            markDirty();
         }
     }
 
     public static void setStationName(int listIndex, int stationIndex, String name) {
         if (listIndex < getNumList()) {
-            mListOfPlists.get(listIndex).setStationName(stationIndex, name);
+            getList(listIndex).setStationName(stationIndex, name);
+            markDirty();
         }
     }
 
@@ -168,7 +247,7 @@ public class FmSharedPreferences {
     public static String getStationName(int listIndex, int stationIndex) {
         String name = "";
         if (listIndex < getNumList()) {
-            name = mListOfPlists.get(listIndex).getStationName(stationIndex);
+            name = getList(listIndex).getStationName(stationIndex);
         }
         return name;
     }
@@ -176,23 +255,33 @@ public class FmSharedPreferences {
     public static double getStationFrequency(int listIndex, int stationIndex) {
         double frequency = 0;
         if (listIndex < getNumList()) {
-            frequency = mListOfPlists.get(listIndex).getStationFrequency(stationIndex);
+            frequency = getList(listIndex).getStationFrequency(stationIndex);
         }
         return frequency;
     }
 
     public static PresetList getStationList(int listIndex) {
         if (listIndex < getNumList()) {
-            return mListOfPlists.get(listIndex);
+            return getList(listIndex);
         }
         return null;
     }
 
+    /** Lock-free view of the current list, null if there is no list yet */
+    public static PresetList.Snapshot getCurrentListSnapshot() {
+        int listIndex = getCurrentListIndex();
+        PresetList.Snapshot snapshot = null;
+        if (listIndex < getNumList()) {
+            snapshot = getList(listIndex).snapshot();
+        }
+        return snapshot;
+    }
+
     public static PresetStation getselectedStation() {
         int listIndex = getCurrentListIndex();
         PresetStation station = null;
         if (listIndex < getNumList()) {
-            station = mListOfPlists.get(listIndex).getSelectedStation();
+            station = getList(listIndex).getSelectedStation();
         }
         return station;
     }
@@ -201,7 +290,7 @@ public class FmSharedPreferences {
         int listIndex = getCurrentListIndex();
         PresetStation station = null;
         if (listIndex < getNumList()) {
-            station = mListOfPlists.get(listIndex).getStationFromIndex(index);
+            station = getList(listIndex).getStationFromIndex(index);
         }
         return station;
     }
@@ -210,16 +299,56 @@ public class FmSharedPreferences {
         int listIndex = getCurrentListIndex();
         PresetStation station = null;
         if (listIndex < getNumList()) {
-            station = mListOfPlists.get(listIndex).getStationFromFrequency(frequency);
+            station = getList(listIndex).getStationFromFrequency(frequency);
         }
         return station;
     }
 
+    /**
+     * Which preset lists hold a station on "frequency".
+     *
+     * @return bit mask with bit N set if list N contains the frequency
+     */
+    public static int getListsContainingFrequency(int frequency) {
+        loadDeferred();
+        synchronized (mListsByFrequency) {
+            long stamp;
+            synchronized (mListOfPlists) {
+                /* Mod counts only grow, so any edit moves the stamp */
+                stamp = ((long) mListsVersion) << 32;
+                for (PresetList list : mListOfPlists) {
+                    stamp += list.getModCount();
+                }
+                if (stamp != mListsByFrequencyStamp) {
+                    rebuildListsByFrequency();
+                    mListsByFrequencyStamp = stamp;
+                }
+            }
+            return mListsByFrequency.get(frequency, 0);
+        }
+    }
+
+    private static void rebuildListsByFrequency() {
+        mListsByFrequency.clear();
+        int numLists = Math.min(mListOfPlists.size(), MAX_INDEXED_LISTS);
+        for (int listIter = 0; listIter < numLists; listIter++) {
+            PresetList curList = mListOfPlists.get(listIter);
+            synchronized (curList) {
+                int numStations = curList.getStationCount();
+                for (int stationIter = 0; stationIter < numStations; stationIter++) {
+                    int frequency = curList.getStationFrequency(stationIter);
+                    int lists = mListsByFrequency.get(frequency, 0);
+                    mListsByFrequency.put(frequency, lists | (1 << listIter));
+                }
+            }
+        }
+    }
+
     public static PresetStation selectNextStation() {
         int listIndex = getCurrentListIndex();
         PresetStation station = null;
         if (listIndex < getNumList()) {
-            station = mListOfPlists.get(listIndex).selectNextStation();
+            station = getList(listIndex).selectNextStation();
         }
         return station;
     }
@@ -228,7 +357,7 @@ public class FmSharedPreferences {
         int listIndex = getCurrentListIndex();
         PresetStation station = null;
         if (listIndex < getNumList()) {
-            station = mListOfPlists.get(listIndex).selectPrevStation();
+            station = getList(listIndex).selectPrevStation();
         }
         return station;
     }
@@ -236,7 +365,7 @@ public class FmSharedPreferences {
     public static void selectStation(PresetStation station) {
         int listIndex = getCurrentListIndex();
         if (listIndex < getNumList()) {
-            mListOfPlists.get(listIndex).selectStation(station);
+            getList(listIndex).selectStation(station);
         }
     }
 
@@ -269,7 +398,8 @@ public class FmSharedPreferences {
          */
         addListIfEmpty(listIndex);
         if (getNumList() > listIndex) {
-            mListOfPlists.get(listIndex).addStation(name, freq);
+            getList(listIndex).addStation(name, freq);
+            markDirty();
         }
     }
 
@@ -281,7 +411,8 @@ public class FmSharedPreferences {
          */
         addListIfEmpty(listIndex);
         if (getNumList() > listIndex) {
-            mListOfPlists.get(listIndex).addStation(station);
+            getList(listIndex).addStation(station);
+            markDirty();
         }
     }
 
@@ -289,7 +420,7 @@ public class FmSharedPreferences {
     public static boolean sameStationExists(int listIndex, PresetStation station) {
         boolean exists = false;
         if (getNumList() > listIndex) {
-            exists = mListOfPlists.get(listIndex).sameStationExists(station);
+            exists = getList(listIndex).sameStationExists(station);
         }
         return exists;
     }
@@ -299,7 +430,7 @@ public class FmSharedPreferences {
         int listIndex = getCurrentListIndex();
         boolean exists = false;
         if (getNumList() > listIndex) {
-            exists = mListOfPlists.get(listIndex).sameStationExists(station);
+            exists = getList(listIndex).sameStationExists(station);
         }
         return exists;
     }
@@ -309,13 +440,13 @@ public class FmSharedPreferences {
         int listIndex = getCurrentListIndex();
         int numStations = 0;
         if (getNumList() > listIndex) {
-            numStations = mListOfPlists.get(listIndex).getStationCount();
+            numStations = getList(listIndex).getStationCount();
         }
         return numStations;
     }
 
     public static void renamePresetList(String newName, int listIndex) {
-        PresetList curList = mListOfPlists.get(listIndex);
+        PresetList curList = getList(listIndex);
         if (curList != null) {
             String oldListName = curList.getName();
             curList.setName(newName);
@@ -323,16 +454,22 @@ public class FmSharedPreferences {
             mNameMap.remove(oldListName);
             mNameMap.put((String) newName, index);
             repopulateEntryValueLists();
+            markDirty();
         }
     }
 
     /* Returns the index of the list just created */
     public static int createPresetList(String name) {
-        int numLists = mListOfPlists.size();
-        mListOfPlists.add(new PresetList(name));
+        int numLists;
+        synchronized (mListOfPlists) {
+            numLists = mListOfPlists.size();
+            mListOfPlists.add(new PresetList(name));
+            mListsVersion++;
+        }
         String index = String.valueOf(numLists);
         mNameMap.put(name, index);
         repopulateEntryValueLists();
+        markDirty();
         return numLists;
     }
 
@@ -357,19 +494,161 @@ public class FmSharedPreferences {
     }
 
     public static List<PresetList> getPresetLists() {
+        loadDeferred();
         return mListOfPlists;
     }
 
+    /* The list at "listIndex", reading its stations first if Load(true) left them out */
+    private static PresetList getList(int listIndex) {
+        PresetList list = mListOfPlists.get(listIndex);
+        synchronized (mListOfPlists) {
+            Integer storeIndex = mUnloadedLists.remove(list);
+            if ((storeIndex != null) && (mPresetStore != null)) {
+                mPresetStore.readStations(storeIndex, list);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Read whatever Load(true) left out: the stations of the other preset
+     * lists and the Settings preferences. Does nothing after a full Load().
+     */
+    public static void loadDeferred() {
+        synchronized (mListOfPlists) {
+            if (!mUnloadedLists.isEmpty()) {
+                Log.d(LOGTAG, "Loading " + mUnloadedLists.size() + " deferred preset lists");
+                for (Map.Entry<PresetList, Integer> entry : mUnloadedLists.entrySet()) {
+                    if (mPresetStore != null) {
+                        mPresetStore.readStations(entry.getValue(), entry.getKey());
+                    }
+                }
+                mUnloadedLists.clear();
+            }
+        }
+        synchronized (mWriteLock) {
+            if (!mSettingsLoaded && (mContext != null)) {
+                SharedPreferences sp = mContext.getSharedPreferences(SHARED_PREFS,
+                        Context.MODE_PRIVATE);
+                loadSettings(sp);
+            }
+        }
+    }
+
     public void Load() {
-        Log.d(LOGTAG, "Load preferences ");
+        Load(false);
+    }
+
+    /**
+     * Read the preferences. With "bDeferred" only what the first frame needs
+     * is read: tuned frequency, band, speaker and the current preset list.
+     * The other lists are read when first used and the Settings preferences
+     * by loadDeferred(), which the activity calls after its first frame.
+     */
+    public void Load(boolean bDeferred) {
+        Log.d(LOGTAG, "Load preferences " + (bDeferred ? "(deferred)" : ""));
         if (mContext == null) {
             return;
         }
+        /* Pending edits have to reach the disk before they are read back */
+        flush();
         SharedPreferences sp = mContext.getSharedPreferences(SHARED_PREFS, Context.MODE_PRIVATE);
         mTunedFrequency = sp.getInt(PREF_LAST_TUNED_FREQUENCY, DEFAULT_NO_FREQUENCY);
+        /* Last list the user was navigating */
+        int listIndex = sp.getInt(LAST_LIST_INDEX, 0);
         /* Reset the Lists before reading the preferences */
-        mListOfPlists.clear();
+        synchronized (mListOfPlists) {
+            mListOfPlists.clear();
+            mUnloadedLists.clear();
+            mListsVersion++;
+        }
+
+        if (mPresetStore == null) {
+            mPresetStore = PresetStore.open(mContext);
+        }
+        int num_lists;
+        if ((mPresetStore != null) && mPresetStore.isValid()) {
+            num_lists = loadPresetLists(mPresetStore, bDeferred ? listIndex : -1);
+        } else {
+            num_lists = loadLegacyPresetLists(sp);
+            /* One time migration of the per-key presets into the preset store */
+            if ((mPresetStore != null) && sp.contains(LIST_NUM)) {
+                if (PresetStore.fits(mListOfPlists)) {
+                    Log.d(LOGTAG, "Migrating " + num_lists + " preset lists to the preset store");
+                    mPresetStore.write(mListOfPlists);
+                    removeLegacyPresetKeys(sp, num_lists);
+                } else {
+                    /* Keep saving them per key, the store would truncate them */
+                    Log.w(LOGTAG, "Presets do not fit the preset store, not migrating");
+                    mPresetStore = null;
+                }
+            }
+        }
+
+        /* Load Configuration */
+        setCountry(sp.getInt(FMCONFIG_COUNTRY, REGIONAL_BAND_DEFAULT));
+        /* Load speaker state */
+        setSpeaker(sp.getBoolean(FMSPEAKER, false));
+        mListIndex = listIndex;
+        if (mListIndex >= num_lists) {
+            mListIndex = 0;
+        }
+        mLoaded = true;
 
+        /* What was just read matches the disk, nothing to write back */
+        synchronized (mWriteLock) {
+            if (bDeferred) {
+                mSettingsLoaded = false;
+            } else {
+                loadSettings(sp);
+            }
+            mDirty = false;
+            if (mWriterHandler != null) {
+                mWriterHandler.removeMessages(MSG_FLUSH);
+            }
+        }
+    }
+
+    /* Called with mWriteLock held */
+    private static void loadSettings(SharedPreferences sp) {
+        setBluetoothExitBehaviour(sp.getInt(Settings.BT_EXIT_BEHAVIOUR, 0));
+        setHeadsetDcBehaviour(sp.getBoolean(Settings.HEADSET_DC_BEHAVIOUR, true));
+        setSleepFade(sp.getBoolean(Settings.SLEEP_FADE, false));
+        /* Kept by the ListPreference as its value string */
+        String recordDuration = sp.getString(Settings.RECORD_DURATION_KEY, null);
+        mRecordDuration = 0;
+        for (int i = 0; i < RECORD_DURATION_MINUTES.length; i++) {
+            if (String.valueOf(RECORD_DURATION_MINUTES[i]).equals(recordDuration)) {
+                mRecordDuration = i;
+            }
+        }
+        mSettingsLoaded = true;
+    }
+
+    /* Only the stations of "onlyList" are read, unless it is -1 */
+    private static int loadPresetLists(PresetStore store, int onlyList) {
+        int num_lists = store.getListCount();
+        for (int listIter = 0; listIter < num_lists; listIter++) {
+            String listName = store.getListName(listIter);
+            if (listIter == 0) {
+                createFirstPresetList(listName);
+            } else {
+                createPresetList(listName);
+            }
+            PresetList list = mListOfPlists.get(listIter);
+            if ((onlyList < 0) || (listIter == onlyList)
+                    || ((listIter == 0) && (onlyList >= num_lists))) {
+                store.readStations(listIter, list);
+            } else {
+                synchronized (mListOfPlists) {
+                    mUnloadedLists.put(list, listIter);
+                }
+            }
+        }
+        return num_lists;
+    }
+
+    private static int loadLegacyPresetLists(SharedPreferences sp) {
         int num_lists = sp.getInt(LIST_NUM, 1);
         for (int listIter = 0; listIter < num_lists; listIter++) {
             String listName = sp.getString(LIST_NAME + listIter, "FM - " + (listIter + 1));
@@ -381,6 +660,7 @@ public class FmSharedPreferences {
             }
 
             PresetList curList = mListOfPlists.get(listIter);
+            curList.beginUpdate();
             for (int stationIter = 0; stationIter < numStations; stationIter++) {
                 String stationName = sp.getString(STATION_NAME + listIter + "x" + stationIter,
                         DEFAULT_NO_NAME);
@@ -404,40 +684,18 @@ public class FmSharedPreferences {
                 }
 
             }
+            curList.endUpdate();
         }
 
-        /* Load Configuration */
-        setCountry(sp.getInt(FMCONFIG_COUNTRY, REGIONAL_BAND_DEFAULT));
-        /* Load speaker state */
-        setSpeaker(sp.getBoolean(FMSPEAKER, false));
-        /* Last list the user was navigating */
-        mListIndex = sp.getInt(LAST_LIST_INDEX, 0);
-        if (mListIndex >= num_lists) {
-            mListIndex = 0;
-        }
-
-        setBluetoothExitBehaviour(sp.getInt(Settings.BT_EXIT_BEHAVIOUR, 0));
-        setHeadsetDcBehaviour(sp.getBoolean(Settings.HEADSET_DC_BEHAVIOUR, true));
+        return num_lists;
     }
 
-    public void Save() {
-        if (mContext == null) {
-            return;
-        }
-        Log.d(LOGTAG, "Save preferences ");
-
-        int numLists = mListOfPlists.size();
-        SharedPreferences sp = mContext.getSharedPreferences(SHARED_PREFS, Context.MODE_PRIVATE);
-        SharedPreferences.Editor ed = sp.edit();
-
-        ed.putInt(PREF_LAST_TUNED_FREQUENCY, mTunedFrequency);
-
+    private static void saveLegacyPresetLists(SharedPreferences.Editor ed,
+            List<PresetList> lists) {
+        int numLists = lists.size();
         ed.putInt(LIST_NUM, numLists);
-        /* Last list the user was navigating */
-        ed.putInt(LAST_LIST_INDEX, mListIndex);
-
         for (int listIter = 0; listIter < numLists; listIter++) {
-            PresetList curList = mListOfPlists.get(listIter);
+            PresetList curList = lists.get(listIter);
             ed.putString(LIST_NAME + listIter, curList.getName());
             int numStations = curList.getStationCount();
             ed.putInt(STATION_NUM + listIter, numStations);
@@ -456,6 +714,124 @@ public class FmSharedPreferences {
                 }
             }
         }
+    }
+
+    private static void removeLegacyPresetKeys(SharedPreferences sp, int num_lists) {
+        SharedPreferences.Editor ed = sp.edit();
+        for (int listIter = 0; listIter < num_lists; listIter++) {
+            int numStations = sp.getInt(STATION_NUM + listIter, 0);
+            for (int stationIter = 0; stationIter < numStations; stationIter++) {
+                ed.remove(STATION_NAME + listIter + "x" + stationIter);
+                ed.remove(STATION_FREQUENCY + listIter + "x" + stationIter);
+                ed.remove(STATION_ID + listIter + "x" + stationIter);
+                ed.remove(STATION_PTY + listIter + "x" + stationIter);
+                ed.remove(STATION_RDS + listIter + "x" + stationIter);
+            }
+            ed.remove(LIST_NAME + listIter);
+            ed.remove(STATION_NUM + listIter);
+        }
+        ed.remove(LIST_NUM);
+        ed.commit();
+    }
+
+    /**
+     * Schedule the preferences to be written. The write happens on the writer
+     * thread once the edits settle; use flush() where it has to be on disk
+     * before returning.
+     */
+    public void Save() {
+        markDirty();
+    }
+
+    /** Write any pending edits now, on the calling thread */
+    public static void flush() {
+        synchronized (mWriteLock) {
+            if (mWriterHandler != null) {
+                mWriterHandler.removeMessages(MSG_FLUSH);
+            }
+            if (mDirty) {
+                writePreferences();
+            }
+        }
+    }
+
+    public static LatencyStats getFlushStats() {
+        return mFlushStats;
+    }
+
+    /** Number of edits that were folded into an already pending write */
+    public static long getCoalescedWrites() {
+        synchronized (mWriteLock) {
+            return mCoalescedWrites;
+        }
+    }
+
+    private static void markDirty() {
+        if (mContext == null) {
+            return;
+        }
+        synchronized (mWriteLock) {
+            long now = SystemClock.uptimeMillis();
+            if (mDirty) {
+                mCoalescedWrites++;
+            } else {
+                mDirty = true;
+                mFirstDirtyTime = now;
+            }
+            Handler handler = getWriterHandler();
+            handler.removeMessages(MSG_FLUSH);
+            long delay = Math.min(WRITE_DELAY_MS, (mFirstDirtyTime + MAX_WRITE_DELAY_MS) - now);
+            handler.sendEmptyMessageDelayed(MSG_FLUSH, Math.max(delay, 0));
+        }
+    }
+
+    private static Handler getWriterHandler() {
+        if (mWriterHandler == null) {
+            HandlerThread thread = new HandlerThread("FmPrefsWriter",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mWriterHandler = new Handler(thread.getLooper()) {
+                @Override
+                public void handleMessage(Message msg) {
+                    if (msg.what == MSG_FLUSH) {
+                        flush();
+                    }
+                }
+            };
+        }
+        return mWriterHandler;
+    }
+
+    /* Called with mWriteLock held */
+    private static void writePreferences() {
+        if (mContext == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        mDirty = false;
+        Log.d(LOGTAG, "Save preferences ");
+
+        /* Never write back a partly read set of preferences */
+        loadDeferred();
+
+        List<PresetList> lists;
+        synchronized (mListOfPlists) {
+            lists = new ArrayList<PresetList>(mListOfPlists);
+        }
+
+        SharedPreferences sp = mContext.getSharedPreferences(SHARED_PREFS, Context.MODE_PRIVATE);
+        SharedPreferences.Editor ed = sp.edit();
+
+        ed.putInt(PREF_LAST_TUNED_FREQUENCY, mTunedFrequency);
+
+        /* Last list the user was navigating */
+        ed.putInt(LAST_LIST_INDEX, mListIndex);
+
+        if (mPresetStore != null) {
+            mPresetStore.write(lists);
+        } else {
+            saveLegacyPresetLists(ed, lists);
+        }
 
         /* Save Configuration */
         ed.putInt(FMCONFIG_COUNTRY, mCountry);
@@ -463,12 +839,20 @@ public class FmSharedPreferences {
         ed.putBoolean(FMSPEAKER, mSpeaker);
         ed.putInt(Settings.BT_EXIT_BEHAVIOUR, mBluetoothExitBehaviour);
         ed.putBoolean(Settings.HEADSET_DC_BEHAVIOUR, mHeadsetRemovalBehaviour);
+        ed.putBoolean(Settings.SLEEP_FADE, mSleepFade);
         ed.commit();
+
+        mFlushStats.recordSince(start);
+        Log.d(LOGTAG, mFlushStats + " coalesced=" + mCoalescedWrites);
     }
 
     public static void SetDefaults() {
         mListIndex = 0;
-        mListOfPlists.clear();
+        synchronized (mListOfPlists) {
+            mListOfPlists.clear();
+            mUnloadedLists.clear();
+            mListsVersion++;
+        }
         setCountry(REGIONAL_BAND_DEFAULT);
         setRadioBand(0);
         setChSpacing(0);
@@ -483,7 +867,10 @@ public class FmSharedPreferences {
         PresetList toRemove = mListOfPlists.get(mListIndex);
 
         mNameMap.remove(toRemove.getName());
-        mListOfPlists.remove(mListIndex);
+        synchronized (mListOfPlists) {
+            mListOfPlists.remove(mListIndex);
+            mListsVersion++;
+        }
         int numLists = mListOfPlists.size();
 
         /* Remove for others */
@@ -498,10 +885,14 @@ public class FmSharedPreferences {
         }
         mListIndex = 0;
         repopulateEntryValueLists();
+        markDirty();
     }
 
     public static void setTunedFrequency(int frequency) {
-        mTunedFrequency = frequency;
+        if (mTunedFrequency != frequency) {
+            mTunedFrequency = frequency;
+            markDirty();
+        }
     }
 
     public static int getTunedFrequency() {
@@ -923,9 +1314,20 @@ public class FmSharedPreferences {
     }
 
     public static int getRecordDuration() {
+        loadDeferred();
         return mRecordDuration;
     }
 
+    /** Longest recording in ms for the selected record duration, 0 for unlimited */
+    public static long getRecordDurationMs() {
+        int index = getRecordDuration();
+        if ((index < 0) || (index >= RECORD_DURATION_MINUTES.length)
+                || (RECORD_DURATION_MINUTES[index] < 0)) {
+            return 0;
+        }
+        return RECORD_DURATION_MINUTES[index] * 60L * 1000;
+    }
+
     public static void setAutoAFSwitch(boolean bAFAutoSwitch) {
         mAFAutoSwitch = bAFAutoSwitch;
     }
@@ -939,6 +1341,7 @@ public class FmSharedPreferences {
     }
 
     public static int getBluetoothExitBehaviour() {
+        loadDeferred();
         return mBluetoothExitBehaviour;
     }
 
@@ -947,7 +1350,17 @@ public class FmSharedPreferences {
     }
 
     public static boolean getHeadsetDcBehaviour() {
+        loadDeferred();
         return mHeadsetRemovalBehaviour;
     }
 
+    public static void setSleepFade(boolean fade) {
+        mSleepFade = fade;
+    }
+
+    public static boolean getSleepFade() {
+        loadDeferred();
+        return mSleepFade;
+    }
+
 }
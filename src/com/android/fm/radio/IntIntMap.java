@@ -0,0 +1,144 @@
+package com.android.fm.radio;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing int to int hash map with linear probing. Lookups do not
+ * allocate or box; removals are not supported, callers clear and rebuild.
+ * Not thread safe, callers provide their own locking.
+ */
+public class IntIntMap {
+    private static final int EMPTY = 0;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] mKeys;
+
+    private int[] mValues;
+
+    private int mSize = 0;
+
+    /* Key 0 marks empty slots, so it is kept aside */
+    private boolean mHasZeroKey = false;
+
+    private int mZeroValue = 0;
+
+    public IntIntMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public IntIntMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < (expectedSize * 2)) {
+            capacity <<= 1;
+        }
+        mKeys = new int[capacity];
+        mValues = new int[capacity];
+    }
+
+    public int size() {
+        return mSize + (mHasZeroKey ? 1 : 0);
+    }
+
+    public int get(int key, int valueIfMissing) {
+        if (key == EMPTY) {
+            return mHasZeroKey ? mZeroValue : valueIfMissing;
+        }
+        int mask = mKeys.length - 1;
+        for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+            int k = mKeys[slot];
+            if (k == key) {
+                return mValues[slot];
+            }
+            if (k == EMPTY) {
+                return valueIfMissing;
+            }
+        }
+    }
+
+    public boolean containsKey(int key) {
+        if (key == EMPTY) {
+            return mHasZeroKey;
+        }
+        int mask = mKeys.length - 1;
+        for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+            int k = mKeys[slot];
+            if (k == key) {
+                return true;
+            }
+            if (k == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    public void put(int key, int value) {
+        insert(key, value, true);
+    }
+
+    /** Store "value" only if "key" is not mapped yet */
+    public void putIfAbsent(int key, int value) {
+        insert(key, value, false);
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, EMPTY);
+        mSize = 0;
+        mHasZeroKey = false;
+    }
+
+    private void insert(int key, int value, boolean replace) {
+        if (key == EMPTY) {
+            if (replace || !mHasZeroKey) {
+                mZeroValue = value;
+                mHasZeroKey = true;
+            }
+            return;
+        }
+        int mask = mKeys.length - 1;
+        for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+            int k = mKeys[slot];
+            if (k == key) {
+                if (replace) {
+                    mValues[slot] = value;
+                }
+                return;
+            }
+            if (k == EMPTY) {
+                mKeys[slot] = key;
+                mValues[slot] = value;
+                mSize++;
+                /* Keep the load factor at or below one half */
+                if ((mSize * 2) > mKeys.length) {
+                    resize(mKeys.length * 2);
+                }
+                return;
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = mKeys;
+        int[] oldValues = mValues;
+        mKeys = new int[capacity];
+        mValues = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            int key = oldKeys[i];
+            if (key != EMPTY) {
+                int slot = hash(key) & mask;
+                while (mKeys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                mKeys[slot] = key;
+                mValues[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        /* Frequencies are multiples of 50, mix the low bits */
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,116 @@
+package com.android.fm.radio;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Running count, min, max and mean of a latency measured in nanoseconds.
+ * Cheap enough to be updated on every call of the path it measures.
+ */
+public class LatencyStats {
+    /* Header of the lines written by dumpAll() */
+    public static final String DUMP_HEADER = "name,count,min_ns,mean_ns,max_ns,last_ns";
+
+    /* Every instance in creation order, for dumpAll() */
+    private static final ArrayList<LatencyStats> mAllStats = new ArrayList<LatencyStats>();
+
+    private final String mName;
+
+    private long mCount = 0;
+
+    private long mTotalNs = 0;
+
+    private long mMinNs = Long.MAX_VALUE;
+
+    private long mMaxNs = 0;
+
+    private long mLastNs = 0;
+
+    public LatencyStats(String name) {
+        mName = name;
+        synchronized (mAllStats) {
+            mAllStats.add(this);
+        }
+    }
+
+    /**
+     * Write one comma separated line per instance, preceded by DUMP_HEADER,
+     * so the output can be collected and compared between builds.
+     */
+    public static void dumpAll(PrintWriter pw) {
+        pw.println(DUMP_HEADER);
+        synchronized (mAllStats) {
+            for (LatencyStats stats : mAllStats) {
+                pw.println(stats.toCsv());
+            }
+        }
+    }
+
+    public static void resetAll() {
+        synchronized (mAllStats) {
+            for (LatencyStats stats : mAllStats) {
+                stats.reset();
+            }
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public synchronized void record(long latencyNs) {
+        mCount++;
+        mTotalNs += latencyNs;
+        mLastNs = latencyNs;
+        if (latencyNs < mMinNs) {
+            mMinNs = latencyNs;
+        }
+        if (latencyNs > mMaxNs) {
+            mMaxNs = latencyNs;
+        }
+    }
+
+    /** Record the time elapsed since "startNs" (from System.nanoTime()) */
+    public void recordSince(long startNs) {
+        record(System.nanoTime() - startNs);
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getMinNs() {
+        return (mCount == 0) ? 0 : mMinNs;
+    }
+
+    public synchronized long getMaxNs() {
+        return mMaxNs;
+    }
+
+    public synchronized long getLastNs() {
+        return mLastNs;
+    }
+
+    public synchronized long getMeanNs() {
+        return (mCount == 0) ? 0 : (mTotalNs / mCount);
+    }
+
+    public synchronized void reset() {
+        mCount = 0;
+        mTotalNs = 0;
+        mMinNs = Long.MAX_VALUE;
+        mMaxNs = 0;
+        mLastNs = 0;
+    }
+
+    public synchronized String toCsv() {
+        return mName + "," + mCount + "," + getMinNs() + "," + getMeanNs() + "," + mMaxNs + ","
+                + mLastNs;
+    }
+
+    public synchronized String toString() {
+        return mName + ": count=" + mCount + " min=" + (getMinNs() / 1000) + "us mean="
+                + (getMeanNs() / 1000) + "us max=" + (mMaxNs / 1000) + "us last="
+                + (mLastNs / 1000) + "us";
+    }
+}
@@ -0,0 +1,185 @@
+package com.android.fm.radio;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * One line of text that scrolls right to left when it does not fit, for the
+ * RDS radio text. The text is measured once per setText(); a frame only
+ * moves the drawing offset, so scrolling costs no allocation and no layout
+ * pass. While scrolling, every frame asks for the next one, so the text
+ * moves at the display refresh rate; between passes it rests for
+ * RESTART_DELAY_MS without drawing at all.
+ *
+ * Nothing is drawn or scheduled while the view or its window is not
+ * visible, e.g. with the screen off; the text starts over once it is.
+ *
+ * Meant for a fixed width (match_parent): a new text does not request a
+ * layout.
+ */
+public class MarqueeTextView extends View {
+
+    private static final long START_DELAY_MS = 1000;
+
+    private static final long RESTART_DELAY_MS = 3000;
+
+    /* Scroll speed and the space before the text comes around again, in dip */
+    private static final float SPEED_DIP_PER_SECOND = 40;
+
+    private static final float GAP_DIP = 48;
+
+    private static final float DEFAULT_TEXT_SIZE_SP = 18;
+
+    private static final int DEFAULT_TEXT_COLOR = 0xFFC3E7AA;
+
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private final Paint.FontMetricsInt mFontMetrics = new Paint.FontMetricsInt();
+
+    private final float mSpeed;
+
+    private final float mGap;
+
+    private String mText = "";
+
+    private float mTextWidth = 0;
+
+    /* uptimeMillis() the current pass started moving, 0 when not scrolling */
+    private long mPassStart = 0;
+
+    public MarqueeTextView(Context context) {
+        this(context, null);
+    }
+
+    public MarqueeTextView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = context.getResources().getDisplayMetrics().density;
+        mSpeed = SPEED_DIP_PER_SECOND * density / 1000;
+        mGap = GAP_DIP * density;
+        mPaint.setTextSize(DEFAULT_TEXT_SIZE_SP
+                * context.getResources().getDisplayMetrics().scaledDensity);
+        mPaint.setColor(DEFAULT_TEXT_COLOR);
+        mPaint.getFontMetricsInt(mFontMetrics);
+    }
+
+    /** Show "text", scrolling it from the start if it does not fit */
+    public void setText(String text) {
+        if (text == null) {
+            text = "";
+        }
+        if (text.equals(mText)) {
+            return;
+        }
+        mText = text;
+        mTextWidth = mPaint.measureText(text);
+        restart();
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int height = (mFontMetrics.descent - mFontMetrics.ascent) + getPaddingTop()
+                + getPaddingBottom();
+        setMeasuredDimension(resolveSize(getSuggestedWidth(), widthMeasureSpec),
+                resolveSize(height, heightMeasureSpec));
+    }
+
+    private int getSuggestedWidth() {
+        return (int) Math.ceil(mTextWidth) + getPaddingLeft() + getPaddingRight();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        restart();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        restart();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        restart();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mPassStart = 0;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        int left = getPaddingLeft();
+        int available = getWidth() - left - getPaddingRight();
+        int baseline = getPaddingTop() - mFontMetrics.ascent;
+        if ((mText.length() == 0) || (available <= 0)) {
+            return;
+        }
+        if (!needsScroll(available) || !isShown() || (getWindowVisibility() != VISIBLE)) {
+            /* Fits, or nobody sees it: the start of the text, no next frame */
+            canvas.save();
+            canvas.clipRect(left, 0, left + available, getHeight());
+            canvas.drawText(mText, left, baseline, mPaint);
+            canvas.restore();
+            return;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        if ((mPassStart == 0) || (now < mPassStart)) {
+            /* Resting at the start of the text until mPassStart */
+            if (mPassStart == 0) {
+                mPassStart = now + START_DELAY_MS;
+            }
+            drawAt(canvas, left, available, baseline, 0);
+            postInvalidateDelayed(mPassStart - now);
+            return;
+        }
+
+        float distance = mTextWidth + mGap;
+        float offset = (now - mPassStart) * mSpeed;
+        if (offset >= distance) {
+            /* The copy behind is at the start again: rest, then go on */
+            mPassStart = now + RESTART_DELAY_MS;
+            drawAt(canvas, left, available, baseline, 0);
+            postInvalidateDelayed(RESTART_DELAY_MS);
+            return;
+        }
+        drawAt(canvas, left, available, baseline, offset);
+        invalidate();
+    }
+
+    /* The text moved left by "offset", followed by its copy mGap behind */
+    private void drawAt(Canvas canvas, int left, int available, int baseline, float offset) {
+        canvas.save();
+        canvas.clipRect(left, 0, left + available, getHeight());
+        float x = left - offset;
+        canvas.drawText(mText, x, baseline, mPaint);
+        float next = x + mTextWidth + mGap;
+        if (next < left + available) {
+            canvas.drawText(mText, next, baseline, mPaint);
+        }
+        canvas.restore();
+    }
+
+    private boolean needsScroll(int available) {
+        return mTextWidth > available;
+    }
+
+    /* Back to the start of the text, with the start delay */
+    private void restart() {
+        mPassStart = 0;
+        invalidate();
+    }
+}
@@ -0,0 +1,65 @@
+package com.android.fm.radio;
+
+/**
+ * Lock-free ring buffer of PCM bytes for exactly one writer thread and one
+ * reader thread. The positions only ever grow; each is written by one side
+ * and read by the other, so a volatile long each is all the synchronization
+ * needed. A write that does not fit is cut short, the caller counts what
+ * was dropped.
+ */
+public class PcmRingBuffer {
+    private final byte[] mBuffer;
+
+    private final int mMask;
+
+    /* Total bytes written, only changed by the writer */
+    private volatile long mWritePos = 0;
+
+    /* Total bytes read, only changed by the reader */
+    private volatile long mReadPos = 0;
+
+    /** A buffer of at least "minCapacity" bytes, rounded up to a power of two */
+    public PcmRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(minCapacity, 2) - 1) << 1;
+        mBuffer = new byte[capacity];
+        mMask = capacity - 1;
+    }
+
+    public int getCapacity() {
+        return mBuffer.length;
+    }
+
+    /** Bytes waiting for the reader */
+    public int available() {
+        return (int) (mWritePos - mReadPos);
+    }
+
+    /** Writer side: copy in up to "length" bytes, returns how many fit */
+    public int write(byte[] data, int offset, int length) {
+        long writePos = mWritePos;
+        int count = Math.min(length, mBuffer.length - (int) (writePos - mReadPos));
+        int index = (int) (writePos & mMask);
+        int first = Math.min(count, mBuffer.length - index);
+        System.arraycopy(data, offset, mBuffer, index, first);
+        System.arraycopy(data, offset + first, mBuffer, 0, count - first);
+        mWritePos = writePos + count;
+        return count;
+    }
+
+    /** Reader side: copy out up to "length" bytes, returns how many there were */
+    public int read(byte[] data, int offset, int length) {
+        long readPos = mReadPos;
+        int count = Math.min(length, (int) (mWritePos - readPos));
+        int index = (int) (readPos & mMask);
+        int first = Math.min(count, mBuffer.length - index);
+        System.arraycopy(mBuffer, index, data, offset, first);
+        System.arraycopy(mBuffer, 0, data, offset + first, count - first);
+        mReadPos = readPos + count;
+        return count;
+    }
+
+    /** Reader side: drop everything written so far */
+    public void clear() {
+        mReadPos = mWritePos;
+    }
+}
@@ -11,8 +11,106 @@ public class PresetList {
 
     private String mListName = "";
 
+    /* Frequency -> position of the first station on that frequency */
+    private final IntIntMap mFrequencyIndex = new IntIntMap();
+
+    private boolean mIndexValid = true;
+
+    /* Bumped on every change that can affect a frequency lookup */
+    private int mModCount = 0;
+
+    /* Immutable view of the list, replaced as a whole on every change */
+    private volatile Snapshot mSnapshot;
+
+    /* Between beginUpdate() and endUpdate() changes publish no snapshot */
+    private int mUpdateDepth = 0;
+
+    private boolean mSnapshotStale = false;
+
+    /**
+     * Read-only copy of a preset list at one point in time. Readers can use it
+     * from any thread without locking; a change to the list publishes a new
+     * Snapshot instead of modifying this one.
+     */
+    public static final class Snapshot {
+        private final int mVersion;
+
+        private final String mName;
+
+        private final int[] mFrequencies;
+
+        private final String[] mNames;
+
+        private final PresetStation[] mStations;
+
+        private Snapshot(int version, String name, List<PresetStation> stations) {
+            int totalPresets = stations.size();
+            mVersion = version;
+            mName = name;
+            mFrequencies = new int[totalPresets];
+            mNames = new String[totalPresets];
+            mStations = new PresetStation[totalPresets];
+            for (int presetNum = 0; presetNum < totalPresets; presetNum++) {
+                PresetStation station = stations.get(presetNum);
+                mStations[presetNum] = station;
+                if (station != null) {
+                    mFrequencies[presetNum] = station.getFrequency();
+                    mNames[presetNum] = station.getName();
+                }
+            }
+        }
+
+        /** Increases every time the list publishes a new snapshot */
+        public int getVersion() {
+            return mVersion;
+        }
+
+        public String getListName() {
+            return mName;
+        }
+
+        public int size() {
+            return mStations.length;
+        }
+
+        public int getFrequency(int stationNum) {
+            return mFrequencies[stationNum];
+        }
+
+        public String getName(int stationNum) {
+            return mNames[stationNum];
+        }
+
+        /** The live station object, to hand back to the PresetList mutators */
+        public PresetStation getStation(int stationNum) {
+            return mStations[stationNum];
+        }
+    }
+
     public PresetList(String name) {
         mListName = name;
+        publishSnapshot();
+    }
+
+    /** Current snapshot of the list; never blocks */
+    public Snapshot snapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Start a batch of changes, e.g. loading the list: readers keep the
+     * previous snapshot until endUpdate() publishes one for the whole batch,
+     * instead of a copy per station.
+     */
+    public synchronized void beginUpdate() {
+        mUpdateDepth++;
+    }
+
+    public synchronized void endUpdate() {
+        if ((--mUpdateDepth == 0) && mSnapshotStale) {
+            mSnapshotStale = false;
+            publishSnapshot();
+        }
     }
 
     public String getName() {
@@ -43,18 +141,21 @@ public class PresetList {
         return frequency;
     }
 
-    public void setName(String name) {
+    public synchronized void setName(String name) {
         mListName = name;
+        publishSnapshot();
     }
 
     public synchronized void setStationFrequency(int stationNum, int frequency) {
         PresetStation mStation = mPresetList.get(stationNum);
         mStation.setFrequency(frequency);
+        invalidateIndex();
     }
 
     public synchronized void setStationName(int stationNum, String name) {
         PresetStation mStation = mPresetList.get(stationNum);
         mStation.setName(name);
+        publishSnapshot();
     }
 
     public synchronized PresetStation getStationFromIndex(int index) {
@@ -67,22 +168,43 @@ public class PresetList {
     }
 
     public synchronized PresetStation getStationFromFrequency(int frequency) {
-        int totalPresets = mPresetList.size();
-        for (int presetNum = 0; presetNum < totalPresets; presetNum++) {
+        int presetNum = indexOfFrequency(frequency);
+        if (presetNum >= 0) {
+            return mPresetList.get(presetNum);
+        }
+        return null;
+    }
+
+    /** Position of the first station tuned to "frequency", or -1 */
+    public synchronized int indexOfFrequency(int frequency) {
+        if (!mIndexValid) {
+            rebuildIndex();
+        }
+        int presetNum = mFrequencyIndex.get(frequency, -1);
+        if (presetNum >= 0) {
             PresetStation station = mPresetList.get(presetNum);
-            if (station != null) {
-                if (frequency == station.getFrequency()) {
-                    return station;
-                }
+            if ((station == null) || (station.getFrequency() != frequency)) {
+                /* A station was changed behind our back, start over */
+                rebuildIndex();
+                presetNum = mFrequencyIndex.get(frequency, -1);
             }
         }
-        return null;
+        return presetNum;
+    }
+
+    public synchronized boolean containsFrequency(int frequency) {
+        return indexOfFrequency(frequency) >= 0;
+    }
+
+    public synchronized int getModCount() {
+        return mModCount;
     }
 
     public synchronized PresetStation addStation(String name, int freq) {
         PresetStation addStation = new PresetStation(name, freq);
         if (addStation != null) {
             mPresetList.add(addStation);
+            indexStation(addStation, mPresetList.size() - 1);
         }
         return addStation;
     }
@@ -92,6 +214,7 @@ public class PresetList {
         if (station != null) {
             addStation = new PresetStation(station);
             mPresetList.add(addStation);
+            indexStation(addStation, mPresetList.size() - 1);
         }
         return addStation;
     }
@@ -100,6 +223,7 @@ public class PresetList {
         int totalPresets = mPresetList.size();
         if (index < totalPresets) {
             mPresetList.remove(index);
+            invalidateIndex();
         }
     }
 
@@ -108,11 +232,54 @@ public class PresetList {
         int totalPresets = mPresetList.size();
         if (index < totalPresets) {
             mPresetList.remove(index);
+            invalidateIndex();
         }
     }
 
     public synchronized void clear() {
         mPresetList.clear();
+        mFrequencyIndex.clear();
+        mIndexValid = true;
+        mModCount++;
+        publishSnapshot();
+    }
+
+    private void indexStation(PresetStation station, int presetNum) {
+        if (mIndexValid) {
+            mFrequencyIndex.putIfAbsent(station.getFrequency(), presetNum);
+        }
+        mModCount++;
+        publishSnapshot();
+    }
+
+    /* Positions shift on removal, rebuild lazily on the next lookup */
+    private void invalidateIndex() {
+        mIndexValid = false;
+        mModCount++;
+        publishSnapshot();
+    }
+
+    /* Called with the list monitor held by every mutator */
+    private void publishSnapshot() {
+        if (mUpdateDepth > 0) {
+            mSnapshotStale = true;
+            return;
+        }
+        Snapshot current = mSnapshot;
+        int version = (current == null) ? 0 : current.getVersion() + 1;
+        mSnapshot = new Snapshot(version, mListName, mPresetList);
+    }
+
+    private void rebuildIndex() {
+        mFrequencyIndex.clear();
+        int totalPresets = mPresetList.size();
+        for (int presetNum = 0; presetNum < totalPresets; presetNum++) {
+            PresetStation station = mPresetList.get(presetNum);
+            if (station != null) {
+                mFrequencyIndex.putIfAbsent(station.getFrequency(), presetNum);
+            }
+        }
+        mIndexValid = true;
     }
 
     /*
@@ -122,7 +289,16 @@ public class PresetList {
     public synchronized boolean setSelectedStation(PresetStation selectStation) {
         int totalPresets = mPresetList.size();
         if (selectStation != null) {
-            for (int presetNum = 0; presetNum < totalPresets; presetNum++) {
+            /* Common case: the first station on that frequency has that name */
+            int first = indexOfFrequency(selectStation.getFrequency());
+            if (first < 0) {
+                return false;
+            }
+            if (selectStation.getName().equalsIgnoreCase(mPresetList.get(first).getName())) {
+                mCurrentStation = first;
+                return true;
+            }
+            for (int presetNum = first + 1; presetNum < totalPresets; presetNum++) {
                 PresetStation station = mPresetList.get(presetNum);
                 if (station != null) {
                     if (selectStation.getFrequency() == station.getFrequency()) {
@@ -141,16 +317,8 @@ public class PresetList {
      * Check if the same station already exists in a List to update the list.
      */
     public synchronized boolean sameStationExists(PresetStation compareStation) {
-        int totalPresets = mPresetList.size();
         if (compareStation != null) {
-            for (int presetNum = 0; presetNum < totalPresets; presetNum++) {
-                PresetStation station = mPresetList.get(presetNum);
-                if (station != null) {
-                    if (compareStation.getFrequency() == station.getFrequency()) {
-                        return true;
-                    }
-                }
-            }
+            return containsFrequency(compareStation.getFrequency());
         }
         return false;
     }
@@ -205,16 +373,10 @@ public class PresetList {
     }
 
     public synchronized void selectStation(PresetStation selectStation) {
-        int totalPresets = mPresetList.size();
         if (selectStation != null) {
-            for (int presetNum = 0; presetNum < totalPresets; presetNum++) {
-                PresetStation station = mPresetList.get(presetNum);
-                if (station != null) {
-                    if (selectStation.getFrequency() == station.getFrequency()) {
-                        mCurrentStation = presetNum;
-                        return;
-                    }
-                }
+            int presetNum = indexOfFrequency(selectStation.getFrequency());
+            if (presetNum >= 0) {
+                mCurrentStation = presetNum;
             }
         }
     }
@@ -1,10 +1,16 @@
 
 package com.android.fm.radio;
 
-import android.hardware.fmradio.FmReceiver;
+import android.content.Context;
+import android.content.res.Resources;
 import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.fm.R;
 
 public class PresetStation {
+    private static final String LOGTAG = FMRadio.LOGTAG;
+
     private String mName = "";
 
     private int mFrequency = 102100;
@@ -139,6 +145,38 @@ public class PresetStation {
      * 0x54A6 -> KZZY
      */
     public static String parsePI(int piCode) {
+        if ((piCode < 0) || (piCode > 0xFFFF)) {
+            return decodePI(piCode);
+        }
+        String[] page = mCallSignPages[piCode >> 8];
+        String callSign = (page != null) ? page[piCode & 0xFF] : null;
+        if (callSign == null) {
+            /* Page not built yet, or not yet visible to this thread */
+            callSign = loadCallSignPage(piCode >> 8)[piCode & 0xFF];
+        }
+        return callSign;
+    }
+
+    /*
+     * Decoded call signs for the whole 16-bit PI space, in 256 pages of 256
+     * codes. A page is decoded and interned the first time a code in it is
+     * looked up; after that a lookup is two array reads.
+     */
+    private static final String[][] mCallSignPages = new String[256][];
+
+    private static synchronized String[] loadCallSignPage(int pageNum) {
+        String[] page = mCallSignPages[pageNum];
+        if (page == null) {
+            page = new String[256];
+            for (int i = 0; i < 256; i++) {
+                page[i] = decodePI((pageNum << 8) | i).intern();
+            }
+            mCallSignPages[pageNum] = page;
+        }
+        return page;
+    }
+
+    private static String decodePI(int piCode) {
         String callSign = "";
         if ((piCode >> 8) == 0xAF) {// CALL LETTERS THAT MAP TO PI CODES = _ _ 0
                                     // 0.
@@ -200,571 +238,186 @@ public class PresetStation {
         return callSign;
     }
 
+    /*
+     * 3-letter-only call letters, indexed by (piCode - THREE_LETTER_FIRST_PI).
+     * Codes without an assigned call sign map to "".
+     */
+    private static final int THREE_LETTER_FIRST_PI = 0x9950;
+
+    private static final String[] THREE_LETTER_CALL_SIGNS = {
+            /* 0x9950 */ "KEX", "KFH", "KFI", "KGA", "KGO", "KGU", "KGW", "KGY",
+            /* 0x9958 */ "KID", "KIT", "KJR", "KLO", "KLZ", "KMA", "KMJ", "KNX",
+            /* 0x9960 */ "KOA", "", "", "", "KQV", "KSL", "KUJ", "KVI",
+            /* 0x9968 */ "KWG", "", "", "KYW", "", "WBZ", "WDZ", "WEW",
+            /* 0x9970 */ "", "WGL", "WGN", "WGR", "", "WHA", "WHB", "WHK",
+            /* 0x9978 */ "WHO", "", "WIP", "WJR", "WKY", "WLS", "WLW", "",
+            /* 0x9980 */ "", "WOC", "", "WOL", "WOR", "", "", "",
+            /* 0x9988 */ "WWJ", "WWL", "", "", "", "", "", "",
+            /* 0x9990 */ "KDB", "KGB", "KOY", "KPQ", "KSD", "KUT", "KXL", "KXO",
+            /* 0x9998 */ "", "WBT", "WGH", "WGY", "WHP", "WIL", "WMC", "WMT",
+            /* 0x99A0 */ "WOI", "WOW", "WRR", "WSB", "WSM", "KBW", "KCY", "KDF",
+            /* 0x99A8 */ "", "", "KHQ", "KOB", "", "", "", "",
+            /* 0x99B0 */ "", "", "", "WIS", "WJW", "WJZ", "", "",
+            /* 0x99B8 */ "", "WRC"
+    };
+
     private static String get3LetterCallSign(int piCode) {
-        String callSign = "";
-        switch (piCode) {
-            case 0x99A5: {
-                callSign = "KBW";
-                break;
-            }
-            case 0x9992: {
-                callSign = "KOY";
-                break;
-            }
-            case 0x9978: {
-                callSign = "WHO";
-                break;
-            }
-            case 0x99A6: {
-                callSign = "KCY";
-                break;
-            }
-            case 0x9993: {
-                callSign = "KPQ";
-                break;
-            }
-            case 0x999C: {
-                callSign = "WHP";
-                break;
-            }
-            case 0x9990: {
-                callSign = "KDB";
-                break;
-            }
-            case 0x9964: {
-                callSign = "KQV";
-                break;
-            }
-            case 0x999D: {
-                callSign = "WIL";
-                break;
-            }
-            case 0x99A7: {
-                callSign = "KDF";
-                break;
-            }
-            case 0x9994: {
-                callSign = "KSD";
-                break;
-            }
-            case 0x997A: {
-                callSign = "WIP";
-                break;
-            }
-            case 0x9950: {
-                callSign = "KEX";
-                break;
-            }
-            case 0x9965: {
-                callSign = "KSL";
-                break;
-            }
-            case 0x99B3: {
-                callSign = "WIS";
-                break;
-            }
-            case 0x9951: {
-                callSign = "KFH";
-                break;
-            }
-            case 0x9966: {
-                callSign = "KUJ";
-                break;
-            }
-            case 0x997B: {
-                callSign = "WJR";
-                break;
-            }
-            case 0x9952: {
-                callSign = "KFI";
-                break;
-            }
-            case 0x9995: {
-                callSign = "KUT";
-                break;
-            }
-            case 0x99B4: {
-                callSign = "WJW";
-                break;
-            }
-            case 0x9953: {
-                callSign = "KGA";
-                break;
-            }
-            case 0x9967: {
-                callSign = "KVI";
-                break;
-            }
-            case 0x99B5: {
-                callSign = "WJZ";
-                break;
-            }
-            case 0x9991: {
-                callSign = "KGB";
-                break;
-            }
-            case 0x9968: {
-                callSign = "KWG";
-                break;
-            }
-            case 0x997C: {
-                callSign = "WKY";
-                break;
-            }
-            case 0x9954: {
-                callSign = "KGO";
-                break;
-            }
-            case 0x9996: {
-                callSign = "KXL";
-                break;
-            }
-            case 0x997D: {
-                callSign = "WLS";
-                break;
-            }
-            case 0x9955: {
-                callSign = "KGU";
-                break;
-            }
-            case 0x9997: {
-                callSign = "KXO";
-                break;
-            }
-            case 0x997E: {
-                callSign = "WLW";
-                break;
-            }
-            case 0x9956: {
-                callSign = "KGW";
-                break;
-            }
-            case 0x996B: {
-                callSign = "KYW";
-                break;
-            }
-            case 0x999E: {
-                callSign = "WMC";
-                break;
-            }
-            case 0x9957: {
-                callSign = "KGY";
-                break;
-            }
-            case 0x9999: {
-                callSign = "WBT";
-                break;
-            }
-            case 0x999F: {
-                callSign = "WMT";
-                break;
-            }
-            case 0x99AA: {
-                callSign = "KHQ";
-                break;
-            }
-            case 0x996D: {
-                callSign = "WBZ";
-                break;
-            }
-            case 0x9981: {
-                callSign = "WOC";
-                break;
-            }
-            case 0x9958: {
-                callSign = "KID";
-                break;
-            }
-            case 0x996E: {
-                callSign = "WDZ";
-                break;
-            }
-            case 0x99A0: {
-                callSign = "WOI";
-                break;
-            }
-            case 0x9959: {
-                callSign = "KIT";
-                break;
-            }
-            case 0x996F: {
-                callSign = "WEW";
-                break;
-            }
-            case 0x9983: {
-                callSign = "WOL";
-                break;
-            }
-            case 0x995A: {
-                callSign = "KJR";
-                break;
-            }
-            case 0x999A: {
-                callSign = "WGH";
-                break;
-            }
-            case 0x9984: {
-                callSign = "WOR";
-                break;
-            }
-            case 0x995B: {
-                callSign = "KLO";
-                break;
-            }
-            case 0x9971: {
-                callSign = "WGL";
-                break;
-            }
-            case 0x99A1: {
-                callSign = "WOW";
-                break;
-            }
-            case 0x995C: {
-                callSign = "KLZ";
-                break;
-            }
-            case 0x9972: {
-                callSign = "WGN";
-                break;
-            }
-            case 0x99B9: {
-                callSign = "WRC";
-                break;
-            }
-            case 0x995D: {
-                callSign = "KMA";
-                break;
-            }
-            case 0x9973: {
-                callSign = "WGR";
-                break;
-            }
-            case 0x99A2: {
-                callSign = "WRR";
-                break;
-            }
-            case 0x995E: {
-                callSign = "KMJ";
-                break;
-            }
-            case 0x999B: {
-                callSign = "WGY";
-                break;
-            }
-            case 0x99A3: {
-                callSign = "WSB";
-                break;
-            }
-            case 0x995F: {
-                callSign = "KNX";
-                break;
-            }
-            case 0x9975: {
-                callSign = "WHA";
-                break;
-            }
-            case 0x99A4: {
-                callSign = "WSM";
-                break;
-            }
-            case 0x9960: {
-                callSign = "KOA";
-                break;
-            }
-            case 0x9976: {
-                callSign = "WHB";
-                break;
-            }
-            case 0x9988: {
-                callSign = "WWJ";
-                break;
-            }
-            case 0x99AB: {
-                callSign = "KOB";
-                break;
-            }
-            case 0x9977: {
-                callSign = "WHK";
-                break;
-            }
-            case 0x9989: {
-                callSign = "WWL";
-                break;
+        int index = piCode - THREE_LETTER_FIRST_PI;
+        if ((index >= 0) && (index < THREE_LETTER_CALL_SIGNS.length)) {
+            return THREE_LETTER_CALL_SIGNS[index];
+        }
+        return "";
+    }
+
+    /*
+     * Program type names indexed by PTY code, one table per RDS standard.
+     * The built in English tables are replaced by the localized names from
+     * the search category resources the first time loadPtyStrings() runs.
+     */
+    private static final int NUM_PTY = 32;
+
+    private static final String[] RDS_PTY_NAMES = {
+            /*  0 */ "",
+            /*  1 */ "News",
+            /*  2 */ "Current Affairs",
+            /*  3 */ "Information",
+            /*  4 */ "Sport",
+            /*  5 */ "Education",
+            /*  6 */ "Drama",
+            /*  7 */ "Culture",
+            /*  8 */ "Science",
+            /*  9 */ "Varied",
+            /* 10 */ "Pop Music",
+            /* 11 */ "Rock Music",
+            /* 12 */ "Easy Listening Music",
+            /* 13 */ "Light classical",
+            /* 14 */ "Serious classical",
+            /* 15 */ "Other Music",
+            /* 16 */ "Weather",
+            /* 17 */ "Finance",
+            /* 18 */ "Children programs",
+            /* 19 */ "Social Affairs",
+            /* 20 */ "Religion",
+            /* 21 */ "Phone In",
+            /* 22 */ "Travel",
+            /* 23 */ "Leisure",
+            /* 24 */ "Jazz Music",
+            /* 25 */ "Country Music",
+            /* 26 */ "National Music",
+            /* 27 */ "Oldies Music",
+            /* 28 */ "Folk Music",
+            /* 29 */ "Documentary",
+            /* 30 */ "Emergency Test",
+            /* 31 */ "Emergency"
+    };
+
+    private static final String[] RBDS_PTY_NAMES = {
+            /*  0 */ "",
+            /*  1 */ "News",
+            /*  2 */ "Information",
+            /*  3 */ "Sports",
+            /*  4 */ "Talk",
+            /*  5 */ "Rock",
+            /*  6 */ "Classic Rock",
+            /*  7 */ "Adult Hits",
+            /*  8 */ "Soft Rock",
+            /*  9 */ "Top 40",
+            /* 10 */ "Country",
+            /* 11 */ "Oldies",
+            /* 12 */ "Soft",
+            /* 13 */ "Nostalgia",
+            /* 14 */ "Jazz",
+            /* 15 */ "Classical",
+            /* 16 */ "Rhythm and Blues",
+            /* 17 */ "Soft Rhythm and Blues",
+            /* 18 */ "Foreign Language",
+            /* 19 */ "Religious Music",
+            /* 20 */ "Religious Talk",
+            /* 21 */ "Personality",
+            /* 22 */ "Public",
+            /* 23 */ "College",
+            /* 24 */ "",
+            /* 25 */ "",
+            /* 26 */ "",
+            /* 27 */ "",
+            /* 28 */ "",
+            /* 29 */ "Weather",
+            /* 30 */ "Emergency Test",
+            /* 31 */ "Emergency"
+    };
+
+    private static volatile String[] mRdsPtyStrings = RDS_PTY_NAMES;
+
+    private static volatile String[] mRbdsPtyStrings = RBDS_PTY_NAMES;
+
+    private static boolean mPtyStringsLoaded = false;
+
+    /**
+     * Load the localized PTY names. Only the first call does any work.
+     */
+    public static synchronized void loadPtyStrings(Context context) {
+        if (mPtyStringsLoaded || (context == null)) {
+            return;
+        }
+        Resources res = context.getResources();
+        mRdsPtyStrings = buildPtyTable(RDS_PTY_NAMES,
+                res.getStringArray(R.array.search_category_rds_entries),
+                res.getStringArray(R.array.search_category_rds_values));
+        mRbdsPtyStrings = buildPtyTable(RBDS_PTY_NAMES,
+                res.getStringArray(R.array.search_category_rbds_entries),
+                res.getStringArray(R.array.search_category_rbds_values));
+        mPtyStringsLoaded = true;
+    }
+
+    private static String[] buildPtyTable(String[] defaults, String[] entries, String[] values) {
+        String[] table = defaults.clone();
+        if ((entries == null) || (values == null)) {
+            return table;
+        }
+        int count = Math.min(entries.length, values.length);
+        for (int i = 0; i < count; i++) {
+            try {
+                int pty = Integer.parseInt(values[i]);
+                /* PTY 0 is "All Stations" in the search list, but has no name */
+                if ((pty > 0) && (pty < NUM_PTY)) {
+                    table[pty] = entries[i].intern();
+                }
+            } catch (NumberFormatException e) {
+                Log.e(LOGTAG, "Invalid PTY value: " + values[i]);
             }
         }
-        return callSign;
+        return table;
     }
 
     /**
      * Get the Text String for the Program type Code
      */
     public static String parsePTY(int pty) {
-        String ptyStr = "";
-        int rdsStd = FmSharedPreferences.getFMConfiguration().getRdsStd();
-        if (rdsStd == FmReceiver.FM_RDS_STD_RBDS) {
-            ptyStr = getRBDSPtyString(pty);
-        } else if (rdsStd == FmReceiver.FM_RDS_STD_RDS) {
-            ptyStr = getRDSPtyString(pty);
+        if (FmSharedPreferences.isRBDSStd()) {
+            return getRBDSPtyString(pty);
+        } else if (FmSharedPreferences.isRDSStd()) {
+            return getRDSPtyString(pty);
         }
-        return (ptyStr);
+        return "";
     }
 
     /**
      * get the Text String for the RBDS Program type Code
      */
     public static String getRBDSPtyString(int pty) {
-        String ptyStr = "";
-        switch (pty) {
-            case 1: {
-                ptyStr = "News";
-                break;
-            }
-            case 2: {
-                ptyStr = "Information";
-                break;
-            }
-            case 3: {
-                ptyStr = "Sports";
-                break;
-            }
-            case 4: {
-                ptyStr = "Talk";
-                break;
-            }
-            case 5: {
-                ptyStr = "Rock";
-                break;
-            }
-            case 6: {
-                ptyStr = "Classic Rock";
-                break;
-            }
-            case 7: {
-                ptyStr = "Adult Hits";
-                break;
-            }
-            case 8: {
-                ptyStr = "Soft Rock";
-                break;
-            }
-            case 9: {
-                ptyStr = "Top 40";
-                break;
-            }
-            case 10: {
-                ptyStr = "Country";
-                break;
-            }
-            case 11: {
-                ptyStr = "Oldies";
-                break;
-            }
-            case 12: {
-                ptyStr = "Soft";
-                break;
-            }
-            case 13: {
-                ptyStr = "Nostalgia";
-                break;
-            }
-            case 14: {
-                ptyStr = "Jazz";
-                break;
-            }
-            case 15: {
-                ptyStr = "Classical";
-                break;
-            }
-            case 16: {
-                ptyStr = "Rhythm and Blues";
-                break;
-            }
-            case 17: {
-                ptyStr = "Soft Rhythm and Blues";
-                break;
-            }
-            case 18: {
-                ptyStr = "Foreign Language";
-                break;
-            }
-            case 19: {
-                ptyStr = "Religious Music";
-                break;
-            }
-            case 20: {
-                ptyStr = "Religious Talk";
-                break;
-            }
-            case 21: {
-                ptyStr = "Personality";
-                break;
-            }
-            case 22: {
-                ptyStr = "Public";
-                break;
-            }
-            case 23: {
-                ptyStr = "College";
-                break;
-            }
-            case 29: {
-                ptyStr = "Weather";
-                break;
-            }
-            case 30: {
-                ptyStr = "Emergency Test";
-                break;
-            }
-            case 31: {
-                ptyStr = "Emergency";
-                break;
-            }
-            default: {
-                ptyStr = "";
-                // Log.e(FMRadio.LOGTAG, "Unknown RBDS ProgramType [" + pty +
-                // "]");
-                break;
-            }
+        String[] table = mRbdsPtyStrings;
+        if ((pty >= 0) && (pty < table.length)) {
+            return table[pty];
         }
-        return ptyStr;
+        return "";
     }
 
     /** get the Text String for the Program type Code */
     public static String getRDSPtyString(int pty) {
-        String ptyStr = "";
-        switch (pty) {
-            case 1: {
-                ptyStr = "News";
-                break;
-            }
-            case 2: {
-                ptyStr = "Current Affairs";
-                break;
-            }
-            case 3: {
-                ptyStr = "Information";
-                break;
-            }
-            case 4: {
-                ptyStr = "Sport";
-                break;
-            }
-            case 5: {
-                ptyStr = "Education";
-                break;
-            }
-            case 6: {
-                ptyStr = "Drama";
-                break;
-            }
-            case 7: {
-                ptyStr = "Culture";
-                break;
-            }
-            case 8: {
-                ptyStr = "Science";
-                break;
-            }
-            case 9: {
-                ptyStr = "Varied";
-                break;
-            }
-            case 10: {
-                ptyStr = "Pop Music";
-                break;
-            }
-            case 11: {
-                ptyStr = "Rock Music";
-                break;
-            }
-            case 12: {
-                ptyStr = "Easy Listening Music";
-                break;
-            }
-            case 13: {
-                ptyStr = "Light classical";
-                break;
-            }
-            case 14: {
-                ptyStr = "Serious classical";
-                break;
-            }
-            case 15: {
-                ptyStr = "Other Music";
-                break;
-            }
-            case 16: {
-                ptyStr = "Weather";
-                break;
-            }
-            case 17: {
-                ptyStr = "Finance";
-                break;
-            }
-            case 18: {
-                ptyStr = "Children programs";
-                break;
-            }
-            case 19: {
-                ptyStr = "Social Affairs";
-                break;
-            }
-            case 20: {
-                ptyStr = "Religion";
-                break;
-            }
-            case 21: {
-                ptyStr = "Phone In";
-                break;
-            }
-            case 22: {
-                ptyStr = "Travel";
-                break;
-            }
-            case 23: {
-                ptyStr = "Leisure";
-                break;
-            }
-            case 24: {
-                ptyStr = "Jazz Music";
-                break;
-            }
-            case 25: {
-                ptyStr = "Country Music";
-                break;
-            }
-            case 26: {
-                ptyStr = "National Music";
-                break;
-            }
-            case 27: {
-                ptyStr = "Oldies Music";
-                break;
-            }
-            case 28: {
-                ptyStr = "Folk Music";
-                break;
-            }
-            case 29: {
-                ptyStr = "Documentary";
-                break;
-            }
-            case 30: {
-                ptyStr = "Emergency Test";
-                break;
-            }
-            case 31: {
-                ptyStr = "Emergency";
-                break;
-            }
-            default: {
-                ptyStr = "";
-                // Log.e(FMRadio.LOGTAG, "Unknown RDS ProgramType [" + pty +
-                // "]");
-                break;
-            }
+        String[] table = mRdsPtyStrings;
+        if ((pty >= 0) && (pty < table.length)) {
+            return table[pty];
         }
-        return ptyStr;
+        return "";
     }
-
 }
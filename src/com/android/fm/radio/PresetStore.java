@@ -0,0 +1,327 @@
+package com.android.fm.radio;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary, memory mapped storage for the preset lists.
+ *
+ * The file is laid out as a fixed size header, followed by a table of
+ * MAX_LISTS list records and then MAX_LISTS * MAX_STATIONS station records.
+ * Every record has a fixed width so a station can be located by its list and
+ * station index alone, and a save only rewrites the records whose encoded
+ * bytes actually changed.
+ *
+ * <pre>
+ * Header  : magic, version, max lists, max stations, list count
+ * List    : station count, name length, name (UTF-16)
+ * Station : frequency, PI, PTY, flags, name length, name (UTF-16)
+ * </pre>
+ */
+public class PresetStore {
+    private static final String LOGTAG = FMRadio.LOGTAG;
+
+    private static final String STORE_FILE = "presets.bin";
+
+    /* "FMPS" */
+    private static final int MAGIC = 0x464D5053;
+
+    private static final int VERSION = 1;
+
+    public static final int MAX_LISTS = 16;
+
+    public static final int MAX_STATIONS = 64;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final int LIST_RECORD_SIZE = 64;
+
+    private static final int STATION_RECORD_SIZE = 64;
+
+    /* Name capacity in characters, what remains of the record after the fixed fields */
+    private static final int MAX_LIST_NAME = (LIST_RECORD_SIZE - 6) / 2;
+
+    private static final int MAX_STATION_NAME = (STATION_RECORD_SIZE - 14) / 2;
+
+    private static final int HDR_MAGIC = 0;
+
+    private static final int HDR_VERSION = 4;
+
+    private static final int HDR_MAX_LISTS = 8;
+
+    private static final int HDR_MAX_STATIONS = 12;
+
+    private static final int HDR_LIST_COUNT = 16;
+
+    private static final int LIST_TABLE_OFFSET = HEADER_SIZE;
+
+    private static final int STATION_AREA_OFFSET = LIST_TABLE_OFFSET + MAX_LISTS
+            * LIST_RECORD_SIZE;
+
+    private static final int STORE_SIZE = STATION_AREA_OFFSET + MAX_LISTS * MAX_STATIONS
+            * STATION_RECORD_SIZE;
+
+    private static final int FLAG_RDS_SUPPORTED = 0x0001;
+
+    private final MappedByteBuffer mBuffer;
+
+    /* Scratch record, encoded first and compared against the mapped bytes */
+    private final byte[] mRecord = new byte[Math.max(LIST_RECORD_SIZE, STATION_RECORD_SIZE)];
+
+    private final ByteBuffer mRecordBuffer = ByteBuffer.wrap(mRecord);
+
+    private boolean mExisted;
+
+    private PresetStore(MappedByteBuffer buffer, boolean existed) {
+        mBuffer = buffer;
+        mExisted = existed;
+    }
+
+    /**
+     * Open (or create) the preset store in the application files directory.
+     *
+     * @return the store, or null if the file could not be mapped
+     */
+    public static PresetStore open(Context context) {
+        File file = new File(context.getFilesDir(), STORE_FILE);
+        boolean existed = file.exists() && (file.length() == STORE_SIZE);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(STORE_SIZE);
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, STORE_SIZE);
+            return new PresetStore(buffer, existed);
+        } catch (IOException e) {
+            Log.e(LOGTAG, "Unable to map preset store: " + file, e);
+            return null;
+        } finally {
+            /* The mapping stays valid after the file is closed */
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /** Does the store hold a complete, supported set of preset lists */
+    public synchronized boolean isValid() {
+        return mExisted && (mBuffer.getInt(HDR_MAGIC) == MAGIC)
+                && (mBuffer.getInt(HDR_VERSION) == VERSION)
+                && (mBuffer.getInt(HDR_MAX_LISTS) == MAX_LISTS)
+                && (mBuffer.getInt(HDR_MAX_STATIONS) == MAX_STATIONS);
+    }
+
+    public synchronized int getListCount() {
+        return clamp(mBuffer.getInt(HDR_LIST_COUNT), MAX_LISTS);
+    }
+
+    public synchronized String getListName(int listIndex) {
+        int offset = listOffset(listIndex);
+        int length = clamp(mBuffer.getShort(offset + 4), MAX_LIST_NAME);
+        return readChars(offset + 6, length);
+    }
+
+    public synchronized int getStationCount(int listIndex) {
+        return clamp(mBuffer.getInt(listOffset(listIndex)), MAX_STATIONS);
+    }
+
+    /** Append every station stored for "listIndex" to "list" */
+    public synchronized void readStations(int listIndex, PresetList list) {
+        int numStations = getStationCount(listIndex);
+        list.beginUpdate();
+        try {
+            readStationRecords(listIndex, list, numStations);
+        } finally {
+            list.endUpdate();
+        }
+    }
+
+    private void readStationRecords(int listIndex, PresetList list, int numStations) {
+        for (int stationIter = 0; stationIter < numStations; stationIter++) {
+            int offset = stationOffset(listIndex, stationIter);
+            int frequency = mBuffer.getInt(offset);
+            int pi = mBuffer.getInt(offset + 4);
+            int pty = mBuffer.getShort(offset + 8);
+            int flags = mBuffer.getShort(offset + 10);
+            int length = clamp(mBuffer.getShort(offset + 12), MAX_STATION_NAME);
+
+            PresetStation station = list.addStation(readChars(offset + 14, length), frequency);
+            station.setPI(pi);
+            station.setPty(pty);
+            station.setRDSSupported((flags & FLAG_RDS_SUPPORTED) != 0);
+        }
+    }
+
+    /**
+     * Can "lists" be written without dropping a list or station or
+     * truncating a name. A migration must not lose presets.
+     */
+    public static boolean fits(List<PresetList> lists) {
+        if (lists.size() > MAX_LISTS) {
+            return false;
+        }
+        for (PresetList curList : lists) {
+            if ((curList.getName() != null) && (curList.getName().length() > MAX_LIST_NAME)) {
+                return false;
+            }
+            synchronized (curList) {
+                int totalPresets = curList.getStationCount();
+                if (totalPresets > MAX_STATIONS) {
+                    return false;
+                }
+                for (int stationIter = 0; stationIter < totalPresets; stationIter++) {
+                    PresetStation station = curList.getStationFromIndex(stationIter);
+                    if ((station != null) && (station.getName() != null)
+                            && (station.getName().length() > MAX_STATION_NAME)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the preset lists, only touching records that differ from what is
+     * already stored. Lists and stations past the store capacity are dropped
+     * and names are truncated to fit their record.
+     *
+     * @return the number of records rewritten
+     */
+    public synchronized int write(List<PresetList> lists) {
+        int written = 0;
+        int numLists = Math.min(lists.size(), MAX_LISTS);
+        if (lists.size() > MAX_LISTS) {
+            Log.w(LOGTAG, "Preset store full, dropping " + (lists.size() - MAX_LISTS) + " lists");
+        }
+
+        for (int listIter = 0; listIter < numLists; listIter++) {
+            PresetList curList = lists.get(listIter);
+            int numStations = 0;
+            synchronized (curList) {
+                int totalPresets = curList.getStationCount();
+                for (int stationIter = 0; stationIter < totalPresets
+                        && numStations < MAX_STATIONS; stationIter++) {
+                    PresetStation station = curList.getStationFromIndex(stationIter);
+                    if (station != null) {
+                        if (writeStation(listIter, numStations, station)) {
+                            written++;
+                        }
+                        numStations++;
+                    }
+                }
+            }
+            if (writeList(listIter, curList.getName(), numStations)) {
+                written++;
+            }
+        }
+
+        /*
+         * Header goes last: the first write is only valid once it is complete.
+         * Later writes change records in place under a valid header, a crash
+         * in the middle of one can leave a torn record behind.
+         */
+        if (!isValid() || (mBuffer.getInt(HDR_LIST_COUNT) != numLists)) {
+            mBuffer.putInt(HDR_MAGIC, MAGIC);
+            mBuffer.putInt(HDR_VERSION, VERSION);
+            mBuffer.putInt(HDR_MAX_LISTS, MAX_LISTS);
+            mBuffer.putInt(HDR_MAX_STATIONS, MAX_STATIONS);
+            mBuffer.putInt(HDR_LIST_COUNT, numLists);
+            mExisted = true;
+            written++;
+        }
+
+        if (written > 0) {
+            mBuffer.force();
+        }
+        Log.d(LOGTAG, "Preset store: " + written + " records written");
+        return written;
+    }
+
+    private boolean writeList(int listIndex, String name, int numStations) {
+        beginRecord();
+        mRecordBuffer.putInt(numStations);
+        putChars(name, MAX_LIST_NAME);
+        return commitRecord(listOffset(listIndex), LIST_RECORD_SIZE);
+    }
+
+    private boolean writeStation(int listIndex, int stationIndex, PresetStation station) {
+        beginRecord();
+        mRecordBuffer.putInt(station.getFrequency());
+        mRecordBuffer.putInt(station.getPI());
+        mRecordBuffer.putShort((short) station.getPty());
+        mRecordBuffer.putShort((short) (station.getRDSSupported() ? FLAG_RDS_SUPPORTED : 0));
+        putChars(station.getName(), MAX_STATION_NAME);
+        return commitRecord(stationOffset(listIndex, stationIndex), STATION_RECORD_SIZE);
+    }
+
+    private void beginRecord() {
+        Arrays.fill(mRecord, (byte) 0);
+        mRecordBuffer.clear();
+    }
+
+    private void putChars(String value, int maxChars) {
+        if (value == null) {
+            value = "";
+        }
+        int length = Math.min(value.length(), maxChars);
+        mRecordBuffer.putShort((short) length);
+        for (int i = 0; i < length; i++) {
+            mRecordBuffer.putChar(value.charAt(i));
+        }
+    }
+
+    /* Copy the scratch record into the mapping only if it changed */
+    private boolean commitRecord(int offset, int size) {
+        boolean changed = false;
+        for (int i = 0; i < size; i++) {
+            if (mBuffer.get(offset + i) != mRecord[i]) {
+                changed = true;
+                break;
+            }
+        }
+        if (changed) {
+            for (int i = 0; i < size; i++) {
+                mBuffer.put(offset + i, mRecord[i]);
+            }
+        }
+        return changed;
+    }
+
+    private String readChars(int offset, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = mBuffer.getChar(offset + (i * 2));
+        }
+        return new String(chars);
+    }
+
+    private static int listOffset(int listIndex) {
+        return LIST_TABLE_OFFSET + (listIndex * LIST_RECORD_SIZE);
+    }
+
+    private static int stationOffset(int listIndex, int stationIndex) {
+        return STATION_AREA_OFFSET
+                + (((listIndex * MAX_STATIONS) + stationIndex) * STATION_RECORD_SIZE);
+    }
+
+    private static int clamp(int value, int max) {
+        if (value < 0) {
+            return 0;
+        }
+        return Math.min(value, max);
+    }
+}
@@ -0,0 +1,91 @@
+package com.android.fm.radio;
+
+import android.hardware.fmradio.FmConfig;
+
+/**
+ * The FM receiver operations FMRadioService depends on. Mode, direction and
+ * dwell arguments use the FmReceiver constants. Asynchronous results are
+ * reported through the FmRxEvCallbacksAdaptor the tuner was created with.
+ */
+public interface RadioTuner {
+    /*
+     * Raw RDS block format of getRawRds(), that of the driver's struct
+     * v4l2_rds_data: data LSB, data MSB and a status byte with the block id
+     * and the error correction result (linux/videodev2.h).
+     */
+    int RDS_BLOCK_SIZE = 3;
+
+    int RDS_BLOCK_ID_MASK = 0x07;
+
+    int RDS_BLOCK_A = 0;
+
+    int RDS_BLOCK_B = 1;
+
+    int RDS_BLOCK_C = 2;
+
+    int RDS_BLOCK_D = 3;
+
+    /* C' of the version B groups */
+    int RDS_BLOCK_C_ALT = 4;
+
+    int RDS_BLOCK_INVALID = 7;
+
+    int RDS_STATUS_CORRECTED = 0x40;
+
+    int RDS_STATUS_ERROR = 0x80;
+
+    boolean enable(FmConfig config);
+
+    boolean disable();
+
+    boolean configure(FmConfig config);
+
+    boolean setStation(int frequency);
+
+    boolean searchStations(int mode, int dwellPeriod, int direction);
+
+    boolean searchStations(int mode, int dwellPeriod, int direction, int pty, int pi);
+
+    boolean searchStationList(int mode, int direction, int numStations, int pty);
+
+    boolean cancelSearch();
+
+    int[] getStationList();
+
+    boolean setMuteMode(int mode);
+
+    boolean setStereoMode(boolean stereo);
+
+    boolean setPowerMode(int mode);
+
+    int getPowerMode();
+
+    boolean enableAFjump(boolean enable);
+
+    boolean registerRdsGroupProcessing(int groups);
+
+    /**
+     * Deliver the raw RDS groups in "groupMask" (see RdsDecoder), signalled by
+     * FmRxEvRdsGroupData once "bufferSize" groups are buffered.
+     */
+    boolean setRdsGroupOptions(int groupMask, int bufferSize, boolean changeFilter);
+
+    /** Up to "numBlocks" buffered raw RDS blocks, RDS_BLOCK_SIZE bytes each, or null */
+    byte[] getRawRds(int numBlocks);
+
+    boolean setInternalAntenna(boolean internal);
+
+    boolean getInternalAntenna();
+
+    /** Signal strength on the tuned frequency, in the receiver's units */
+    int getRssi();
+
+    /** PS, PI and PTY of the tuned station, or null */
+    RdsInfo getPSInfo();
+
+    /** RT, PI and PTY of the tuned station, or null */
+    RdsInfo getRTInfo();
+
+    /** Alternative frequencies of the tuned station (kHz), from FmRxEvRdsAfInfo, or null */
+    int[] getAFInfo();
+}
@@ -0,0 +1,368 @@
+package com.android.fm.radio;
+
+/**
+ * Streaming decoder for raw RDS blocks, as read by RadioTuner.getRawRds().
+ * Blocks are assembled into groups, and the PS (groups 0A/0B) and RT
+ * (groups 2A/2B) are rebuilt segment by segment. Every character position
+ * keeps a confidence score: a clean block votes with WEIGHT_CLEAN, a block
+ * the receiver had to correct with WEIGHT_CORRECTED, and an uncorrectable
+ * block not at all. Text is only published once every position of it is
+ * stable, and only if it differs from what was published last, so a noisy
+ * station neither flickers nor floods the clients.
+ *
+ * Blocks are in the RadioTuner.RDS_BLOCK_SIZE format of the driver: data
+ * LSB, data MSB and a status byte holding the block id (A, B, C, C' or D)
+ * and the error correction result.
+ *
+ * Not thread safe: call it from the thread that receives the RDS events.
+ */
+public class RdsDecoder {
+    /* Groups asked for with RadioTuner.setRdsGroupOptions(): bit (2 * type + version) */
+    public static final int GROUP_0A = 1 << 0;
+
+    public static final int GROUP_0B = 1 << 1;
+
+    public static final int GROUP_2A = 1 << 4;
+
+    public static final int GROUP_2B = 1 << 5;
+
+    public static final int GROUPS_PS_RT = GROUP_0A | GROUP_0B | GROUP_2A | GROUP_2B;
+
+    private static final int WEIGHT_CLEAN = 2;
+
+    private static final int WEIGHT_CORRECTED = 1;
+
+    /* A position is stable at this score, which is capped so changes get through */
+    private static final int STABLE_SCORE = 4;
+
+    private static final int MAX_SCORE = 6;
+
+    private static final int PS_LENGTH = 8;
+
+    private static final int RT_LENGTH = 64;
+
+    /* 2B groups carry half the characters, so half the text */
+    private static final int RT_LENGTH_B = 32;
+
+    private static final char RT_END = '\r';
+
+    /** Receives converged text, on the decoding thread */
+    public interface Listener {
+        void onProgramService(String programService, int pty, int pi);
+
+        void onRadioText(String radioText, int pty, int pi);
+    }
+
+    /** Characters of one text field with a confidence score per position */
+    private static class TextVoter {
+        final char[] mChars;
+
+        final int[] mScores;
+
+        TextVoter(int length) {
+            mChars = new char[length];
+            mScores = new int[length];
+        }
+
+        void vote(int position, char c, int weight) {
+            if (mChars[position] == c) {
+                mScores[position] = Math.min(mScores[position] + weight, MAX_SCORE);
+            } else {
+                mScores[position] -= weight;
+                if (mScores[position] <= 0) {
+                    mChars[position] = c;
+                    mScores[position] = weight;
+                }
+            }
+        }
+
+        boolean isStable(int position) {
+            return mScores[position] >= STABLE_SCORE;
+        }
+
+        /* True if the first "length" positions are stable */
+        boolean isStable(int position, int length) {
+            for (int i = position; i < length; i++) {
+                if (!isStable(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void clear() {
+            for (int i = 0; i < mScores.length; i++) {
+                mChars[i] = 0;
+                mScores[i] = 0;
+            }
+        }
+    }
+
+    private final Listener mListener;
+
+    /* The group being assembled, indexed by block position A, B, C/C', D */
+    private final int[] mGroupData = new int[4];
+
+    private final int[] mGroupWeight = new int[4];
+
+    /* Position of the next block of the group, -1 while waiting for a block A */
+    private int mNextPosition = -1;
+
+    private final TextVoter mPs = new TextVoter(PS_LENGTH);
+
+    private final TextVoter mRt = new TextVoter(RT_LENGTH);
+
+    private int mRtLength = RT_LENGTH;
+
+    private boolean mRtFlagValid = false;
+
+    private boolean mRtFlag;
+
+    private int mPiCandidate;
+
+    private int mPiScore;
+
+    private int mPi;
+
+    private int mPty;
+
+    private String mPublishedPs;
+
+    private String mPublishedRt;
+
+    private long mBlockCount = 0;
+
+    private long mBlockErrors = 0;
+
+    private long mGroupCount = 0;
+
+    private long mPsPublished = 0;
+
+    private long mRtPublished = 0;
+
+    public RdsDecoder(Listener listener) {
+        mListener = listener;
+    }
+
+    /** Forget everything decoded so far, the receiver tuned to another station */
+    public void reset() {
+        mNextPosition = -1;
+        mPs.clear();
+        mRt.clear();
+        mRtLength = RT_LENGTH;
+        mRtFlagValid = false;
+        mPiCandidate = 0;
+        mPiScore = 0;
+        mPi = 0;
+        mPty = 0;
+        mPublishedPs = null;
+        mPublishedRt = null;
+    }
+
+    /** Decode the first "length" bytes of "blocks" */
+    public void decode(byte[] blocks, int length) {
+        if (blocks == null) {
+            return;
+        }
+        length = Math.min(length, blocks.length);
+        for (int offset = 0; (offset + RadioTuner.RDS_BLOCK_SIZE) <= length;
+                offset += RadioTuner.RDS_BLOCK_SIZE) {
+            int data = (blocks[offset] & 0xFF) | ((blocks[offset + 1] & 0xFF) << 8);
+            int status = blocks[offset + 2] & 0xFF;
+            int weight = WEIGHT_CLEAN;
+            mBlockCount++;
+            if ((status & RadioTuner.RDS_STATUS_ERROR) != 0) {
+                weight = 0;
+                mBlockErrors++;
+            } else if ((status & RadioTuner.RDS_STATUS_CORRECTED) != 0) {
+                weight = WEIGHT_CORRECTED;
+                mBlockErrors++;
+            }
+            addBlock(getPosition(status & RadioTuner.RDS_BLOCK_ID_MASK), data, weight);
+        }
+    }
+
+    /** PI once it is stable, 0 before */
+    public int getProgramId() {
+        return mPi;
+    }
+
+    public long getBlockCount() {
+        return mBlockCount;
+    }
+
+    /** Blocks that were corrected or could not be corrected */
+    public long getBlockErrors() {
+        return mBlockErrors;
+    }
+
+    public long getGroupCount() {
+        return mGroupCount;
+    }
+
+    public long getPsPublishedCount() {
+        return mPsPublished;
+    }
+
+    public long getRtPublishedCount() {
+        return mRtPublished;
+    }
+
+    private static int getPosition(int blockId) {
+        switch (blockId) {
+            case RadioTuner.RDS_BLOCK_A:
+                return 0;
+            case RadioTuner.RDS_BLOCK_B:
+                return 1;
+            case RadioTuner.RDS_BLOCK_C:
+            case RadioTuner.RDS_BLOCK_C_ALT:
+                return 2;
+            case RadioTuner.RDS_BLOCK_D:
+                return 3;
+            default:
+                return -1;
+        }
+    }
+
+    private void addBlock(int position, int data, int weight) {
+        if (position == 0) {
+            /* Block A always starts a group, whatever was missing before */
+            mNextPosition = 0;
+        } else if (position != mNextPosition) {
+            /* Lost a block, wait for the next group */
+            mNextPosition = -1;
+            return;
+        }
+        mGroupData[position] = data;
+        mGroupWeight[position] = weight;
+        if (position == 3) {
+            mNextPosition = -1;
+            decodeGroup();
+        } else {
+            mNextPosition = position + 1;
+        }
+    }
+
+    private void decodeGroup() {
+        if (mGroupWeight[0] > 0) {
+            votePi(mGroupData[0], mGroupWeight[0]);
+        }
+        /* Without block B the group type is unknown */
+        if (mGroupWeight[1] == 0) {
+            return;
+        }
+        mGroupCount++;
+        int blockB = mGroupData[1];
+        int groupType = (blockB >> 12) & 0x0F;
+        boolean versionB = (blockB & 0x0800) != 0;
+        if (mGroupWeight[1] == WEIGHT_CLEAN) {
+            mPty = (blockB >> 5) & 0x1F;
+        }
+
+        if (groupType == 0) {
+            decodePs(blockB & 0x03);
+        } else if (groupType == 2) {
+            decodeRt(blockB & 0x0F, (blockB & 0x10) != 0, versionB);
+        }
+    }
+
+    private void votePi(int pi, int weight) {
+        if (pi == mPiCandidate) {
+            mPiScore = Math.min(mPiScore + weight, MAX_SCORE);
+        } else {
+            mPiScore -= weight;
+            if (mPiScore <= 0) {
+                mPiCandidate = pi;
+                mPiScore = weight;
+            }
+        }
+        if (mPiScore >= STABLE_SCORE) {
+            mPi = mPiCandidate;
+        }
+    }
+
+    private void decodePs(int segment) {
+        int weight = mGroupWeight[3];
+        if (weight == 0) {
+            return;
+        }
+        int data = mGroupData[3];
+        mPs.vote(segment * 2, toPsChar(data >> 8), weight);
+        mPs.vote((segment * 2) + 1, toPsChar(data & 0xFF), weight);
+
+        if (mPs.isStable(0, PS_LENGTH)) {
+            String ps = new String(mPs.mChars);
+            if (!ps.equals(mPublishedPs)) {
+                mPublishedPs = ps;
+                mPsPublished++;
+                mListener.onProgramService(ps, mPty, mPi);
+            }
+        }
+    }
+
+    private void decodeRt(int segment, boolean flag, boolean versionB) {
+        if (mRtFlagValid && (flag != mRtFlag)) {
+            /* A new message, the published text stays until it converges */
+            mRt.clear();
+        }
+        mRtFlag = flag;
+        mRtFlagValid = true;
+
+        if (versionB) {
+            mRtLength = RT_LENGTH_B;
+            voteRtChars(segment * 2, mGroupData[3], mGroupWeight[3]);
+        } else {
+            mRtLength = RT_LENGTH;
+            voteRtChars(segment * 4, mGroupData[2], mGroupWeight[2]);
+            voteRtChars((segment * 4) + 2, mGroupData[3], mGroupWeight[3]);
+        }
+
+        /* The text ends at a stable carriage return, or fills the whole field */
+        int end = mRtLength;
+        for (int i = 0; i < mRtLength; i++) {
+            if (!mRt.isStable(i)) {
+                return;
+            }
+            if (mRt.mChars[i] == RT_END) {
+                end = i;
+                break;
+            }
+        }
+        String rt = trimEnd(new String(mRt.mChars, 0, end));
+        if (!rt.equals(mPublishedRt)) {
+            mPublishedRt = rt;
+            mRtPublished++;
+            mListener.onRadioText(rt, mPty, mPi);
+        }
+    }
+
+    private void voteRtChars(int position, int data, int weight) {
+        if ((weight == 0) || ((position + 1) >= mRtLength)) {
+            return;
+        }
+        mRt.vote(position, toRtChar(data >> 8), weight);
+        mRt.vote(position + 1, toRtChar(data & 0xFF), weight);
+    }
+
+    /* Only the ASCII part of the RDS character table is mapped, the rest shows as a space */
+    private static char toRtChar(int c) {
+        c &= 0xFF;
+        if (c == RT_END) {
+            return RT_END;
+        }
+        return ((c >= 0x20) && (c < 0x7F)) ? (char) c : ' ';
+    }
+
+    private static char toPsChar(int c) {
+        c &= 0xFF;
+        return ((c >= 0x20) && (c < 0x7F)) ? (char) c : ' ';
+    }
+
+    private static String trimEnd(String s) {
+        int end = s.length();
+        while ((end > 0) && (s.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        return s.substring(0, end);
+    }
+}
@@ -0,0 +1,49 @@
+package com.android.fm.radio;
+
+import android.hardware.fmradio.FmRxRdsData;
+
+/**
+ * Immutable copy of the RDS fields the service hands out (PS, RT, PTY, PI).
+ * Decouples the service from FmRxRdsData so any RadioTuner can produce it.
+ */
+public class RdsInfo {
+    private final String mProgramService;
+
+    private final String mRadioText;
+
+    private final int mProgramType;
+
+    private final int mProgramId;
+
+    public RdsInfo(String programService, String radioText, int programType, int programId) {
+        mProgramService = programService;
+        mRadioText = radioText;
+        mProgramType = programType;
+        mProgramId = programId;
+    }
+
+    /** Copy the fields out of the data returned by the FM stack, null safe */
+    public static RdsInfo fromRdsData(FmRxRdsData data) {
+        if (data == null) {
+            return null;
+        }
+        return new RdsInfo(data.getPrgmServices(), data.getRadioText(), data.getPrgmType(),
+                data.getPrgmId());
+    }
+
+    public String getProgramService() {
+        return mProgramService;
+    }
+
+    public String getRadioText() {
+        return mRadioText;
+    }
+
+    public int getProgramType() {
+        return mProgramType;
+    }
+
+    public int getProgramId() {
+        return mProgramId;
+    }
+}
@@ -0,0 +1,166 @@
+package com.android.fm.radio;
+
+/**
+ * Immutable RDS state of one station: PI, PTY, PS, RT, AF list and stereo,
+ * with the time (System.currentTimeMillis()) each was last received. Every
+ * update returns a new record, so the service can publish it through a
+ * volatile reference and binder threads never read a half updated station.
+ *
+ * PS, RT and AF with a PI other than the record's belong to another
+ * station: the fields of the old one are dropped.
+ */
+public class RdsState {
+    private final int mFrequency;
+
+    private final int mProgramId;
+
+    private final int mProgramType;
+
+    private final String mProgramService;
+
+    private final String mRadioText;
+
+    private final int[] mAfList;
+
+    private final boolean mStereo;
+
+    private final long mPsTime;
+
+    private final long mRtTime;
+
+    private final long mUpdateTime;
+
+    private RdsState(int frequency, int programId, int programType, String programService,
+            String radioText, int[] afList, boolean stereo, long psTime, long rtTime,
+            long updateTime) {
+        mFrequency = frequency;
+        mProgramId = programId;
+        mProgramType = programType;
+        mProgramService = programService;
+        mRadioText = radioText;
+        mAfList = afList;
+        mStereo = stereo;
+        mPsTime = psTime;
+        mRtTime = rtTime;
+        mUpdateTime = updateTime;
+    }
+
+    /** A station on "frequency" nothing was received from yet */
+    public static RdsState empty(int frequency) {
+        return new RdsState(frequency, 0, 0, null, null, null, false, 0, 0, 0);
+    }
+
+    /** A station read back from StationCache, all fields last received at "updateTime" */
+    static RdsState restore(int frequency, int programId, int programType,
+            String programService, String radioText, int[] afList, boolean stereo,
+            long updateTime) {
+        return new RdsState(frequency, programId, programType, programService, radioText,
+                afList, stereo, updateTime, updateTime, updateTime);
+    }
+
+    public RdsState withProgramService(String programService, int programType, int programId) {
+        long now = System.currentTimeMillis();
+        RdsState base = forProgramId(programId);
+        return new RdsState(mFrequency, programId, programType, programService,
+                base.mRadioText, base.mAfList, mStereo, now, base.mRtTime, now);
+    }
+
+    public RdsState withRadioText(String radioText, int programType, int programId) {
+        long now = System.currentTimeMillis();
+        RdsState base = forProgramId(programId);
+        return new RdsState(mFrequency, programId, programType, base.mProgramService,
+                radioText, base.mAfList, mStereo, base.mPsTime, now, now);
+    }
+
+    public RdsState withAfList(int[] afList, int programId) {
+        RdsState base = forProgramId(programId);
+        return new RdsState(mFrequency, (programId != 0) ? programId : base.mProgramId,
+                base.mProgramType, base.mProgramService, base.mRadioText,
+                (afList != null) ? afList.clone() : null, mStereo, base.mPsTime,
+                base.mRtTime, System.currentTimeMillis());
+    }
+
+    public RdsState withStereo(boolean stereo) {
+        if (stereo == mStereo) {
+            return this;
+        }
+        return new RdsState(mFrequency, mProgramId, mProgramType, mProgramService,
+                mRadioText, mAfList, stereo, mPsTime, mRtTime, System.currentTimeMillis());
+    }
+
+    /** The same station heard on its alternative frequency "frequency" */
+    public RdsState withFrequency(int frequency) {
+        return new RdsState(frequency, mProgramId, mProgramType, mProgramService, mRadioText,
+                mAfList, mStereo, mPsTime, mRtTime, mUpdateTime);
+    }
+
+    /** True if "frequency" is in the AF list */
+    public boolean hasAlternative(int frequency) {
+        if (mAfList != null) {
+            for (int af : mAfList) {
+                if (af == frequency) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /* This record, or an empty one if "programId" is another station's */
+    private RdsState forProgramId(int programId) {
+        if ((mProgramId != 0) && (programId != 0) && (programId != mProgramId)) {
+            return empty(mFrequency);
+        }
+        return this;
+    }
+
+    /** True once PS or RT was received */
+    public boolean hasRds() {
+        return (mProgramService != null) || (mRadioText != null);
+    }
+
+    public int getFrequency() {
+        return mFrequency;
+    }
+
+    /** PI, 0 if unknown */
+    public int getProgramId() {
+        return mProgramId;
+    }
+
+    public int getProgramType() {
+        return mProgramType;
+    }
+
+    /** PS, null if none was received */
+    public String getProgramService() {
+        return mProgramService;
+    }
+
+    /** RT, null if none was received */
+    public String getRadioText() {
+        return mRadioText;
+    }
+
+    /** Alternative frequencies, empty if none were received */
+    public int[] getAfList() {
+        return (mAfList != null) ? mAfList.clone() : new int[0];
+    }
+
+    public boolean isStereo() {
+        return mStereo;
+    }
+
+    public long getProgramServiceTime() {
+        return mPsTime;
+    }
+
+    public long getRadioTextTime() {
+        return mRtTime;
+    }
+
+    /** Time of the last change, 0 for an empty record */
+    public long getUpdateTime() {
+        return mUpdateTime;
+    }
+}
@@ -0,0 +1,164 @@
+package com.android.fm.radio;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.util.Log;
+
+/**
+ * Single thread running the receiver commands that take time: tune, seek,
+ * scan, search, power mode and AF. A new command drops the pending ones it
+ * supersedes: a burst of tunes collapses to the last one, and a new seek,
+ * scan or search replaces one that has not started yet. Every type replaces
+ * its own pending instance, so at most one command per type is waiting and
+ * the queue needs no other bound.
+ *
+ * Quick settings and queries (mute, stereo, power mode and search list
+ * reads, reconfigure, antenna) still call the receiver on the caller's
+ * thread.
+ */
+public class ReceiverCommandQueue {
+    private static final String LOGTAG = "FMService";
+
+    public static final int CMD_TUNE = 0;
+
+    public static final int CMD_SEEK = 1;
+
+    public static final int CMD_SCAN = 2;
+
+    public static final int CMD_SEEK_PI = 3;
+
+    public static final int CMD_SEARCH_LIST = 4;
+
+    public static final int CMD_CANCEL_SEARCH = 5;
+
+    public static final int CMD_POWER_MODE = 6;
+
+    public static final int CMD_AUTO_AF = 7;
+
+    private static final int NUM_COMMANDS = 8;
+
+    private static final String[] COMMAND_NAMES = {
+            "tune", "seek", "scan", "seek-pi", "search-list", "cancel-search",
+            "power-mode", "auto-af"
+    };
+
+    private static final int SEARCHES = (1 << CMD_SEEK) | (1 << CMD_SCAN) | (1 << CMD_SEEK_PI)
+            | (1 << CMD_SEARCH_LIST);
+
+    /* Pending commands dropped by each command, as a mask of command types */
+    private static final int[] SUPERSEDES = {
+            1 << CMD_TUNE, // CMD_TUNE
+            SEARCHES, // CMD_SEEK
+            SEARCHES, // CMD_SCAN
+            SEARCHES, // CMD_SEEK_PI
+            SEARCHES, // CMD_SEARCH_LIST
+            SEARCHES | (1 << CMD_CANCEL_SEARCH), // CMD_CANCEL_SEARCH
+            1 << CMD_POWER_MODE, // CMD_POWER_MODE
+            1 << CMD_AUTO_AF, // CMD_AUTO_AF
+    };
+
+    /* Time from submit() to the end of execution, per command */
+    private static final LatencyStats[] mLatency = new LatencyStats[NUM_COMMANDS];
+
+    static {
+        for (int command = 0; command < NUM_COMMANDS; command++) {
+            mLatency[command] = new LatencyStats("cmd-" + COMMAND_NAMES[command]);
+        }
+    }
+
+    private static class Command {
+        final Runnable mAction;
+
+        final long mSubmitNs;
+
+        Command(Runnable action, long submitNs) {
+            mAction = action;
+            mSubmitNs = submitNs;
+        }
+    }
+
+    private final HandlerThread mThread;
+
+    private final Handler mHandler;
+
+    private int mDepth = 0;
+
+    private int mMaxDepth = 0;
+
+    private long mSuperseded = 0;
+
+    public ReceiverCommandQueue() {
+        mThread = new HandlerThread("FmReceiverCommands");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                Command command = (Command) msg.obj;
+                synchronized (ReceiverCommandQueue.this) {
+                    mDepth--;
+                }
+                command.mAction.run();
+                mLatency[msg.what].recordSince(command.mSubmitNs);
+            }
+        };
+    }
+
+    /**
+     * Queue "action" as a command of type "command", dropping the pending
+     * commands it supersedes.
+     *
+     * @return false if the command thread has quit
+     */
+    public synchronized boolean submit(int command, Runnable action) {
+        int supersedes = SUPERSEDES[command];
+        for (int pending = 0; pending < NUM_COMMANDS; pending++) {
+            /* Superseding types never have more than one message pending */
+            if (((supersedes & (1 << pending)) != 0) && mHandler.hasMessages(pending)) {
+                mHandler.removeMessages(pending);
+                mDepth--;
+                mSuperseded++;
+                Log.d(LOGTAG, "Dropped pending " + COMMAND_NAMES[pending] + " for "
+                        + COMMAND_NAMES[command]);
+            }
+        }
+        if (!mHandler.sendMessage(mHandler.obtainMessage(command, new Command(action,
+                System.nanoTime())))) {
+            return false;
+        }
+        mDepth++;
+        if (mDepth > mMaxDepth) {
+            mMaxDepth = mDepth;
+        }
+        return true;
+    }
+
+    /** Drop every pending command, the running one completes */
+    public synchronized void clear() {
+        mHandler.removeCallbacksAndMessages(null);
+        mDepth = 0;
+    }
+
+    public void quit() {
+        clear();
+        mThread.quit();
+    }
+
+    /** Looper of the command thread, for work that must run as the receiver owner */
+    public Looper getLooper() {
+        return mThread.getLooper();
+    }
+
+    public synchronized int getDepth() {
+        return mDepth;
+    }
+
+    public synchronized int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    public synchronized long getSupersededCount() {
+        return mSuperseded;
+    }
+}
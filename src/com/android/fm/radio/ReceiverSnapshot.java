@@ -0,0 +1,69 @@
+package com.android.fm.radio;
+
+import android.hardware.fmradio.FmConfig;
+
+/**
+ * The last good state of the receiver, taken when FM is turned off: band
+ * configuration, tuned frequency, RDS of that station and whether an internal
+ * antenna is available. A later fmOn() with the same configuration resumes
+ * from it instead of reading everything back from the hardware.
+ */
+public class ReceiverSnapshot {
+    private final int mRadioBand;
+
+    private final int mEmphasis;
+
+    private final int mChSpacing;
+
+    private final int mRdsStd;
+
+    private final int mLowerLimit;
+
+    private final int mUpperLimit;
+
+    private final int mFrequency;
+
+    private final RdsState mRds;
+
+    private final boolean mInternalAntennaAvailable;
+
+    private ReceiverSnapshot(FmConfig config, int frequency, RdsState rds,
+            boolean internalAntennaAvailable) {
+        mRadioBand = config.getRadioBand();
+        mEmphasis = config.getEmphasis();
+        mChSpacing = config.getChSpacing();
+        mRdsStd = config.getRdsStd();
+        mLowerLimit = config.getLowerLimit();
+        mUpperLimit = config.getUpperLimit();
+        mFrequency = frequency;
+        mRds = rds;
+        mInternalAntennaAvailable = internalAntennaAvailable;
+    }
+
+    /** Copy the state out of "config" and the tuned station, the config may change later */
+    public static ReceiverSnapshot capture(FmConfig config, int frequency, RdsState rds,
+            boolean internalAntennaAvailable) {
+        return new ReceiverSnapshot(config, frequency, rds, internalAntennaAvailable);
+    }
+
+    /** True if the receiver was set up with the same configuration as "config" */
+    public boolean hasConfig(FmConfig config) {
+        return (config.getRadioBand() == mRadioBand) && (config.getEmphasis() == mEmphasis)
+                && (config.getChSpacing() == mChSpacing) && (config.getRdsStd() == mRdsStd)
+                && (config.getLowerLimit() == mLowerLimit)
+                && (config.getUpperLimit() == mUpperLimit);
+    }
+
+    public int getFrequency() {
+        return mFrequency;
+    }
+
+    /** RDS state of the station on getFrequency() */
+    public RdsState getRds() {
+        return mRds;
+    }
+
+    public boolean isInternalAntennaAvailable() {
+        return mInternalAntennaAvailable;
+    }
+}
@@ -36,6 +36,8 @@ public class Settings extends PreferenceActivity implements OnSharedPreferenceCh
 
     public static final String HEADSET_DC_BEHAVIOUR = "headset_exit_behaviour";
 
+    public static final String SLEEP_FADE = "sleep_fade";
+
     public static final String RESTORE_FACTORY_DEFAULT = "revert_to_fac";
 
     private static final String ABOUT_KEY = "about";
@@ -58,6 +60,8 @@ public class Settings extends PreferenceActivity implements OnSharedPreferenceCh
 
     private CheckBoxPreference mRemoveHeadset;
 
+    private CheckBoxPreference mSleepFade;
+
     private Preference mRestoreDefaultPreference;
 
     private Preference mAboutPreference;
@@ -177,6 +181,13 @@ public class Settings extends PreferenceActivity implements OnSharedPreferenceCh
         mRemoveHeadset.setChecked(FmSharedPreferences.getHeadsetDcBehaviour());
         root.addPreference(mRemoveHeadset);
 
+        mSleepFade = new CheckBoxPreference(this);
+        mSleepFade.setKey(SLEEP_FADE);
+        mSleepFade.setTitle(R.string.pref_sleep_fade_title);
+        mSleepFade.setSummary(R.string.pref_sleep_fade_summary);
+        mSleepFade.setChecked(FmSharedPreferences.getSleepFade());
+        root.addPreference(mSleepFade);
+
         mRestoreDefaultPreference = new Preference(this);
         mRestoreDefaultPreference.setTitle(R.string.settings_revert_defaults_title);
         mRestoreDefaultPreference.setKey(RESTORE_FACTORY_DEFAULT);
@@ -278,6 +289,11 @@ public class Settings extends PreferenceActivity implements OnSharedPreferenceCh
                     Log.d(LOGTAG, "onSharedPreferenceChanged: Remove Headset Enable: " + bRemoveHeadset);
                     FmSharedPreferences.setHeadsetDcBehaviour(bRemoveHeadset);
                 }
+                else if (key.equals(SLEEP_FADE)) {
+                    boolean bSleepFade = mSleepFade.isChecked();
+                    Log.d(LOGTAG, "onSharedPreferenceChanged: Sleep fade: " + bSleepFade);
+                    FmSharedPreferences.setSleepFade(bSleepFade);
+                }
             }
         }
         if (mPrefs != null) {
@@ -352,6 +368,7 @@ public class Settings extends PreferenceActivity implements OnSharedPreferenceCh
         super.onPause();
         getPreferenceScreen().getSharedPreferences().unregisterOnSharedPreferenceChangeListener(
                 this);
+        FmSharedPreferences.flush();
     }
 
 }
@@ -0,0 +1,241 @@
+package com.android.fm.radio;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Polls the signal level of the tuned station into a ring buffer of
+ * CAPACITY samples, each with its time and the stereo status of the
+ * moment. The rate adapts: FAST_INTERVAL_MS after a tune or a change, then
+ * doubling up to SLOW_INTERVAL_MS while the level holds. Nothing is polled
+ * while idle (screen off) or suspended.
+ *
+ * Clients only hear about the level when it crosses into another of
+ * NUM_LEVELS buckets, by more than LEVEL_HYSTERESIS, so a level on a bucket
+ * edge does not flicker. getStats() gives min / avg / max over any window
+ * the buffer covers.
+ *
+ * Runs on the Looper it is created with, which must be the thread that owns
+ * the receiver.
+ */
+public class SignalSampler {
+    public static final int CAPACITY = 256;
+
+    public static final long FAST_INTERVAL_MS = 250;
+
+    public static final long SLOW_INTERVAL_MS = 4000;
+
+    /* A change of at least this much counts as movement and speeds sampling up */
+    private static final int JITTER = 3;
+
+    /* Upper bounds of levels 0 to NUM_LEVELS - 2, the last level has none */
+    private static final int[] LEVEL_LIMITS = {
+            StationMap.SIGNAL_THRESHOLD, 30, 40, 55
+    };
+
+    public static final int NUM_LEVELS = LEVEL_LIMITS.length + 1;
+
+    private static final int LEVEL_HYSTERESIS = 2;
+
+    /* Indexes into getStats() */
+    public static final int STAT_MIN = 0;
+
+    public static final int STAT_AVG = 1;
+
+    public static final int STAT_MAX = 2;
+
+    public static final int STAT_STEREO_PERCENT = 3;
+
+    public static final int STAT_SAMPLES = 4;
+
+    /** Receives level changes, on the sampler thread */
+    public interface Listener {
+        void onSignalLevelChanged(int level, int rssi);
+    }
+
+    private final Handler mHandler;
+
+    private final Listener mListener;
+
+    /* Ring buffer, guarded by this for getStats() */
+    private final int[] mRssi = new int[CAPACITY];
+
+    private final long[] mTimes = new long[CAPACITY];
+
+    private final boolean[] mStereo = new boolean[CAPACITY];
+
+    private int mNext = 0;
+
+    private int mCount = 0;
+
+    private long mTotalSamples = 0;
+
+    private RadioTuner mTuner;
+
+    private boolean mIdle = false;
+
+    private boolean mSuspended = false;
+
+    private volatile boolean mStereoNow = false;
+
+    private long mIntervalMs = FAST_INTERVAL_MS;
+
+    private int mLastRssi = -1;
+
+    /* Last level sent, -1 for none since the last tune */
+    private int mLevel = -1;
+
+    private final Runnable mSample = new Runnable() {
+        public void run() {
+            sample();
+        }
+    };
+
+    public SignalSampler(Looper looper, Listener listener) {
+        mHandler = new Handler(looper);
+        mListener = listener;
+    }
+
+    /** Start polling "tuner" */
+    public void start(final RadioTuner tuner) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                mTuner = tuner;
+                restart();
+            }
+        });
+    }
+
+    public void stop() {
+        mHandler.post(new Runnable() {
+            public void run() {
+                mHandler.removeCallbacks(mSample);
+                mTuner = null;
+            }
+        });
+    }
+
+    /** Nobody is looking, e.g. the screen is off: stop polling */
+    public void setIdle(final boolean idle) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                mIdle = idle;
+                restart();
+            }
+        });
+    }
+
+    /** Pause while something else, e.g. a band scan, drives the receiver */
+    public void setSuspended(final boolean suspended) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                mSuspended = suspended;
+                restart();
+            }
+        });
+    }
+
+    /** The receiver finished tuning, the level is sent again at once */
+    public void onTuned() {
+        mHandler.post(new Runnable() {
+            public void run() {
+                mLevel = -1;
+                mLastRssi = -1;
+                restart();
+            }
+        });
+    }
+
+    /** From FmRxEvStereoStatus */
+    public void onStereo(boolean stereo) {
+        mStereoNow = stereo;
+    }
+
+    public synchronized long getSampleCount() {
+        return mTotalSamples;
+    }
+
+    /**
+     * Min, avg and max level and the stereo share in percent over the last
+     * "windowMs", indexed by the STAT_ constants, all 0 if there is no sample
+     * in the window.
+     */
+    public synchronized int[] getStats(long windowMs) {
+        int[] stats = new int[STAT_SAMPLES + 1];
+        long since = SystemClock.uptimeMillis() - windowMs;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        long sum = 0;
+        int stereo = 0;
+        int samples = 0;
+        /* Newest first, stop at the first sample outside the window */
+        for (int i = 0; i < mCount; i++) {
+            int index = (mNext - 1 - i + CAPACITY) % CAPACITY;
+            if (mTimes[index] < since) {
+                break;
+            }
+            int rssi = mRssi[index];
+            min = Math.min(min, rssi);
+            max = Math.max(max, rssi);
+            sum += rssi;
+            if (mStereo[index]) {
+                stereo++;
+            }
+            samples++;
+        }
+        if (samples > 0) {
+            stats[STAT_MIN] = min;
+            stats[STAT_AVG] = (int) (sum / samples);
+            stats[STAT_MAX] = max;
+            stats[STAT_STEREO_PERCENT] = (stereo * 100) / samples;
+            stats[STAT_SAMPLES] = samples;
+        }
+        return stats;
+    }
+
+    /** The bucket of "rssi", 0 to NUM_LEVELS - 1 */
+    public static int getLevel(int rssi) {
+        int level = 0;
+        while ((level < LEVEL_LIMITS.length) && (rssi >= LEVEL_LIMITS[level])) {
+            level++;
+        }
+        return level;
+    }
+
+    private void restart() {
+        mHandler.removeCallbacks(mSample);
+        mIntervalMs = FAST_INTERVAL_MS;
+        if ((mTuner != null) && !mIdle && !mSuspended) {
+            mHandler.postDelayed(mSample, FAST_INTERVAL_MS);
+        }
+    }
+
+    private void sample() {
+        if (mTuner == null) {
+            return;
+        }
+        int rssi = mTuner.getRssi();
+        synchronized (this) {
+            mRssi[mNext] = rssi;
+            mTimes[mNext] = SystemClock.uptimeMillis();
+            mStereo[mNext] = mStereoNow;
+            mNext = (mNext + 1) % CAPACITY;
+            mCount = Math.min(mCount + 1, CAPACITY);
+            mTotalSamples++;
+        }
+
+        boolean moving = (mLastRssi < 0) || (Math.abs(rssi - mLastRssi) >= JITTER);
+        mLastRssi = rssi;
+        int level = getLevel(rssi);
+        if ((level != mLevel) && ((mLevel < 0) || (getLevel(rssi
+                + ((level > mLevel) ? -LEVEL_HYSTERESIS : LEVEL_HYSTERESIS)) != mLevel))) {
+            /* Past the edge of the old bucket by more than the hysteresis */
+            mLevel = level;
+            moving = true;
+            mListener.onSignalLevelChanged(level, rssi);
+        }
+        mIntervalMs = moving ? FAST_INTERVAL_MS : Math.min(mIntervalMs * 2, SLOW_INTERVAL_MS);
+        mHandler.postDelayed(mSample, mIntervalMs);
+    }
+}
@@ -0,0 +1,711 @@
+package com.android.fm.radio;
+
+import android.hardware.fmradio.FmConfig;
+import android.hardware.fmradio.FmReceiver;
+import android.hardware.fmradio.FmRxEvCallbacksAdaptor;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deterministic, in-process RadioTuner. It replays a band map of stations
+ * (frequency, signal level, PI, PTY, stereo, PS and a rotation of RT
+ * messages) and reports through the same FmRxEvCallbacksAdaptor events as the
+ * hardware, after a configurable latency. With setRdsGroupOptions() the RDS
+ * is also sent as raw 0A and 2A groups, with block errors on weak stations,
+ * in the driver's block format from RadioTuner. Only java.util.concurrent is
+ * used for timing, so the service paths above it can run off-device.
+ *
+ * Band map files have one station per line, fields separated by '|':
+ *
+ * <pre>
+ * # frequency|rssi|pi|pty|stereo|ps|rt[|rt...]
+ * 98100|62|0x54A6|5|stereo|KZZY FM|Now playing: ...
+ * </pre>
+ */
+public class SimulatedTuner implements RadioTuner {
+    private static final String LOGTAG = "FMSimTuner";
+
+    public static final int DEFAULT_LATENCY_MS = 50;
+
+    public static final int DEFAULT_RDS_INTERVAL_MS = 100;
+
+    /* Time spent on each channel while seeking or scanning */
+    public static final int DEFAULT_DWELL_MS = 5;
+
+    /* Stations below this level are not found by seek, scan or search list */
+    public static final int SEEK_THRESHOLD = 20;
+
+    /* Each RT message is sent this many times before the next one, like a real station */
+    private static final int RT_REPEATS = 4;
+
+    /* Raw RDS blocks of stations below this level get errors */
+    public static final int NOISY_RSSI = 40;
+
+    /* Raw blocks kept for getRawRds(), older ones are dropped */
+    private static final int MAX_RAW_BLOCKS = 256;
+
+    /** A station on the simulated band */
+    public static class Station {
+        final int mFrequency;
+
+        final int mRssi;
+
+        final int mPi;
+
+        final int mPty;
+
+        final boolean mStereo;
+
+        final String mProgramService;
+
+        final String[] mRadioTexts;
+
+        public Station(int frequency, int rssi, int pi, int pty, boolean stereo,
+                String programService, String... radioTexts) {
+            mFrequency = frequency;
+            mRssi = rssi;
+            mPi = pi;
+            mPty = pty;
+            mStereo = stereo;
+            mProgramService = programService;
+            mRadioTexts = radioTexts;
+        }
+
+        public int getFrequency() {
+            return mFrequency;
+        }
+
+        public int getRssi() {
+            return mRssi;
+        }
+
+        boolean hasRds() {
+            return (mPi != 0) || (mProgramService != null);
+        }
+    }
+
+    private final FmRxEvCallbacksAdaptor mCallbacks;
+
+    /* Frequency -> Station, in band order */
+    private final TreeMap<Integer, Station> mStations = new TreeMap<Integer, Station>();
+
+    private final int mLatencyMs;
+
+    private final int mRdsIntervalMs;
+
+    private final int mDwellMs;
+
+    private ScheduledExecutorService mExecutor;
+
+    private ScheduledFuture<?> mSearchFuture;
+
+    private ScheduledFuture<?> mRdsFuture;
+
+    private FmConfig mConfig;
+
+    private int mFrequency;
+
+    private int mPowerMode = FmReceiver.FM_RX_NORMAL_POWER_MODE;
+
+    private boolean mStereoEnabled = true;
+
+    private int[] mStationList = new int[0];
+
+    private volatile RdsInfo mPSInfo;
+
+    private volatile RdsInfo mRTInfo;
+
+    /* Counts RDS ticks on the tuned station, selects PS or the next RT */
+    private int mRdsTick;
+
+    /* Raw groups asked for by setRdsGroupOptions(), 0 for none */
+    private int mRawGroupMask = 0;
+
+    private int mRawBufferGroups = 1;
+
+    /* Raw blocks not read by getRawRds() yet */
+    private final ByteArrayOutputStream mRawBlocks = new ByteArrayOutputStream();
+
+    private int mRawGroupsPending = 0;
+
+    /* Block errors, seeded with the frequency on every tune so runs repeat */
+    private final Random mNoise = new Random();
+
+    public SimulatedTuner(FmRxEvCallbacksAdaptor callbacks, List<Station> bandMap) {
+        this(callbacks, bandMap, DEFAULT_LATENCY_MS, DEFAULT_RDS_INTERVAL_MS, DEFAULT_DWELL_MS);
+    }
+
+    public SimulatedTuner(FmRxEvCallbacksAdaptor callbacks, List<Station> bandMap,
+            int latencyMs, int rdsIntervalMs, int dwellMs) {
+        mCallbacks = callbacks;
+        for (Station station : bandMap) {
+            mStations.put(station.mFrequency, station);
+        }
+        mLatencyMs = Math.max(latencyMs, 0);
+        mRdsIntervalMs = Math.max(rdsIntervalMs, 1);
+        mDwellMs = Math.max(dwellMs, 0);
+    }
+
+    /** A small fixed band usable with both 100 and 200 kHz spacing */
+    public static List<Station> getDefaultBandMap() {
+        List<Station> stations = new ArrayList<Station>();
+        stations.add(new Station(88100, 35, 0x1234, 1, false, "NEWS 88", "Headlines on the hour"));
+        stations.add(new Station(90300, 18, 0, 0, false, null));
+        stations.add(new Station(93700, 70, 0x54A6, 5, true, "ROCK937",
+                "Now playing: Track 1", "Now playing: Track 2", "Traffic every 10 minutes"));
+        stations.add(new Station(96500, 50, 0x9978, 15, true, "CLASSIC", "Symphony No. 5"));
+        stations.add(new Station(98100, 62, 0x2B3C, 10, true, "COUNTRY", "Your country station"));
+        stations.add(new Station(101100, 28, 0, 0, true, null));
+        stations.add(new Station(104300, 55, 0xB001, 3, true, "NPR", "Talk of the nation"));
+        stations.add(new Station(106700, 40, 0x3F00, 9, true, "TOP40", "Countdown"));
+        return stations;
+    }
+
+    /**
+     * Read a band map file, see the class comment for the format.
+     *
+     * @return the stations, or the default band map if the file is unusable
+     */
+    public static List<Station> loadBandMap(String path) {
+        List<Station> stations = new ArrayList<Station>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(path));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if ((line.length() == 0) || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\|");
+                if (fields.length < 5) {
+                    Log.e(LOGTAG, "Ignoring band map line: " + line);
+                    continue;
+                }
+                String ps = (fields.length > 5) ? fields[5] : null;
+                String[] rt = (fields.length > 6) ? Arrays.copyOfRange(fields, 6, fields.length)
+                        : new String[0];
+                stations.add(new Station(Integer.parseInt(fields[0].trim()),
+                        Integer.parseInt(fields[1].trim()), Integer.decode(fields[2].trim()),
+                        Integer.parseInt(fields[3].trim()), "stereo".equals(fields[4].trim()),
+                        ps, rt));
+            }
+        } catch (IOException e) {
+            Log.e(LOGTAG, "Unable to read band map " + path + ": " + e);
+        } catch (NumberFormatException e) {
+            Log.e(LOGTAG, "Invalid band map " + path + ": " + e);
+            stations.clear();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if (stations.isEmpty()) {
+            return getDefaultBandMap();
+        }
+        return stations;
+    }
+
+    public synchronized boolean enable(FmConfig config) {
+        if (mExecutor == null) {
+            mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "FmSimTuner");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        mConfig = config;
+        mFrequency = clampToBand(FmSharedPreferences.getTunedFrequency());
+        schedule(new Runnable() {
+            public void run() {
+                mCallbacks.FmRxEvEnableReceiver();
+            }
+        }, mLatencyMs);
+        return true;
+    }
+
+    public synchronized boolean disable() {
+        if (mExecutor == null) {
+            return false;
+        }
+        stopRds();
+        cancelPendingSearch();
+        mExecutor.shutdownNow();
+        mExecutor = null;
+        mCallbacks.FmRxEvDisableReceiver();
+        return true;
+    }
+
+    public synchronized boolean configure(FmConfig config) {
+        if (mExecutor == null) {
+            return false;
+        }
+        mConfig = config;
+        schedule(new Runnable() {
+            public void run() {
+                mCallbacks.FmRxEvConfigReceiver();
+            }
+        }, mLatencyMs);
+        return true;
+    }
+
+    public synchronized boolean setStation(final int frequency) {
+        if (mExecutor == null) {
+            return false;
+        }
+        cancelPendingSearch();
+        stopRds();
+        schedule(new Runnable() {
+            public void run() {
+                tuned(frequency);
+            }
+        }, mLatencyMs);
+        return true;
+    }
+
+    public boolean searchStations(int mode, int dwellPeriod, int direction) {
+        return searchStations(mode, dwellPeriod, direction, 0, 0);
+    }
+
+    public synchronized boolean searchStations(final int mode, int dwellPeriod,
+            final int direction, final int pty, final int pi) {
+        if (mExecutor == null) {
+            return false;
+        }
+        cancelPendingSearch();
+        stopRds();
+
+        final boolean up = (direction != FmReceiver.FM_RX_SEARCHDIR_DOWN);
+        final int start = mFrequency;
+        int channels = 0;
+        int found = -1;
+        int frequency = start;
+        int numChannels = getChannelCount();
+        while (channels < numChannels) {
+            frequency = up ? nextChannel(frequency) : prevChannel(frequency);
+            channels++;
+            if (frequency == start) {
+                break;
+            }
+            Station station = mStations.get(frequency);
+            if ((station != null) && (station.mRssi >= SEEK_THRESHOLD)
+                    && matches(station, mode, pty, pi)) {
+                found = frequency;
+                break;
+            }
+        }
+
+        final int result = (found >= 0) ? found : start;
+        mSearchFuture = schedule(new Runnable() {
+            public void run() {
+                synchronized (SimulatedTuner.this) {
+                    mSearchFuture = null;
+                }
+                mCallbacks.FmRxEvSearchComplete(result);
+                tuned(result);
+            }
+        }, mLatencyMs + (channels * mDwellMs));
+        return true;
+    }
+
+    public synchronized boolean searchStationList(int mode, int direction, int numStations,
+            int pty) {
+        if (mExecutor == null) {
+            return false;
+        }
+        cancelPendingSearch();
+        stopRds();
+
+        List<Station> candidates = new ArrayList<Station>();
+        for (Station station : mStations.values()) {
+            if (isInBand(station.mFrequency) && (station.mRssi >= SEEK_THRESHOLD)
+                    && ((pty <= 0) || (station.mPty == pty))) {
+                candidates.add(station);
+            }
+        }
+        /* Strongest first, then keep the strongest "numStations" in band order */
+        Collections.sort(candidates, new Comparator<Station>() {
+            public int compare(Station a, Station b) {
+                return b.mRssi - a.mRssi;
+            }
+        });
+        int count = Math.min(Math.max(numStations, 0), candidates.size());
+        int[] list = new int[count];
+        for (int i = 0; i < count; i++) {
+            list[i] = candidates.get(i).mFrequency;
+        }
+        Arrays.sort(list);
+        if (direction == FmReceiver.FM_RX_SEARCHDIR_DOWN) {
+            for (int i = 0; i < (count / 2); i++) {
+                int tmp = list[i];
+                list[i] = list[count - 1 - i];
+                list[count - 1 - i] = tmp;
+            }
+        }
+
+        final int[] result = list;
+        final int start = mFrequency;
+        mSearchFuture = schedule(new Runnable() {
+            public void run() {
+                synchronized (SimulatedTuner.this) {
+                    mSearchFuture = null;
+                    mStationList = result;
+                }
+                mCallbacks.FmRxEvSearchListComplete();
+                tuned(start);
+            }
+        }, mLatencyMs + (getChannelCount() * mDwellMs));
+        return true;
+    }
+
+    public synchronized boolean cancelSearch() {
+        if ((mExecutor == null) || (mSearchFuture == null)) {
+            return false;
+        }
+        cancelPendingSearch();
+        final int frequency = mFrequency;
+        schedule(new Runnable() {
+            public void run() {
+                mCallbacks.FmRxEvSearchCancelled();
+                mCallbacks.FmRxEvSearchComplete(frequency);
+                tuned(frequency);
+            }
+        }, mLatencyMs);
+        return true;
+    }
+
+    public synchronized int[] getStationList() {
+        return mStationList.clone();
+    }
+
+    public boolean setMuteMode(int mode) {
+        return true;
+    }
+
+    public synchronized boolean setStereoMode(boolean stereo) {
+        mStereoEnabled = stereo;
+        return true;
+    }
+
+    public synchronized boolean setPowerMode(int mode) {
+        mPowerMode = mode;
+        return true;
+    }
+
+    public synchronized int getPowerMode() {
+        return mPowerMode;
+    }
+
+    public boolean enableAFjump(boolean enable) {
+        return true;
+    }
+
+    public boolean registerRdsGroupProcessing(int groups) {
+        return true;
+    }
+
+    public synchronized boolean setRdsGroupOptions(int groupMask, int bufferSize,
+            boolean changeFilter) {
+        mRawGroupMask = groupMask;
+        mRawBufferGroups = Math.max(bufferSize, 1);
+        mRawBlocks.reset();
+        mRawGroupsPending = 0;
+        return true;
+    }
+
+    public synchronized byte[] getRawRds(int numBlocks) {
+        byte[] pending = mRawBlocks.toByteArray();
+        int length = Math.min(Math.max(numBlocks, 0) * RadioTuner.RDS_BLOCK_SIZE, pending.length);
+        mRawBlocks.reset();
+        mRawBlocks.write(pending, length, pending.length - length);
+        mRawGroupsPending = 0;
+        return Arrays.copyOf(pending, length);
+    }
+
+    public boolean setInternalAntenna(boolean internal) {
+        return true;
+    }
+
+    /* The simulated band is always receivable, with or without a headset */
+    public boolean getInternalAntenna() {
+        return true;
+    }
+
+    public synchronized int getRssi() {
+        Station station = mStations.get(mFrequency);
+        return (station != null) ? station.mRssi : 0;
+    }
+
+    public RdsInfo getPSInfo() {
+        return mPSInfo;
+    }
+
+    public RdsInfo getRTInfo() {
+        return mRTInfo;
+    }
+
+    /* The other stations with the tuned station's PI */
+    public synchronized int[] getAFInfo() {
+        Station station = mStations.get(mFrequency);
+        if ((station == null) || (station.mPi == 0)) {
+            return null;
+        }
+        List<Integer> afList = new ArrayList<Integer>();
+        for (Station other : mStations.values()) {
+            if ((other.mPi == station.mPi) && (other.mFrequency != station.mFrequency)) {
+                afList.add(other.mFrequency);
+            }
+        }
+        int[] frequencies = new int[afList.size()];
+        for (int i = 0; i < frequencies.length; i++) {
+            frequencies[i] = afList.get(i);
+        }
+        return frequencies;
+    }
+
+    /* Runs on the tuner thread once a tune, seek or search settles */
+    private void tuned(int frequency) {
+        Station station;
+        synchronized (this) {
+            if (mExecutor == null) {
+                return;
+            }
+            mFrequency = frequency;
+            mPSInfo = null;
+            mRTInfo = null;
+            mRdsTick = 0;
+            mRawBlocks.reset();
+            mRawGroupsPending = 0;
+            mNoise.setSeed(frequency);
+            station = mStations.get(frequency);
+            if ((station != null) && (station.mRssi < SEEK_THRESHOLD)) {
+                station = null;
+            }
+        }
+        mCallbacks.FmRxEvRadioTuneStatus(frequency);
+        mCallbacks.FmRxEvStereoStatus((station != null) && station.mStereo && mStereoEnabled);
+        boolean hasRds = (station != null) && station.hasRds();
+        mCallbacks.FmRxEvRdsLockStatus(hasRds);
+        if (hasRds) {
+            startRds(station);
+        }
+    }
+
+    private synchronized void startRds(final Station station) {
+        if (mExecutor == null) {
+            return;
+        }
+        mRdsFuture = mExecutor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                rdsTick(station);
+            }
+        }, mRdsIntervalMs, mRdsIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /* Alternate PS and RT updates, stepping through the RT rotation */
+    private void rdsTick(Station station) {
+        boolean sendPs;
+        boolean sendGroups = false;
+        boolean sendAf = false;
+        synchronized (this) {
+            if (mFrequency != station.mFrequency) {
+                return;
+            }
+            int tick = mRdsTick++;
+            if (tick == 0) {
+                /* The AF list goes out once per tune, with the first PS */
+                int[] afList = getAFInfo();
+                sendAf = (afList != null) && (afList.length > 0);
+            }
+            sendPs = ((tick & 1) == 0) || (station.mRadioTexts.length == 0);
+            if (sendPs) {
+                mPSInfo = new RdsInfo(station.mProgramService, null, station.mPty, station.mPi);
+                if ((mRawGroupMask & RdsDecoder.GROUP_0A) != 0) {
+                    writePsGroups(station);
+                }
+            } else {
+                int message = ((tick / 2) / RT_REPEATS) % station.mRadioTexts.length;
+                String rt = station.mRadioTexts[message];
+                mRTInfo = new RdsInfo(null, rt, station.mPty, station.mPi);
+                if ((mRawGroupMask & RdsDecoder.GROUP_2A) != 0) {
+                    /* Every message change flips the text A/B flag */
+                    writeRtGroups(station, rt, (message & 1) != 0);
+                }
+            }
+            if (mRawGroupsPending >= mRawBufferGroups) {
+                sendGroups = true;
+            }
+        }
+        if (sendPs) {
+            mCallbacks.FmRxEvRdsPsInfo();
+        } else {
+            mCallbacks.FmRxEvRdsRtInfo();
+        }
+        if (sendGroups) {
+            mCallbacks.FmRxEvRdsGroupData();
+        }
+        if (sendAf) {
+            mCallbacks.FmRxEvRdsAfInfo();
+        }
+    }
+
+    /* The four 0A groups of a full PS cycle */
+    private void writePsGroups(Station station) {
+        String ps = padText(station.mProgramService, 8);
+        for (int segment = 0; segment < 4; segment++) {
+            int blockB = (station.mPty << 5) | segment;
+            int blockD = (ps.charAt(segment * 2) << 8) | ps.charAt((segment * 2) + 1);
+            writeGroup(station.mPi, blockB, 0xE0CD, blockD);
+        }
+    }
+
+    /* 2A groups up to the segment holding the end of the message */
+    private void writeRtGroups(Station station, String rt, boolean flag) {
+        if (rt.length() < 64) {
+            rt = rt + '\r';
+        }
+        int segments = Math.min((rt.length() + 3) / 4, 16);
+        rt = padText(rt, segments * 4);
+        for (int segment = 0; segment < segments; segment++) {
+            int blockB = (2 << 12) | (station.mPty << 5) | (flag ? 0x10 : 0) | segment;
+            int blockC = (rt.charAt(segment * 4) << 8) | rt.charAt((segment * 4) + 1);
+            int blockD = (rt.charAt((segment * 4) + 2) << 8) | rt.charAt((segment * 4) + 3);
+            writeGroup(station.mPi, blockB, blockC, blockD);
+        }
+    }
+
+    private void writeGroup(int pi, int blockB, int blockC, int blockD) {
+        writeBlock(pi, RadioTuner.RDS_BLOCK_A);
+        writeBlock(blockB, RadioTuner.RDS_BLOCK_B);
+        writeBlock(blockC, RadioTuner.RDS_BLOCK_C);
+        writeBlock(blockD, RadioTuner.RDS_BLOCK_D);
+        mRawGroupsPending++;
+        int excess = mRawBlocks.size() - (MAX_RAW_BLOCKS * RadioTuner.RDS_BLOCK_SIZE);
+        if (excess > 0) {
+            byte[] pending = mRawBlocks.toByteArray();
+            mRawBlocks.reset();
+            mRawBlocks.write(pending, excess, pending.length - excess);
+        }
+    }
+
+    /* Weak stations get corrected, miscorrected and uncorrectable blocks */
+    private void writeBlock(int data, int blockId) {
+        int status = blockId;
+        Station station = mStations.get(mFrequency);
+        if ((station != null) && (station.mRssi < NOISY_RSSI)) {
+            switch (mNoise.nextInt(16)) {
+                case 0:
+                    status |= RadioTuner.RDS_STATUS_ERROR;
+                    data ^= mNoise.nextInt(0x10000);
+                    break;
+                case 1:
+                    status |= RadioTuner.RDS_STATUS_CORRECTED;
+                    break;
+                case 2:
+                    status |= RadioTuner.RDS_STATUS_CORRECTED;
+                    data ^= 1 << mNoise.nextInt(16);
+                    break;
+                default:
+                    break;
+            }
+        }
+        mRawBlocks.write(data & 0xFF);
+        mRawBlocks.write((data >> 8) & 0xFF);
+        mRawBlocks.write(status);
+    }
+
+    private static String padText(String text, int length) {
+        StringBuilder sb = new StringBuilder((text != null) ? text : "");
+        while (sb.length() < length) {
+            sb.append(' ');
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    private void stopRds() {
+        if (mRdsFuture != null) {
+            mRdsFuture.cancel(false);
+            mRdsFuture = null;
+        }
+    }
+
+    private void cancelPendingSearch() {
+        if (mSearchFuture != null) {
+            mSearchFuture.cancel(false);
+            mSearchFuture = null;
+        }
+    }
+
+    private ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        return mExecutor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean matches(Station station, int mode, int pty, int pi) {
+        if (mode == FmReceiver.FM_RX_SRCHRDS_MODE_SCAN_PTY) {
+            return station.mPty == pty;
+        }
+        if (mode == FmReceiver.FM_RX_SRCHRDS_MODE_SEEK_PI) {
+            return station.mPi == pi;
+        }
+        return true;
+    }
+
+    private int getStepSize() {
+        switch (mConfig.getChSpacing()) {
+            case FmReceiver.FM_CHSPACE_100_KHZ:
+                return 100;
+            case FmReceiver.FM_CHSPACE_50_KHZ:
+                return 50;
+            default:
+                return 200;
+        }
+    }
+
+    private int getChannelCount() {
+        return ((mConfig.getUpperLimit() - mConfig.getLowerLimit()) / getStepSize()) + 1;
+    }
+
+    private boolean isInBand(int frequency) {
+        return (frequency >= mConfig.getLowerLimit()) && (frequency <= mConfig.getUpperLimit());
+    }
+
+    private int clampToBand(int frequency) {
+        if (!isInBand(frequency)) {
+            return mConfig.getLowerLimit();
+        }
+        return frequency;
+    }
+
+    private int nextChannel(int frequency) {
+        int next = frequency + getStepSize();
+        return (next > mConfig.getUpperLimit()) ? mConfig.getLowerLimit() : next;
+    }
+
+    private int prevChannel(int frequency) {
+        int prev = frequency - getStepSize();
+        return (prev < mConfig.getLowerLimit()) ? mConfig.getUpperLimit() : prev;
+    }
+}
@@ -0,0 +1,152 @@
+package com.android.fm.radio;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.media.AudioSystem;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Turns FM off at a deadline. Nothing runs until then: one
+ * ELAPSED_REALTIME_WAKEUP alarm goes off at the deadline, or at the start
+ * of the fade out if there is one. The fade lowers the FM volume index one
+ * step at a time so it reaches 0 at the deadline; the volume is put back
+ * once FM is off, so the next power on is not silent.
+ *
+ * The fade runs on the thread it is created with, the alarm arrives as a
+ * FMRadioService CMDSLEEP command; start() and cancel() may be called from
+ * any thread.
+ */
+public class SleepTimer {
+    private static final String LOGTAG = "FMService";
+
+    /** Told at the deadline, FM should go off */
+    public interface Listener {
+        void onSleep();
+    }
+
+    private final Handler mHandler = new Handler();
+
+    private final Listener mListener;
+
+    private final AlarmManager mAlarmManager;
+
+    private final PendingIntent mAlarmIntent;
+
+    /* Keeps the fade going with the screen off */
+    private final PowerManager.WakeLock mWakeLock;
+
+    /* SystemClock.elapsedRealtime() of the deadline, 0 when not set */
+    private volatile long mDeadline = 0;
+
+    private long mFadeMs = 0;
+
+    /* Volume index before the fade, -1 when not fading */
+    private int mVolume = -1;
+
+    private final Runnable mFadeStep = new Runnable() {
+        public void run() {
+            fadeStep();
+        }
+    };
+
+    public SleepTimer(Context context, Listener listener) {
+        mListener = listener;
+        mAlarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        Intent intent = new Intent(context, FMRadioService.class);
+        intent.setAction(FMRadioService.SERVICECMD);
+        intent.putExtra(FMRadioService.CMDNAME, FMRadioService.CMDSLEEP);
+        mAlarmIntent = PendingIntent.getService(context, 1, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, LOGTAG + ":sleep");
+        mWakeLock.setReferenceCounted(false);
+    }
+
+    /** Sleep in "delayMs", fading out over the last "fadeMs" (0 for none) */
+    public synchronized void start(long delayMs, long fadeMs) {
+        cancel();
+        mDeadline = SystemClock.elapsedRealtime() + Math.max(delayMs, 0);
+        mFadeMs = Math.max(0, Math.min(fadeMs, delayMs));
+        Log.d(LOGTAG, "Sleep in " + delayMs + " ms, fade " + mFadeMs + " ms");
+        mAlarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, mDeadline - mFadeMs,
+                mAlarmIntent);
+    }
+
+    public synchronized void cancel() {
+        if (mDeadline == 0) {
+            return;
+        }
+        Log.d(LOGTAG, "Sleep cancelled");
+        mDeadline = 0;
+        mAlarmManager.cancel(mAlarmIntent);
+        mHandler.removeCallbacks(mFadeStep);
+        restoreVolume();
+        mWakeLock.release();
+    }
+
+    public boolean isActive() {
+        return mDeadline != 0;
+    }
+
+    /** Time left to the deadline, 0 when not set */
+    public long getRemainingMs() {
+        long deadline = mDeadline;
+        return (deadline != 0) ? Math.max(0, deadline - SystemClock.elapsedRealtime()) : 0;
+    }
+
+    /** The alarm went off */
+    public synchronized void onAlarm() {
+        if (mDeadline == 0) {
+            /* Cancelled, or set by a process that is gone */
+            return;
+        }
+        mWakeLock.acquire();
+        int volume = AudioSystem.getStreamVolumeIndex(AudioSystem.STREAM_FM);
+        if ((mFadeMs > 0) && (volume > 0) && (getRemainingMs() > 0)) {
+            Log.d(LOGTAG, "Sleep: fading out from " + volume);
+            mVolume = volume;
+            fadeStep();
+        } else {
+            expire();
+        }
+    }
+
+    /* One index down, timed so the last step lands on the deadline */
+    private synchronized void fadeStep() {
+        long remaining = getRemainingMs();
+        int volume = AudioSystem.getStreamVolumeIndex(AudioSystem.STREAM_FM);
+        if (remaining <= 0) {
+            expire();
+            return;
+        }
+        /* Rounded up, index 1 holds until the deadline */
+        int target = (int) ((mVolume * remaining + mFadeMs - 1) / mFadeMs);
+        if (target < volume) {
+            AudioSystem.setStreamVolumeIndex(AudioSystem.STREAM_FM, target);
+            volume = target;
+        }
+        /* Until the next index is due, or the deadline for the last one */
+        long next = (volume > 0) ? remaining - ((volume - 1) * mFadeMs) / mVolume : remaining;
+        mHandler.postDelayed(mFadeStep, Math.max(next, 1));
+    }
+
+    private void expire() {
+        Log.d(LOGTAG, "Sleep timer expired");
+        mDeadline = 0;
+        mListener.onSleep();
+        restoreVolume();
+        mWakeLock.release();
+    }
+
+    private void restoreVolume() {
+        if (mVolume >= 0) {
+            AudioSystem.setStreamVolumeIndex(AudioSystem.STREAM_FM, mVolume);
+            mVolume = -1;
+        }
+    }
+}
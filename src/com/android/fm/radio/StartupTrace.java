@@ -0,0 +1,120 @@
+package com.android.fm.radio;
+
+import android.util.Log;
+
+/**
+ * Trace points for the start of FMRadio. Every phase of onCreate() goes into
+ * its own LatencyStats, and so does the time from onCreate() to the first
+ * frame showing the tuned frequency and to the first tune status after FM
+ * came on (first audio). The last two are kept apart for cold starts (first activity of the
+ * process) and warm starts. The service dump() reports them all.
+ *
+ * Not thread safe: call it from the UI thread.
+ */
+public class StartupTrace {
+    private static final String LOGTAG = FMRadio.LOGTAG;
+
+    public static final int PHASE_PREFS = 0;
+
+    public static final int PHASE_INFLATE = 1;
+
+    public static final int PHASE_VIEWS = 2;
+
+    public static final int PHASE_RECEIVERS = 3;
+
+    public static final int PHASE_BIND = 4;
+
+    /* Preset lists and settings left for after the first frame */
+    public static final int PHASE_DEFERRED_LOAD = 5;
+
+    private static final String[] PHASE_NAMES = {
+            "prefs", "inflate", "views", "receivers", "bind", "deferred-load"
+    };
+
+    private static final LatencyStats[] mPhaseLatency = new LatencyStats[PHASE_NAMES.length];
+
+    static {
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+            mPhaseLatency[phase] = new LatencyStats("startup-" + PHASE_NAMES[phase]);
+        }
+    }
+
+    private static final LatencyStats mColdFrequencyLatency = new LatencyStats(
+            "startup-cold-to-frequency");
+
+    private static final LatencyStats mWarmFrequencyLatency = new LatencyStats(
+            "startup-warm-to-frequency");
+
+    private static final LatencyStats mColdAudioLatency = new LatencyStats(
+            "startup-cold-to-audio");
+
+    private static final LatencyStats mWarmAudioLatency = new LatencyStats(
+            "startup-warm-to-audio");
+
+    /* Set by the first trace of the process, later ones are warm starts */
+    private static boolean mProcessStarted = false;
+
+    private final boolean mCold;
+
+    private final long mStartNs;
+
+    private long mPhaseStartNs;
+
+    private boolean mFrequencyShown = false;
+
+    private boolean mAudioStarted = false;
+
+    /** Start tracing, at the top of onCreate() */
+    public StartupTrace() {
+        synchronized (StartupTrace.class) {
+            mCold = !mProcessStarted;
+            mProcessStarted = true;
+        }
+        mStartNs = System.nanoTime();
+        mPhaseStartNs = mStartNs;
+    }
+
+    public boolean isColdStart() {
+        return mCold;
+    }
+
+    /** End "phase", which started when the previous one ended */
+    public void endPhase(int phase) {
+        long now = System.nanoTime();
+        mPhaseLatency[phase].record(now - mPhaseStartNs);
+        mPhaseStartNs = now;
+    }
+
+    /** Start timing a phase that does not follow the previous one */
+    public void beginPhase() {
+        mPhaseStartNs = System.nanoTime();
+    }
+
+    /** The first frame with the tuned frequency on screen is being drawn */
+    public void onFrequencyShown() {
+        if (mFrequencyShown) {
+            return;
+        }
+        mFrequencyShown = true;
+        long latency = System.nanoTime() - mStartNs;
+        (mCold ? mColdFrequencyLatency : mWarmFrequencyLatency).record(latency);
+        Log.d(LOGTAG, "Startup (" + (mCold ? "cold" : "warm") + "): frequency shown after "
+                + (latency / 1000000) + " ms");
+    }
+
+    /**
+     * The service had the first tune status after FM came on at "startedNs"
+     * (System.nanoTime()), the station is playing. Audio that started before
+     * this trace is not a start of ours.
+     */
+    public void onAudioStarted(long startedNs) {
+        if (mAudioStarted || (startedNs < mStartNs)) {
+            return;
+        }
+        mAudioStarted = true;
+        long latency = startedNs - mStartNs;
+        (mCold ? mColdAudioLatency : mWarmAudioLatency).record(latency);
+        Log.d(LOGTAG, "Startup (" + (mCold ? "cold" : "warm") + "): audio after "
+                + (latency / 1000000) + " ms");
+    }
+}
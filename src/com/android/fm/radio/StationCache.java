@@ -0,0 +1,202 @@
+package com.android.fm.radio;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * RDS state of the most recently heard stations, keyed by frequency, so
+ * tuning to a known station shows its PS and PTY before it retransmits
+ * them. Bounded to MAX_STATIONS, least recently used first out, and kept in
+ * a file across process restarts.
+ *
+ * A cached entry is only a guess: once the station's PI arrives, an entry
+ * with another PI is replaced (see RdsState) and counted as a PI mismatch.
+ */
+public class StationCache {
+    private static final String LOGTAG = "FMService";
+
+    /* "FMSC" */
+    private static final int MAGIC = 0x464D5343;
+
+    private static final int VERSION = 1;
+
+    private static final String FILE_NAME = "stationcache.bin";
+
+    public static final int MAX_STATIONS = 64;
+
+    /* Entries not heard for this long are dropped */
+    public static final long MAX_AGE_MS = 90L * 24 * 60 * 60 * 1000;
+
+    private final File mFile;
+
+    private final LinkedHashMap<Integer, RdsState> mStations =
+            new LinkedHashMap<Integer, RdsState>(MAX_STATIONS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, RdsState> eldest) {
+            return size() > MAX_STATIONS;
+        }
+    };
+
+    /* Set when mStations differs from the file */
+    private boolean mDirty = false;
+
+    private long mHits = 0;
+
+    private long mMisses = 0;
+
+    private long mPiMismatches = 0;
+
+    private StationCache(File file) {
+        mFile = file;
+    }
+
+    /** Load the cache kept in "dir", or start an empty one if there is none yet */
+    public static StationCache load(File dir) {
+        StationCache cache = new StationCache(new File(dir, FILE_NAME));
+        if (cache.mFile.exists()) {
+            cache.read();
+        }
+        return cache;
+    }
+
+    /** The cached state of the station on "frequency", or null */
+    public synchronized RdsState get(int frequency) {
+        RdsState state = mStations.get(frequency);
+        if ((state != null)
+                && ((System.currentTimeMillis() - state.getUpdateTime()) > MAX_AGE_MS)) {
+            mStations.remove(frequency);
+            mDirty = true;
+            state = null;
+        }
+        if (state != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return state;
+    }
+
+    /** Remember "state", which replaces the entry of its frequency */
+    public synchronized void put(RdsState state) {
+        if (!state.hasRds() || (state.getFrequency() == 0)) {
+            return;
+        }
+        RdsState old = mStations.put(state.getFrequency(), state);
+        if ((old != null) && (old.getProgramId() != 0) && (state.getProgramId() != 0)
+                && (old.getProgramId() != state.getProgramId())) {
+            Log.d(LOGTAG, "Station cache: PI of " + state.getFrequency() + " changed from "
+                    + old.getProgramId() + " to " + state.getProgramId());
+            mPiMismatches++;
+        }
+        mDirty = true;
+    }
+
+    public synchronized int size() {
+        return mStations.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /** Cached entries found to belong to another station once its PI arrived */
+    public synchronized long getPiMismatchCount() {
+        return mPiMismatches;
+    }
+
+    /** Write the cache to its file if it changed since it was read or saved */
+    public synchronized boolean save() {
+        if (!mDirty) {
+            return true;
+        }
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mStations.size());
+            /* Least recently used first, so reading them back keeps the order */
+            for (RdsState state : mStations.values()) {
+                out.writeInt(state.getFrequency());
+                out.writeInt(state.getProgramId());
+                out.writeInt(state.getProgramType());
+                out.writeUTF((state.getProgramService() != null) ? state.getProgramService()
+                        : "");
+                out.writeUTF((state.getRadioText() != null) ? state.getRadioText() : "");
+                out.writeBoolean(state.isStereo());
+                int[] afList = state.getAfList();
+                out.writeInt(afList.length);
+                for (int af : afList) {
+                    out.writeInt(af);
+                }
+                out.writeLong(state.getUpdateTime());
+            }
+            mDirty = false;
+            return true;
+        } catch (IOException e) {
+            Log.e(LOGTAG, "Unable to save station cache " + mFile + ": " + e);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void read() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                Log.e(LOGTAG, "Ignoring unsupported station cache " + mFile);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int frequency = in.readInt();
+                int pi = in.readInt();
+                int pty = in.readInt();
+                String ps = in.readUTF();
+                String rt = in.readUTF();
+                boolean stereo = in.readBoolean();
+                int[] afList = new int[in.readInt()];
+                for (int af = 0; af < afList.length; af++) {
+                    afList[af] = in.readInt();
+                }
+                long updateTime = in.readLong();
+                mStations.put(frequency, RdsState.restore(frequency, pi, pty,
+                        (ps.length() > 0) ? ps : null, (rt.length() > 0) ? rt : null,
+                        afList, stereo, updateTime));
+            }
+        } catch (IOException e) {
+            Log.e(LOGTAG, "Unable to read station cache " + mFile + ": " + e);
+            mStations.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.android.fm.radio;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * What the band scanner last saw on every channel of one region's band:
+ * signal level, stereo, RDS PI/PS and when the channel was visited. Kept in a
+ * file per region and band plan so a later scan only has to re-verify the
+ * known stations and the channels that have not been looked at for a while.
+ */
+public class StationMap {
+    private static final String LOGTAG = "FMService";
+
+    /* "FMSM" */
+    private static final int MAGIC = 0x464D534D;
+
+    private static final int VERSION = 1;
+
+    /* Channels at or above this signal level hold a station */
+    public static final int SIGNAL_THRESHOLD = 20;
+
+    /* Channels not visited for this long are scanned again */
+    public static final long REVISIT_MS = 7L * 24 * 60 * 60 * 1000;
+
+    /* An incremental scan also revisits at least this share of the empty channels */
+    private static final int ROTATION_DIVISOR = 8;
+
+    private static final int FLAG_STEREO = 0x01;
+
+    private final File mFile;
+
+    private final int mLowerLimit;
+
+    private final int mUpperLimit;
+
+    private final int mStepSize;
+
+    private final int[] mRssi;
+
+    private final int[] mPi;
+
+    private final String[] mPs;
+
+    private final byte[] mFlags;
+
+    /* System.currentTimeMillis() of the last visit, 0 if never */
+    private final long[] mVisited;
+
+    private StationMap(File file, int lowerLimit, int upperLimit, int stepSize) {
+        mFile = file;
+        mLowerLimit = lowerLimit;
+        mUpperLimit = upperLimit;
+        mStepSize = stepSize;
+        int numChannels = ((upperLimit - lowerLimit) / stepSize) + 1;
+        mRssi = new int[numChannels];
+        mPi = new int[numChannels];
+        mPs = new String[numChannels];
+        mFlags = new byte[numChannels];
+        mVisited = new long[numChannels];
+    }
+
+    /**
+     * Load the map for "region" and the given band plan from "dir", or start
+     * an empty one if there is none yet.
+     */
+    public static StationMap load(File dir, int region, int lowerLimit, int upperLimit,
+            int stepSize) {
+        File file = new File(dir, "stationmap-" + region + "-" + lowerLimit + "-" + upperLimit
+                + "-" + stepSize + ".bin");
+        StationMap map = new StationMap(file, lowerLimit, upperLimit, stepSize);
+        if (file.exists()) {
+            map.read();
+        }
+        return map;
+    }
+
+    public int getChannelCount() {
+        return mRssi.length;
+    }
+
+    public int getFrequency(int channel) {
+        return mLowerLimit + (channel * mStepSize);
+    }
+
+    /** Channel index of "frequency", or -1 if it is not on the band plan */
+    public int getChannel(int frequency) {
+        if ((frequency < mLowerLimit) || (frequency > mUpperLimit)
+                || (((frequency - mLowerLimit) % mStepSize) != 0)) {
+            return -1;
+        }
+        return (frequency - mLowerLimit) / mStepSize;
+    }
+
+    public synchronized boolean isStation(int channel) {
+        return (mVisited[channel] != 0) && (mRssi[channel] >= SIGNAL_THRESHOLD);
+    }
+
+    public synchronized boolean hasRds(int channel) {
+        return mPi[channel] != 0;
+    }
+
+    public synchronized void update(int channel, int rssi, boolean stereo, int pi, String ps,
+            long now) {
+        mRssi[channel] = rssi;
+        mFlags[channel] = (byte) (stereo ? FLAG_STEREO : 0);
+        /* RDS is not always decoded within the dwell time, keep what we knew */
+        if ((pi != 0) || (rssi < SIGNAL_THRESHOLD)) {
+            mPi[channel] = pi;
+        }
+        if ((ps != null) || (rssi < SIGNAL_THRESHOLD)) {
+            mPs[channel] = ps;
+        }
+        mVisited[channel] = now;
+    }
+
+    /**
+     * Channels for the next scan, in band order. A full scan visits every
+     * channel. An incremental one visits the known stations, every channel not
+     * visited within REVISIT_MS, and at least 1/ROTATION_DIVISOR of the other
+     * channels, least recently visited first.
+     */
+    public synchronized int[] getChannelsToScan(boolean fullScan, long now) {
+        int numChannels = mRssi.length;
+        boolean[] scan = new boolean[numChannels];
+        if (fullScan) {
+            Arrays.fill(scan, true);
+        } else {
+            List<Integer> others = new ArrayList<Integer>();
+            int selected = 0;
+            for (int channel = 0; channel < numChannels; channel++) {
+                if (isStation(channel) || (mVisited[channel] == 0)
+                        || ((now - mVisited[channel]) > REVISIT_MS)) {
+                    scan[channel] = true;
+                    selected++;
+                } else {
+                    others.add(channel);
+                }
+            }
+            Collections.sort(others, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    long va = mVisited[a];
+                    long vb = mVisited[b];
+                    return (va < vb) ? -1 : ((va == vb) ? 0 : 1);
+                }
+            });
+            int rotation = (numChannels + ROTATION_DIVISOR - 1) / ROTATION_DIVISOR;
+            for (int i = 0; (i < others.size()) && (selected < rotation); i++) {
+                scan[others.get(i)] = true;
+                selected++;
+            }
+        }
+
+        int count = 0;
+        for (int channel = 0; channel < numChannels; channel++) {
+            if (scan[channel]) {
+                count++;
+            }
+        }
+        int[] channels = new int[count];
+        count = 0;
+        for (int channel = 0; channel < numChannels; channel++) {
+            if (scan[channel]) {
+                channels[count++] = channel;
+            }
+        }
+        return channels;
+    }
+
+    /** Frequencies of the "maxStations" strongest stations, in band order */
+    public synchronized int[] getStrongestStations(int maxStations) {
+        List<Integer> stations = new ArrayList<Integer>();
+        for (int channel = 0; channel < mRssi.length; channel++) {
+            if (isStation(channel)) {
+                stations.add(channel);
+            }
+        }
+        Collections.sort(stations, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return mRssi[b] - mRssi[a];
+            }
+        });
+        int count = Math.min(Math.max(maxStations, 0), stations.size());
+        int[] frequencies = new int[count];
+        for (int i = 0; i < count; i++) {
+            frequencies[i] = getFrequency(stations.get(i));
+        }
+        Arrays.sort(frequencies);
+        return frequencies;
+    }
+
+    /** Write the visited channels to the map file */
+    public synchronized boolean save() {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile)));
+            int visited = 0;
+            for (int channel = 0; channel < mVisited.length; channel++) {
+                if (mVisited[channel] != 0) {
+                    visited++;
+                }
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(visited);
+            for (int channel = 0; channel < mVisited.length; channel++) {
+                if (mVisited[channel] != 0) {
+                    out.writeInt(getFrequency(channel));
+                    out.writeInt(mRssi[channel]);
+                    out.writeByte(mFlags[channel]);
+                    out.writeInt(mPi[channel]);
+                    out.writeUTF((mPs[channel] != null) ? mPs[channel] : "");
+                    out.writeLong(mVisited[channel]);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(LOGTAG, "Unable to save station map " + mFile + ": " + e);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void read() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                Log.e(LOGTAG, "Ignoring unsupported station map " + mFile);
+                return;
+            }
+            int visited = in.readInt();
+            for (int i = 0; i < visited; i++) {
+                int channel = getChannel(in.readInt());
+                int rssi = in.readInt();
+                byte flags = in.readByte();
+                int pi = in.readInt();
+                String ps = in.readUTF();
+                long time = in.readLong();
+                if (channel >= 0) {
+                    mRssi[channel] = rssi;
+                    mFlags[channel] = flags;
+                    mPi[channel] = pi;
+                    mPs[channel] = (ps.length() > 0) ? ps : null;
+                    mVisited[channel] = time;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(LOGTAG, "Unable to read station map " + mFile + ": " + e);
+            Arrays.fill(mVisited, 0);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.android.fm.radio;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The last few minutes of FM audio in a memory-mapped circular file, fed
+ * by FmAudioCapture. The file has a fixed size, so the disk and memory
+ * used are bounded by the capacity whatever the listening time.
+ *
+ * Positions count the bytes written since open() and only ever grow: a
+ * reader keeps its own position and the buffer tells whether that audio is
+ * still there. The newest GUARD_BYTES before the oldest kept byte are being
+ * overwritten and do not count as kept.
+ *
+ * One writer (the capture thread) and one reader (TimeShiftPlayer).
+ */
+public class TimeShiftBuffer implements FmAudioCapture.Sink {
+    private static final String LOGTAG = "FMService";
+
+    /* Room for one capture chunk being written over the oldest audio */
+    private static final int GUARD_BYTES = FmAudioCapture.CHUNK_BYTES;
+
+    private final File mFile;
+
+    private final int mCapacity;
+
+    private RandomAccessFile mRandomAccessFile;
+
+    /* Writer and reader each work on their own view of the mapping */
+    private volatile ByteBuffer mWriteView;
+
+    private volatile ByteBuffer mReadView;
+
+    private volatile long mWritePos = 0;
+
+    private volatile long mOverruns = 0;
+
+    /** A buffer of "seconds" of audio in "file", created or resized by open() */
+    public TimeShiftBuffer(File file, int seconds) {
+        mFile = file;
+        long bytes = FmAudioCapture.msToBytes(seconds * 1000L) + GUARD_BYTES;
+        mCapacity = (int) Math.min(bytes, Integer.MAX_VALUE - FmAudioCapture.BYTES_PER_FRAME);
+    }
+
+    /** Map the file, the buffer starts empty. Returns false if it cannot be mapped */
+    public synchronized boolean open() {
+        if (mRandomAccessFile != null) {
+            return true;
+        }
+        try {
+            mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+            mRandomAccessFile.setLength(mCapacity);
+            MappedByteBuffer map = mRandomAccessFile.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE, 0, mCapacity);
+            mWritePos = 0;
+            mReadView = map.duplicate();
+            mWriteView = map;
+            Log.d(LOGTAG, "Time shift buffer: " + mCapacity + " bytes in " + mFile);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOGTAG, "Time shift buffer: unable to map " + mFile + ": " + e);
+            close();
+            return false;
+        }
+    }
+
+    /** Drop the mapping, the file stays for the next open() */
+    public synchronized void close() {
+        mWriteView = null;
+        mReadView = null;
+        if (mRandomAccessFile != null) {
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mRandomAccessFile = null;
+        }
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /** Position the next captured byte goes to */
+    public long getWritePos() {
+        return mWritePos;
+    }
+
+    /** Position of the oldest audio still kept */
+    public long getOldestPos() {
+        return Math.max(0, mWritePos - mCapacity + GUARD_BYTES);
+    }
+
+    /** Reads that lost their audio to the writer while copying */
+    public long getOverrunCount() {
+        return mOverruns;
+    }
+
+    public void onPcm(byte[] data, int length) {
+        ByteBuffer view = mWriteView;
+        if (view == null) {
+            return;
+        }
+        long writePos = mWritePos;
+        int index = (int) (writePos % mCapacity);
+        int first = Math.min(length, mCapacity - index);
+        view.position(index);
+        view.put(data, 0, first);
+        if (first < length) {
+            view.position(0);
+            view.put(data, first, length - first);
+        }
+        mWritePos = writePos + length;
+    }
+
+    public void onCaptureError() {
+        Log.e(LOGTAG, "Time shift buffer: capture failed");
+    }
+
+    /**
+     * Copy up to "length" bytes from "position" into "data". Returns how many
+     * there were, 0 at the write position, or -1 if the audio at "position"
+     * is no longer kept.
+     */
+    public int read(long position, byte[] data, int offset, int length) {
+        ByteBuffer view = mReadView;
+        if ((view == null) || (position < getOldestPos())) {
+            return -1;
+        }
+        int count = (int) Math.min(length, mWritePos - position);
+        if (count <= 0) {
+            return 0;
+        }
+        int index = (int) (position % mCapacity);
+        int first = Math.min(count, mCapacity - index);
+        view.position(index);
+        view.get(data, offset, first);
+        if (first < count) {
+            view.position(0);
+            view.get(data, offset + first, count - first);
+        }
+        if (position < getOldestPos()) {
+            /* Overwritten while we copied it */
+            mOverruns++;
+            return -1;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,278 @@
+package com.android.fm.radio;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Plays the FM audio from a TimeShiftBuffer while the listener is behind
+ * live. LIVE: the hardware path plays, nothing is done here. PAUSED: the
+ * read position is frozen while the buffer keeps filling. PLAYING: a
+ * playback thread feeds an AudioTrack from the read position, CATCH_UP_PERCENT
+ * faster than real time, and goes back to LIVE once less than LIVE_MARGIN_MS
+ * is left to catch up.
+ *
+ * A pause longer than the buffer resumes from the oldest audio kept.
+ */
+public class TimeShiftPlayer {
+    private static final String LOGTAG = "FMService";
+
+    public static final int STATE_LIVE = 0;
+
+    public static final int STATE_PAUSED = 1;
+
+    public static final int STATE_PLAYING = 2;
+
+    /* Playback rate while behind live, barely audible */
+    private static final int CATCH_UP_PERCENT = 105;
+
+    /* Closer to live than this and the hardware path takes over */
+    private static final long LIVE_MARGIN_MS = 500;
+
+    /* Wait for the writer when the read position reached it */
+    private static final long UNDERRUN_WAIT_MS = 20;
+
+    /** Told when playback goes to or leaves the hardware path, on any thread */
+    public interface Listener {
+        void onLiveChanged(boolean live);
+    }
+
+    private final TimeShiftBuffer mBuffer;
+
+    private final Listener mListener;
+
+    /* All below guarded by this */
+    private int mState = STATE_LIVE;
+
+    private long mReadPos;
+
+    /* Bumped by every seek, the playback thread drops what it queued before */
+    private int mSeekCount = 0;
+
+    private Thread mThread;
+
+    private long mCatchUpCount = 0;
+
+    public TimeShiftPlayer(TimeShiftBuffer buffer, Listener listener) {
+        mBuffer = buffer;
+        mListener = listener;
+    }
+
+    /** Freeze the read position, live audio starts being shifted */
+    public void pause() {
+        boolean wasLive;
+        synchronized (this) {
+            if (mState == STATE_PAUSED) {
+                return;
+            }
+            wasLive = (mState == STATE_LIVE);
+            if (wasLive) {
+                mReadPos = mBuffer.getWritePos();
+            }
+            mState = STATE_PAUSED;
+            notifyAll();
+        }
+        Log.d(LOGTAG, "Time shift: paused");
+        if (wasLive) {
+            mListener.onLiveChanged(false);
+        }
+    }
+
+    /** Play on from the read position */
+    public synchronized void resume() {
+        if (mState != STATE_PAUSED) {
+            return;
+        }
+        clampReadPos();
+        Log.d(LOGTAG, "Time shift: resumed " + getDelayMs() + " ms behind live");
+        mState = STATE_PLAYING;
+        startThread();
+        notifyAll();
+    }
+
+    /**
+     * Move the read position to "delayMs" behind live, as far as the buffer
+     * goes; 0 or less jumps to live. A paused player stays paused.
+     */
+    public void seek(long delayMs) {
+        if (delayMs <= 0) {
+            jumpToLive();
+            return;
+        }
+        boolean wasLive;
+        synchronized (this) {
+            wasLive = (mState == STATE_LIVE);
+            mReadPos = mBuffer.getWritePos()
+                    - FmAudioCapture.msToBytes(delayMs);
+            clampReadPos();
+            mSeekCount++;
+            if (wasLive) {
+                mState = STATE_PLAYING;
+                startThread();
+            }
+            notifyAll();
+        }
+        Log.d(LOGTAG, "Time shift: seek to " + delayMs + " ms behind live");
+        if (wasLive) {
+            mListener.onLiveChanged(false);
+        }
+    }
+
+    /** Back to the hardware path, the shifted audio is skipped */
+    public void jumpToLive() {
+        synchronized (this) {
+            if (mState == STATE_LIVE) {
+                return;
+            }
+            mState = STATE_LIVE;
+            notifyAll();
+        }
+        Log.d(LOGTAG, "Time shift: live");
+        mListener.onLiveChanged(true);
+    }
+
+    /** Back to LIVE without telling the listener, e.g. when FM goes off */
+    public synchronized void reset() {
+        mState = STATE_LIVE;
+        notifyAll();
+    }
+
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /** How far behind live the listener is */
+    public synchronized long getDelayMs() {
+        if (mState == STATE_LIVE) {
+            return 0;
+        }
+        return FmAudioCapture.bytesToMs(mBuffer.getWritePos()
+                - Math.max(mReadPos, mBuffer.getOldestPos()));
+    }
+
+    /** How far back a seek can go */
+    public long getBufferedMs() {
+        return FmAudioCapture.bytesToMs(mBuffer.getWritePos() - mBuffer.getOldestPos());
+    }
+
+    /** Times playback caught up with live */
+    public synchronized long getCatchUpCount() {
+        return mCatchUpCount;
+    }
+
+    /* A read position the buffer no longer has moves to the oldest audio */
+    private void clampReadPos() {
+        long oldest = mBuffer.getOldestPos();
+        if (mReadPos < oldest) {
+            mReadPos = oldest;
+        }
+        /* Stay on a frame boundary */
+        mReadPos -= mReadPos % FmAudioCapture.BYTES_PER_FRAME;
+    }
+
+    private void startThread() {
+        if (mThread == null) {
+            mThread = new Thread(new Runnable() {
+                public void run() {
+                    playLoop();
+                }
+            }, "FmTimeShift");
+            mThread.start();
+        }
+    }
+
+    private void playLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        boolean caughtUp = false;
+        AudioTrack track = null;
+        try {
+            int channelConfig = AudioFormat.CHANNEL_OUT_STEREO;
+            int minBuffer = AudioTrack.getMinBufferSize(FmAudioCapture.SAMPLE_RATE,
+                    channelConfig, AudioFormat.ENCODING_PCM_16BIT);
+            track = new AudioTrack(AudioManager.STREAM_MUSIC, FmAudioCapture.SAMPLE_RATE,
+                    channelConfig, AudioFormat.ENCODING_PCM_16BIT,
+                    Math.max(minBuffer, FmAudioCapture.CHUNK_BYTES * 2), AudioTrack.MODE_STREAM);
+            if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+                Log.e(LOGTAG, "Time shift: unable to open the audio track");
+                caughtUp = true;
+                return;
+            }
+            track.setPlaybackRate(FmAudioCapture.SAMPLE_RATE * CATCH_UP_PERCENT / 100);
+            byte[] chunk = new byte[FmAudioCapture.CHUNK_BYTES];
+            int seekCount = -1;
+            while (true) {
+                long position;
+                synchronized (this) {
+                    while (mState == STATE_PAUSED) {
+                        if (track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
+                            track.pause();
+                        }
+                        wait();
+                    }
+                    if (mState == STATE_LIVE) {
+                        return;
+                    }
+                    if (seekCount != mSeekCount) {
+                        /* Do not play out what was queued before the seek */
+                        seekCount = mSeekCount;
+                        track.pause();
+                        track.flush();
+                    }
+                    if (mBuffer.getWritePos() - mReadPos
+                            < FmAudioCapture.msToBytes(LIVE_MARGIN_MS)) {
+                        mCatchUpCount++;
+                        caughtUp = true;
+                        return;
+                    }
+                    position = mReadPos;
+                }
+                if (track.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) {
+                    track.play();
+                }
+
+                int count = mBuffer.read(position, chunk, 0, chunk.length);
+                if (count <= 0) {
+                    synchronized (this) {
+                        if (count < 0) {
+                            /* Lost to the writer, go on from the oldest audio */
+                            clampReadPos();
+                        } else {
+                            wait(UNDERRUN_WAIT_MS);
+                        }
+                    }
+                    continue;
+                }
+                track.write(chunk, 0, count);
+                synchronized (this) {
+                    if ((seekCount == mSeekCount) && (mReadPos == position)) {
+                        mReadPos = position + count;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            if (track != null) {
+                /* stop() throws on a track that failed to open */
+                if (track.getState() == AudioTrack.STATE_INITIALIZED) {
+                    track.stop();
+                }
+                track.release();
+            }
+            synchronized (this) {
+                mThread = null;
+                if (caughtUp && (mState == STATE_PLAYING)) {
+                    mState = STATE_LIVE;
+                } else {
+                    caughtUp = false;
+                }
+            }
+            if (caughtUp) {
+                Log.d(LOGTAG, "Time shift: back to live");
+                mListener.onLiveChanged(true);
+            }
+        }
+    }
+}
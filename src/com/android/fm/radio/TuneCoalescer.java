@@ -0,0 +1,138 @@
+package com.android.fm.radio;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Debounces a burst of tune requests (a drag across the band, a held media
+ * button) into one tune to the frequency the user settles on. The faster the
+ * requests arrive the longer it waits for the next one, and a burst that goes
+ * on for MAX_HOLD_MS is sent anyway so the audio follows a long drag.
+ *
+ * May be called from any thread, the service cancels from binder threads.
+ * The settled frequency is sent on the thread of the Looper it was created
+ * with, or on the caller's thread for flush() and a burst over MAX_HOLD_MS.
+ */
+public class TuneCoalescer {
+    /* Settle delay after a slow, deliberate step */
+    public static final long MIN_SETTLE_MS = 80;
+
+    /* Settle delay while requests arrive back to back */
+    public static final long MAX_SETTLE_MS = 300;
+
+    /* Longest a burst can hold back a tune */
+    public static final long MAX_HOLD_MS = 1000;
+
+    /** Sends the settled frequency to the receiver */
+    public interface Listener {
+        void onTune(int frequency);
+    }
+
+    /* Totals over every instance, for the service dump() */
+    private static long mRequested = 0;
+
+    private static long mSent = 0;
+
+    private final Handler mHandler;
+
+    private final Listener mListener;
+
+    /* All below guarded by this */
+    private boolean mPending = false;
+
+    private int mPendingFrequency;
+
+    private long mFirstRequestMs;
+
+    private long mLastRequestMs;
+
+    private final Runnable mSettled = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    public TuneCoalescer(Looper looper, Listener listener) {
+        mHandler = new Handler(looper);
+        mListener = listener;
+    }
+
+    /** Ask for "frequency", replacing any frequency not sent yet */
+    public void request(int frequency) {
+        synchronized (this) {
+            long now = SystemClock.uptimeMillis();
+            long interval = MAX_SETTLE_MS;
+            if (mPending) {
+                interval = now - mLastRequestMs;
+            } else {
+                mFirstRequestMs = now;
+            }
+            mLastRequestMs = now;
+            mPendingFrequency = frequency;
+            mPending = true;
+            synchronized (TuneCoalescer.class) {
+                mRequested++;
+            }
+
+            mHandler.removeCallbacks(mSettled);
+            if ((now - mFirstRequestMs) < MAX_HOLD_MS) {
+                mHandler.postDelayed(mSettled, getSettleDelay(interval));
+                return;
+            }
+        }
+        flush();
+    }
+
+    /** Send the pending frequency now, if any */
+    public void flush() {
+        int frequency;
+        synchronized (this) {
+            mHandler.removeCallbacks(mSettled);
+            if (!mPending) {
+                return;
+            }
+            mPending = false;
+            frequency = mPendingFrequency;
+            synchronized (TuneCoalescer.class) {
+                mSent++;
+            }
+        }
+        /* Outside the lock, the listener tunes */
+        mListener.onTune(frequency);
+    }
+
+    /** Forget the pending frequency */
+    public synchronized void cancel() {
+        mHandler.removeCallbacks(mSettled);
+        mPending = false;
+    }
+
+    public synchronized boolean isPending() {
+        return mPending;
+    }
+
+    /** The frequency that will be sent, only meaningful while isPending() */
+    public synchronized int getPendingFrequency() {
+        return mPendingFrequency;
+    }
+
+    public static synchronized long getRequestedCount() {
+        return mRequested;
+    }
+
+    public static synchronized long getSentCount() {
+        return mSent;
+    }
+
+    /** Tune requests that never reached the receiver */
+    public static synchronized long getAvoidedCount() {
+        return mRequested - mSent;
+    }
+
+    /* The shorter the gap since the previous request, the longer we wait */
+    private static long getSettleDelay(long interval) {
+        long fast = Math.max(0, Math.min(interval, MAX_SETTLE_MS - MIN_SETTLE_MS));
+        return MAX_SETTLE_MS - fast;
+    }
+}